@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package brute.spam;
+
+import info.debatty.java.graphs.NeighborList;
+
+import info.debatty.jinu.TestInterface;
+import info.debatty.spark.knngraphs.Node;
+import info.debatty.spark.knngraphs.builder.Brute;
+import info.debatty.spark.knngraphs.eval.JWSimilarity;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+
+/**
+ * Build the SPAM graph with a given brute force strategy, and report the
+ * total number of shuffle bytes written.
+ *
+ * @author tibo
+ */
+public abstract class AbstractTest implements TestInterface {
+
+    static String dataset_path;
+
+    abstract Brute.Strategy getStrategy();
+
+    @Override
+    public final double[] run(final double k) throws Exception {
+
+        SparkConf conf = new SparkConf();
+        conf.setAppName("Spark brute force with SPAM");
+        conf.setIfMissing("spark.master", "local[*]");
+
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        ShuffleListener listener = new ShuffleListener();
+        sc.sc().addSparkListener(listener);
+
+        JavaRDD<String> nodes = sc.textFile(dataset_path);
+
+        Brute<String> brute = new Brute<>();
+        brute.setK((int) k);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(getStrategy());
+
+        long start = System.currentTimeMillis();
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraph(nodes);
+        graph.count();
+        long time = System.currentTimeMillis() - start;
+
+        // Stopping the context flushes the listener bus, so all task
+        // metrics are accounted for
+        sc.close();
+
+        return new double[] {
+            listener.getShuffleBytesWritten(),
+            time
+        };
+    }
+}
@@ -26,15 +26,14 @@ package jbj.spam;
 import info.debatty.java.graphs.NeighborList;
 
 import info.debatty.jinu.TestInterface;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 import info.debatty.spark.knngraphs.partitioner.JaBeJa;
 import info.debatty.spark.knngraphs.partitioner.Partitioning;
 import info.debatty.spark.knngraphs.partitioner.jabeja.TimeBudget;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
-import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import scala.Tuple2;
 
 /**
  * Run JaBeJa partitioning until convergence...
@@ -54,10 +53,8 @@ public class JaBeJaTest implements TestInterface {
         JavaSparkContext sc = new JavaSparkContext(conf);
 
         // Read graph from HDFS
-        JavaRDD<Tuple2<Node<String>, NeighborList>> tuples =
-                sc.objectFile(dataset_path);
         JavaPairRDD<Node<String>, NeighborList> graph =
-                JavaPairRDD.fromJavaRDD(tuples);
+                GraphFile.load(sc, dataset_path);
 
         // Partition
         JaBeJa<String> partitioner = new JaBeJa<>(
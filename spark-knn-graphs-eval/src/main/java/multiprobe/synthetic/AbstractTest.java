@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package multiprobe.synthetic;
+
+import brute.spam.ShuffleListener;
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.jinu.TestInterface;
+import info.debatty.spark.knngraphs.Node;
+import info.debatty.spark.knngraphs.builder.LSHSuperBitDoubleArray;
+import java.util.HashSet;
+import java.util.Map;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import scala.Tuple2;
+
+/**
+ * Build the synthetic graph with SuperBit LSH, and report the number of
+ * shuffle bytes written and the ratio of correct edges (recall).
+ *
+ * The parameter is the number of buckets each node is assigned to. The
+ * recall is computed on the driver, so it does not add to the shuffle.
+ *
+ * @author tibo
+ */
+public abstract class AbstractTest implements TestInterface {
+
+    static final int K = 10;
+    static final int BUCKETS = 16;
+
+    static String dataset_path;
+    static int dim;
+
+    abstract void configure(LSHSuperBitDoubleArray builder, int replicas);
+
+    @Override
+    public final double[] run(final double replicas) throws Exception {
+
+        SparkConf conf = new SparkConf();
+        conf.setAppName("Spark SuperBit multi-probe with synthetic dataset");
+        conf.setIfMissing("spark.master", "local[*]");
+
+        JavaSparkContext sc = new JavaSparkContext(conf);
+        ShuffleListener listener = new ShuffleListener();
+        sc.sc().addSparkListener(listener);
+
+        JavaRDD<Tuple2<Node<double[]>, NeighborList>> tuples =
+                sc.objectFile(dataset_path);
+        JavaPairRDD<Node<double[]>, NeighborList> exact_graph =
+                JavaPairRDD.fromJavaRDD(tuples);
+
+        LSHSuperBitDoubleArray builder = new LSHSuperBitDoubleArray();
+        builder.setK(K);
+        builder.setDim(dim);
+        builder.setBuckets(BUCKETS);
+        configure(builder, (int) replicas);
+
+        Map<Node<double[]>, NeighborList> graph =
+                builder.computeGraphFromNodes(exact_graph.keys())
+                        .collectAsMap();
+
+        long correct = 0;
+        long total = 0;
+        for (Tuple2<Node<double[]>, NeighborList> tuple
+                : exact_graph.collect()) {
+
+            HashSet<Long> exact = new HashSet<>();
+            for (Neighbor neighbor : tuple._2) {
+                exact.add(((Node<double[]>) neighbor.getNode()).id);
+            }
+            total += exact.size();
+
+            NeighborList nl = graph.get(tuple._1);
+            if (nl == null) {
+                continue;
+            }
+            for (Neighbor neighbor : nl) {
+                if (exact.contains(((Node<double[]>) neighbor.getNode()).id)) {
+                    correct++;
+                }
+            }
+        }
+
+        // Stopping the context flushes the listener bus, so all task
+        // metrics are accounted for
+        sc.close();
+
+        return new double[] {
+            listener.getShuffleBytesWritten(),
+            (double) correct / total
+        };
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package multiprobe.synthetic;
+
+import info.debatty.jinu.Case;
+import info.debatty.jinu.TestFactory;
+import info.debatty.jinu.TestInterface;
+import java.util.Arrays;
+import java.util.List;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Compare the shuffle write size (in bytes) and recall of SuperBit LSH with
+ * additional stages or with multi-probe, for the same number of buckets
+ * per node.
+ *
+ * Arguments: -p number of buckets per node (multiple values), -d exact
+ * graph path, -n dimension of the vectors and -r results directory.
+ *
+ * @author tibo
+ */
+public class TestCase {
+
+    /**
+     * @param args the command line arguments
+     * @throws java.lang.Exception if anything goes wrong
+     */
+    public static void main(final String[] args) throws Exception {
+
+        OptionParser parser = new OptionParser("p:r:d:n:");
+        OptionSet options = parser.parse(args);
+        List<String> replicas_list = (List<String>) options.valuesOf("p");
+        double[] replicas = new double[replicas_list.size()];
+        for (int i = 0; i < replicas.length; i++) {
+            replicas[i] = Double.valueOf(replicas_list.get(i));
+        }
+
+        AbstractTest.dataset_path = (String) options.valueOf("d");
+        AbstractTest.dim = Integer.valueOf((String) options.valueOf("n"));
+
+        // Reduce Spark output logs
+        Logger.getLogger("org").setLevel(Level.WARN);
+        Logger.getLogger("akka").setLevel(Level.WARN);
+
+        Case test = new Case();
+        test.setDescription(TestCase.class.getName() + " : "
+                + String.join(" ", Arrays.asList(args)));
+        test.setIterations(5);
+        test.setParallelism(1);
+        test.commitToGit(false);
+        test.setBaseDir((String) options.valueOf("r"));
+        test.setParamValues(replicas);
+
+        test.addTest(new TestFactory() {
+            @Override
+            public TestInterface newInstance() {
+                return new StagesTest();
+            }
+        });
+
+        test.addTest(new TestFactory() {
+            @Override
+            public TestInterface newInstance() {
+                return new ProbesTest();
+            }
+        });
+
+        test.run();
+    }
+}
@@ -30,6 +30,7 @@ import info.debatty.jinu.TestInterface;
 import info.debatty.spark.kmedoids.budget.TimeBudget;
 import info.debatty.spark.knngraphs.ApproximateSearch;
 import info.debatty.spark.knngraphs.ExhaustiveSearch;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 import info.debatty.spark.knngraphs.partitioner.Partitioner;
 import info.debatty.spark.knngraphs.partitioner.Partitioning;
@@ -38,9 +39,7 @@ import info.debatty.spark.knngraphs.partitioner.KMedoids;
 import java.util.LinkedList;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
-import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import scala.Tuple2;
 
 /**
  *
@@ -64,10 +63,8 @@ public abstract class AbstractTest implements TestInterface {
         conf.setIfMissing("spark.master", "local[*]");
 
         JavaSparkContext sc = new JavaSparkContext(conf);
-        JavaRDD<Tuple2<Node<double[]>, NeighborList>> tuples =
-                sc.objectFile(graph_path);
         JavaPairRDD<Node<double[]>, NeighborList> graph =
-                JavaPairRDD.fromJavaRDD(tuples);
+                GraphFile.load(sc, graph_path);
 
         Partitioner<double[]> partitioner = getPartitioner((int) budget);
         Partitioning<double[]> partition = partitioner.partition(graph);
@@ -25,6 +25,7 @@ package partitioning.commercials;
 
 import info.debatty.java.datasets.tv.Sequence;
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 
 import info.debatty.spark.knngraphs.builder.Brute;
@@ -73,6 +74,6 @@ public class BuildGraph {
         JavaPairRDD<Node<Sequence>, NeighborList> graph =
                 brute.computeGraph(sequences);
 
-        graph.saveAsObjectFile(output_path);
+        GraphFile.save(graph, output_path, true, false);
     }
 }
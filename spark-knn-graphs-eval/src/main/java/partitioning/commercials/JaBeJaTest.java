@@ -27,15 +27,14 @@ import info.debatty.java.datasets.tv.Sequence;
 import info.debatty.java.graphs.NeighborList;
 
 import info.debatty.jinu.TestInterface;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 import info.debatty.spark.knngraphs.partitioner.JaBeJa;
 import info.debatty.spark.knngraphs.partitioner.Partitioning;
 import info.debatty.spark.knngraphs.partitioner.jabeja.TimeBudget;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
-import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
-import scala.Tuple2;
 
 /**
  *
@@ -55,10 +54,8 @@ public class JaBeJaTest implements TestInterface {
         JavaSparkContext sc = new JavaSparkContext(conf);
 
         // Read graph from HDFS
-        JavaRDD<Tuple2<Node<Sequence>, NeighborList>> tuples =
-                sc.objectFile(dataset_path, 16);
         JavaPairRDD<Node<Sequence>, NeighborList> graph =
-                JavaPairRDD.fromJavaRDD(tuples);
+                GraphFile.load(sc, dataset_path);
         graph.cache();
         graph.count();
 
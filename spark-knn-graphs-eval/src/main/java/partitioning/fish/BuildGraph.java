@@ -25,6 +25,7 @@ package partitioning.fish;
 
 import info.debatty.java.datasets.fish.TimeSerie;
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 
 import info.debatty.spark.knngraphs.builder.Brute;
@@ -68,7 +69,7 @@ public class BuildGraph {
         JavaPairRDD<Node<TimeSerie>, NeighborList> graph =
                 brute.computeGraph(timeseries_rdd);
 
-        graph.saveAsObjectFile(output_path);
+        GraphFile.save(graph, output_path, true, false);
 
     }
 }
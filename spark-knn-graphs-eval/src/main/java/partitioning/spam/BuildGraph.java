@@ -24,6 +24,7 @@
 package partitioning.spam;
 
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 
 import info.debatty.spark.knngraphs.builder.Brute;
@@ -68,7 +69,7 @@ public class BuildGraph {
         JavaPairRDD<Node<String>, NeighborList> graph =
                 brute.computeGraph(strings);
 
-        graph.saveAsObjectFile(output_path);
+        GraphFile.save(graph, output_path, true, false);
 
     }
 }
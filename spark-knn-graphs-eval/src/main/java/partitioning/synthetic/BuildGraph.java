@@ -24,6 +24,7 @@
 package partitioning.synthetic;
 
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 
 import info.debatty.spark.knngraphs.builder.Brute;
@@ -66,7 +67,7 @@ public class BuildGraph {
         JavaPairRDD<Node<double[]>, NeighborList> graph =
                 brute.computeGraph(data);
 
-        graph.saveAsObjectFile(output_path);
+        GraphFile.save(graph, output_path, true, false);
 
     }
 }
@@ -28,6 +28,7 @@ import info.debatty.java.graphs.NeighborList;
 import info.debatty.jinu.Case;
 import info.debatty.jinu.TestFactory;
 import info.debatty.jinu.TestInterface;
+import info.debatty.spark.knngraphs.GraphFile;
 import info.debatty.spark.knngraphs.Node;
 import info.debatty.spark.knngraphs.builder.Brute;
 import info.debatty.spark.knngraphs.eval.JWSimilarity;
@@ -106,7 +107,7 @@ public class TestCase {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd-HHmmss");
         Date now = new Date();
         String graph_path = "spam-graph-" + sdf.format(now);
-        graph.saveAsObjectFile(graph_path);
+        GraphFile.save(graph, graph_path, true, false);
         LOGGER.info("Graph saved to " + graph_path);
         sc.close();
 
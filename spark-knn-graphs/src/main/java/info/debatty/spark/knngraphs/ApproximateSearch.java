@@ -69,6 +69,36 @@ public class ApproximateSearch<T> {
         this.distributed_graph.count();
     }
 
+    /**
+     * Partition the graph, given by its topology and nodes, for distributed
+     * search. The nodes are clustered and assigned to partitions using only
+     * their value, then the partitions are built from the topology (see
+     * DistributedGraph.toGraph), without embedding the values of the
+     * neighbors in each neighborlist.
+     *
+     * @param topology
+     * @param nodes
+     * @param similarity
+     * @param partitions
+     */
+    public ApproximateSearch(
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes,
+            final SimilarityInterface<T> similarity,
+            final int partitions) {
+
+        KMedoids<T> partitioner = new KMedoids<>(similarity, partitions);
+        JavaRDD<Node<T>> partitioned_nodes = partitioner.assign(
+                nodes, partitioner.computeMedoids(nodes));
+        partitioned_nodes.cache();
+
+        this.distributed_graph = DistributedGraph.toGraph(
+                topology, partitioned_nodes, similarity, partitions, 0);
+        this.distributed_graph.cache();
+        this.distributed_graph.count();
+        partitioned_nodes.unpersist();
+    }
+
     /**
      * Use the graph as it is.
      * @param graph
@@ -0,0 +1,586 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.FastSearchConfig;
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compact, array based storage for the subgraph of a partition.
+ *
+ * Local nodes get a dense index 0..size-1. The neighbors of local node i are
+ * stored in adjacency[i * k .. i * k + counts[i]], sorted by decreasing
+ * similarity, with their similarity in a parallel float array. Neighbors
+ * that are not in the partition (external nodes) are stored in a separate
+ * array, and are encoded in the adjacency array as -(external index + 1).
+ * A primitive hash map translates node ids to these codes.
+ *
+ * Each external node keeps the list of local nodes that reference it (a
+ * linked list stored in primitive arrays). When an external node becomes
+ * local, only these nodes are updated, and its external slot is reused.
+ *
+ * Compared to a Graph (HashMap of NeighborList of Neighbor objects), this
+ * only creates one object per node (the Node itself).
+ *
+ * This class is not thread-safe.
+ *
+ * @author Thibault Debatty
+ * @param <T> value of the nodes
+ */
+public class CompactGraph<T> implements Serializable {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MISSING = Integer.MIN_VALUE;
+
+    private final int k;
+    private final SimilarityInterface<T> similarity;
+
+    private int size = 0;
+    private Object[] nodes;
+    private int[] counts;
+    private int[] adjacency;
+    private float[] similarities;
+
+    private int external_size = 0;
+    private Object[] external_nodes;
+
+    // slots of external nodes that became local
+    private int free_size = 0;
+    private int[] free_externals;
+
+    // local nodes that reference each external slot: references[] chained
+    // by next_references[], from first_references[slot] (-1 terminated)
+    private int[] first_references;
+    private int[] references;
+    private int[] next_references;
+    private int references_size = 0;
+    private int free_reference = -1;
+
+    private final LongIntHashMap index;
+
+    private transient Random rand;
+
+    /**
+     *
+     * @param k maximum number of neighbors per node
+     * @param similarity
+     */
+    public CompactGraph(final int k, final SimilarityInterface<T> similarity) {
+        this(k, similarity, INITIAL_CAPACITY);
+    }
+
+    /**
+     *
+     * @param k maximum number of neighbors per node
+     * @param similarity
+     * @param capacity expected number of local nodes
+     */
+    public CompactGraph(
+            final int k,
+            final SimilarityInterface<T> similarity,
+            final int capacity) {
+
+        if (k <= 0) {
+            throw new InvalidParameterException("k must be positive!");
+        }
+
+        this.k = k;
+        this.similarity = similarity;
+        int initial = Math.max(1, capacity);
+        this.nodes = new Object[initial];
+        this.counts = new int[initial];
+        this.adjacency = new int[initial * k];
+        this.similarities = new float[initial * k];
+        this.external_nodes = new Object[INITIAL_CAPACITY];
+        this.free_externals = new int[INITIAL_CAPACITY];
+        this.first_references = new int[INITIAL_CAPACITY];
+        this.references = new int[initial];
+        this.next_references = new int[initial];
+        this.index = new LongIntHashMap(initial);
+    }
+
+    /**
+     *
+     * @return the number of local nodes
+     */
+    public final int size() {
+        return size;
+    }
+
+    /**
+     *
+     * @return the maximum number of neighbors per node
+     */
+    public final int getK() {
+        return k;
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if the node is local to this partition
+     */
+    public final boolean containsId(final long id) {
+        return index.get(id, MISSING) >= 0;
+    }
+
+    /**
+     *
+     * @param i
+     * @return the local node with index i
+     */
+    public final Node<T> getNode(final int i) {
+        return node(i);
+    }
+
+    /**
+     * Copy the neighbors of a local node to a NeighborList.
+     * @param id
+     * @return the neighbors, or null if the node is not local
+     */
+    public final NeighborList getNeighbors(final long id) {
+        int i = index.get(id, MISSING);
+        if (i < 0) {
+            return null;
+        }
+
+        NeighborList neighbors = new NeighborList(k);
+        for (int j = i * k; j < i * k + counts[i]; j++) {
+            neighbors.add(new Neighbor<>(node(adjacency[j]), similarities[j]));
+        }
+        return neighbors;
+    }
+
+    /**
+     * Add a local node, without neighbors (if it is not yet local).
+     * @param node
+     */
+    public final void add(final Node<T> node) {
+        local(node);
+    }
+
+    /**
+     * Add (or replace) a local node and its neighbors.
+     * @param node
+     * @param neighbors (of type Node)
+     */
+    public final void put(final Node<T> node, final NeighborList neighbors) {
+        int i = local(node);
+        counts[i] = 0;
+        for (Neighbor neighbor : neighbors) {
+            addNeighbor(node.id, (Node<T>) neighbor.getNode(),
+                    neighbor.getSimilarity());
+        }
+    }
+
+    /**
+     * Add a candidate neighbor to a local node, in place: the candidate is
+     * inserted if it is not yet a neighbor, and is more similar than the
+     * least similar neighbor (or if the node has less than k neighbors).
+     * @param id of the local node
+     * @param neighbor
+     * @param neighbor_similarity
+     * @return true if the neighbors of the node were modified
+     */
+    public final boolean addNeighbor(
+            final long id,
+            final Node<T> neighbor,
+            final double neighbor_similarity) {
+
+        int i = index.get(id, MISSING);
+        if (i < 0) {
+            throw new InvalidParameterException(
+                    "Node " + id + " is not in this partition");
+        }
+
+        int start = i * k;
+        int count = counts[i];
+        float sim = (float) neighbor_similarity;
+        if (count == k && sim <= similarities[start + count - 1]) {
+            return false;
+        }
+
+        int code = index.get(neighbor.id, MISSING);
+        if (code != MISSING) {
+            for (int j = start; j < start + count; j++) {
+                if (adjacency[j] == code) {
+                    return false;
+                }
+            }
+        } else {
+            code = external(neighbor);
+        }
+
+        // shift less similar neighbors, dropping the last one if full
+        int j = start + Math.min(count, k - 1);
+        while (j > start && similarities[j - 1] < sim) {
+            adjacency[j] = adjacency[j - 1];
+            similarities[j] = similarities[j - 1];
+            j--;
+        }
+        adjacency[j] = code;
+        similarities[j] = sim;
+        counts[i] = Math.min(count + 1, k);
+
+        // the reference is not removed if the neighbor is dropped later
+        // (it is then simply skipped if the node becomes local)
+        if (code < 0) {
+            reference(-code - 1, i);
+        }
+        return true;
+    }
+
+    /**
+     * Search the nearest neighbors of the query, starting from a random
+     * node.
+     * @param query
+     * @param conf
+     * @return
+     */
+    public final CompactSearchResult<T> search(
+            final T query, final FastSearchConfig conf) {
+        return search(query, conf, randomNode());
+    }
+
+    /**
+     * Search the nearest neighbors of the query, starting from the node with
+     * this id (or from a random node if it is not local).
+     *
+     * Same algorithm as Graph.fastSearch: greedy walk from the starting
+     * node, with long jumps and random restarts, until size / speedup
+     * similarities are computed. When an external node is reached, the
+     * search restarts (if conf.isRestartAtBoundary()) or stops and returns
+     * the boundary node.
+     *
+     * @param query
+     * @param conf
+     * @param start_id
+     * @return
+     */
+    public final CompactSearchResult<T> search(
+            final T query,
+            final FastSearchConfig conf,
+            final long start_id) {
+
+        int start = index.get(start_id, MISSING);
+        if (start < 0) {
+            start = randomNode();
+        }
+        return search(query, conf, start);
+    }
+
+    private CompactSearchResult<T> search(
+            final T query,
+            final FastSearchConfig conf,
+            final int start) {
+
+        CompactSearchResult<T> result = new CompactSearchResult<>(conf.getK());
+        if (size == 0) {
+            return result;
+        }
+
+        int max_similarities = (int) (size / conf.getSpeedup());
+        if (conf.getK() >= size || max_similarities >= size) {
+            for (int i = 0; i < size; i++) {
+                add(result, i, similarity.similarity(query, value(i)));
+                result.incSimilarities();
+            }
+            return result;
+        }
+
+        // code of visited nodes => position in visited arrays
+        // inner loops can exceed max_similarities by at most k + long jumps
+        LongIntHashMap visited = new LongIntHashMap(max_similarities);
+        int[] visited_codes =
+                new int[max_similarities + k + conf.getLongJumps() + 1];
+        double[] visited_similarities = new double[visited_codes.length];
+
+        double highest_similarity = 0;
+        int current = start;
+
+        search:
+        while (result.getSimilarities() < max_similarities) {
+            if (visited.containsKey(current)) {
+                current = restart(result);
+                continue;
+            }
+
+            double current_similarity = similarity.similarity(
+                    query, value(current));
+            result.incSimilarities();
+            visit(visited, visited_codes, visited_similarities,
+                    current, current_similarity);
+
+            if (current_similarity
+                    < highest_similarity / conf.getExpansion()) {
+                current = restart(result);
+                continue;
+            }
+
+            while (result.getSimilarities() < max_similarities) {
+                if (current < 0) {
+                    // external node: we reached the boundary of the partition
+                    if (conf.isRestartAtBoundary()) {
+                        result.incBoundaryRestarts();
+                        break;
+                    }
+                    result.setBoundaryNode(node(current));
+                    break search;
+                }
+
+                int next = MISSING;
+                double next_similarity = current_similarity;
+
+                for (int jump = 0; jump < conf.getLongJumps(); jump++) {
+                    int candidate = randomNode();
+                    if (visited.containsKey(candidate)) {
+                        continue;
+                    }
+
+                    double sim = similarity.similarity(
+                            query, value(candidate));
+                    result.incSimilarities();
+                    visit(visited, visited_codes, visited_similarities,
+                            candidate, sim);
+                    if (sim > next_similarity) {
+                        next = candidate;
+                        next_similarity = sim;
+                        break;
+                    }
+                }
+
+                int from = current * k;
+                for (int j = from; j < from + counts[current]; j++) {
+                    int candidate = adjacency[j];
+                    if (visited.containsKey(candidate)) {
+                        continue;
+                    }
+
+                    double sim = similarity.similarity(
+                            query, value(candidate));
+                    result.incSimilarities();
+                    visit(visited, visited_codes, visited_similarities,
+                            candidate, sim);
+                    if (sim > next_similarity) {
+                        next = candidate;
+                        next_similarity = sim;
+                        break;
+                    }
+                }
+
+                if (next_similarity > highest_similarity) {
+                    highest_similarity = next_similarity;
+                }
+
+                if (next == MISSING) {
+                    break;
+                }
+
+                current = next;
+                current_similarity = next_similarity;
+            }
+
+            current = restart(result);
+        }
+
+        for (int i = 0; i < visited.size(); i++) {
+            add(result, visited_codes[i], visited_similarities[i]);
+        }
+        return result;
+    }
+
+    private int restart(final CompactSearchResult<T> result) {
+        result.incRestarts();
+        return randomNode();
+    }
+
+    private void visit(
+            final LongIntHashMap visited,
+            final int[] codes,
+            final double[] sims,
+            final int code,
+            final double sim) {
+
+        int position = visited.size();
+        codes[position] = code;
+        sims[position] = sim;
+        visited.put(code, position);
+    }
+
+    /**
+     * Add to the result neighborlist, without creating a Neighbor if the
+     * node is not among the k best.
+     */
+    private void add(
+            final CompactSearchResult<T> result,
+            final int code,
+            final double sim) {
+
+        NeighborList neighbors = result.getNeighbors();
+        if (neighbors.size() >= result.getK()
+                && sim <= neighbors.peek().getSimilarity()) {
+            return;
+        }
+        neighbors.add(new Neighbor<>(node(code), sim));
+    }
+
+    private int randomNode() {
+        if (rand == null) {
+            rand = new Random();
+        }
+        return size == 0 ? MISSING : rand.nextInt(size);
+    }
+
+    private Node<T> node(final int code) {
+        if (code >= 0) {
+            return (Node<T>) nodes[code];
+        }
+        return (Node<T>) external_nodes[-code - 1];
+    }
+
+    private T value(final int code) {
+        return node(code).value;
+    }
+
+    /**
+     * Index of the local node, which is created if needed.
+     */
+    private int local(final Node<T> node) {
+        int code = index.get(node.id, MISSING);
+        if (code >= 0) {
+            nodes[code] = node;
+            return code;
+        }
+
+        if (size == nodes.length) {
+            grow();
+        }
+
+        int i = size;
+        size++;
+        nodes[i] = node;
+        counts[i] = 0;
+        index.put(node.id, i);
+
+        if (code != MISSING) {
+            // the node was external: update the nodes that reference it,
+            // and free its slot
+            int slot = -code - 1;
+            int r = first_references[slot];
+            while (r >= 0) {
+                int n = references[r];
+                for (int j = n * k; j < n * k + counts[n]; j++) {
+                    if (adjacency[j] == code) {
+                        adjacency[j] = i;
+                    }
+                }
+
+                int next = next_references[r];
+                next_references[r] = free_reference;
+                free_reference = r;
+                r = next;
+            }
+
+            external_nodes[slot] = null;
+            free_externals[free_size] = slot;
+            free_size++;
+        }
+        return i;
+    }
+
+    private int external(final Node<T> node) {
+        int slot;
+        if (free_size > 0) {
+            free_size--;
+            slot = free_externals[free_size];
+        } else {
+            if (external_size == external_nodes.length) {
+                growExternals();
+            }
+            slot = external_size;
+            external_size++;
+        }
+
+        external_nodes[slot] = node;
+        first_references[slot] = -1;
+        int code = -(slot + 1);
+        index.put(node.id, code);
+        return code;
+    }
+
+    /**
+     * Record that local node i references the external slot.
+     */
+    private void reference(final int slot, final int i) {
+        int r = free_reference;
+        if (r >= 0) {
+            free_reference = next_references[r];
+        } else {
+            if (references_size == references.length) {
+                references = Arrays.copyOf(references, 2 * references_size);
+                next_references = Arrays.copyOf(
+                        next_references, 2 * references_size);
+            }
+            r = references_size;
+            references_size++;
+        }
+
+        references[r] = i;
+        next_references[r] = first_references[slot];
+        first_references[slot] = r;
+    }
+
+    private void growExternals() {
+        int capacity = 2 * external_nodes.length;
+        external_nodes = Arrays.copyOf(external_nodes, capacity);
+        free_externals = Arrays.copyOf(free_externals, capacity);
+        first_references = Arrays.copyOf(first_references, capacity);
+    }
+
+    private void grow() {
+        int capacity = 2 * nodes.length;
+        Object[] grown_nodes = new Object[capacity];
+        System.arraycopy(nodes, 0, grown_nodes, 0, size);
+        nodes = grown_nodes;
+
+        int[] grown_counts = new int[capacity];
+        System.arraycopy(counts, 0, grown_counts, 0, size);
+        counts = grown_counts;
+
+        int[] grown_adjacency = new int[capacity * k];
+        System.arraycopy(adjacency, 0, grown_adjacency, 0, size * k);
+        adjacency = grown_adjacency;
+
+        float[] grown_similarities = new float[capacity * k];
+        System.arraycopy(similarities, 0, grown_similarities, 0, size * k);
+        similarities = grown_similarities;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.FastSearchConfig;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.spark.knngraphs.partitioner.KMedoids;
+import java.util.LinkedList;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+
+/**
+ * Distributed nn search, like ApproximateSearch, but the partitions of the
+ * graph are cached as CompactGraph (primitive arrays) instead of Graph
+ * (HashMap of NeighborList), which reduces the size of the cached graph and
+ * GC pressure.
+ *
+ * @author Thibault Debatty
+ * @param <T>
+ */
+public class CompactSearch<T> {
+
+    private final JavaRDD<CompactGraph<T>> distributed_graph;
+
+    /**
+     * Partition the graph for distributed search.
+     *
+     * @param graph
+     * @param similarity
+     * @param partitions
+     */
+    public CompactSearch(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final SimilarityInterface<T> similarity,
+            final int partitions) {
+
+        this(DistributedGraph.toCompactGraph(
+                new KMedoids<>(similarity, partitions)
+                        .partition(graph).wrapped_graph,
+                similarity));
+    }
+
+    /**
+     * Use the graph as it is, without repartitioning.
+     * @param distributed_graph
+     */
+    public CompactSearch(final JavaRDD<CompactGraph<T>> distributed_graph) {
+        this.distributed_graph = distributed_graph;
+        this.distributed_graph.cache();
+        this.distributed_graph.count();
+    }
+
+    /**
+     * Unpersist the internal cached RDD.
+     */
+    public final void clean() {
+        distributed_graph.unpersist(true);
+    }
+
+    /**
+     *
+     * @return the cached partitions of the graph
+     */
+    public final JavaRDD<CompactGraph<T>> getDistributedGraph() {
+        return distributed_graph;
+    }
+
+    /**
+     * Perform fast distributed search using default parameters.
+     *
+     * @param query
+     * @param k
+     * @return
+     */
+    public final CompactSearchResult<T> search(final T query, final int k) {
+
+        FastSearchConfig conf = FastSearchConfig.getDefault();
+        conf.setK(k);
+        return search(query, conf);
+    }
+
+    /**
+     *
+     * @param query
+     * @param conf
+     * @return
+     */
+    public final CompactSearchResult<T> search(
+            final T query, final FastSearchConfig conf) {
+
+        if (!conf.isRestartAtBoundary()) {
+            return naiveSearch(query, conf);
+        }
+
+        CompactSearchResult<T> global_result =
+                new CompactSearchResult<>(conf.getK());
+        global_result.incIterations();
+        for (CompactSearchResult<T> result : distributed_graph.map(
+                new CompactSearchFunction<T>(
+                        query, conf, new LinkedList<Long>())).collect()) {
+            global_result.add(result);
+        }
+        return global_result;
+    }
+
+    /**
+     * Search iteratively: each partition stops when the search reaches its
+     * boundary, and the next iteration starts from the boundary nodes.
+     * @param query
+     * @param conf
+     * @return
+     */
+    public final CompactSearchResult<T> naiveSearch(
+            final T query, final FastSearchConfig conf) {
+
+        long size = 0;
+        for (Integer partition_size
+                : distributed_graph.map(new CompactGraphSizeFunction<T>())
+                        .collect()) {
+            size += partition_size;
+        }
+        long max_similarities = size / (long) conf.getSpeedup();
+
+        LinkedList<Long> starting_points = new LinkedList<>();
+        CompactSearchResult<T> global_result =
+                new CompactSearchResult<>(conf.getK());
+
+        while (global_result.getSimilarities() < max_similarities) {
+            global_result.incIterations();
+            JavaRDD<CompactSearchResult<T>> results = distributed_graph.map(
+                    new CompactSearchFunction<T>(
+                            query, conf, starting_points));
+
+            starting_points = new LinkedList<>();
+            for (CompactSearchResult<T> result : results.collect()) {
+                global_result.add(result);
+
+                if (result.getBoundaryNode() != null) {
+                    starting_points.add(result.getBoundaryNode().id);
+                }
+            }
+        }
+
+        return global_result;
+    }
+}
+
+/**
+ * Search each partition, starting from the first starting point that is in
+ * the partition (or from a random node).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class CompactSearchFunction<T>
+        implements Function<CompactGraph<T>, CompactSearchResult<T>> {
+
+    private final T query;
+    private final FastSearchConfig conf;
+    private final LinkedList<Long> starting_points;
+
+    CompactSearchFunction(
+            final T query,
+            final FastSearchConfig conf,
+            final LinkedList<Long> starting_points) {
+
+        this.query = query;
+        this.conf = conf;
+        this.starting_points = starting_points;
+    }
+
+    @Override
+    public CompactSearchResult<T> call(final CompactGraph<T> local_graph) {
+        for (long start : starting_points) {
+            if (local_graph.containsId(start)) {
+                return local_graph.search(query, conf, start);
+            }
+        }
+
+        return local_graph.search(query, conf);
+    }
+}
+
+/**
+ *
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class CompactGraphSizeFunction<T>
+        implements Function<CompactGraph<T>, Integer> {
+
+    @Override
+    public Integer call(final CompactGraph<T> graph) {
+        return graph.size();
+    }
+}
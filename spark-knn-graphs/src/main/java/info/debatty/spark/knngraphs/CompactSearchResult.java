@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.NeighborList;
+import java.io.Serializable;
+
+/**
+ * Result of a search in a CompactGraph (or in all partitions of a
+ * CompactSearch): the neighbors that were found, and search statistics.
+ *
+ * @author Thibault Debatty
+ * @param <T> value of the nodes
+ */
+public class CompactSearchResult<T> implements Serializable {
+
+    private final int k;
+    private final NeighborList neighbors;
+    private int similarities = 0;
+    private int restarts = 0;
+    private int boundary_restarts = 0;
+    private int iterations = 0;
+    private Node<T> boundary_node = null;
+
+    /**
+     *
+     * @param k number of neighbors to keep
+     */
+    public CompactSearchResult(final int k) {
+        this.k = k;
+        this.neighbors = new NeighborList(k);
+    }
+
+    /**
+     *
+     * @return the number of neighbors to keep
+     */
+    public final int getK() {
+        return k;
+    }
+
+    /**
+     *
+     * @return the nearest neighbors that were found (of type Node)
+     */
+    public final NeighborList getNeighbors() {
+        return neighbors;
+    }
+
+    /**
+     *
+     * @return the number of computed similarities
+     */
+    public final int getSimilarities() {
+        return similarities;
+    }
+
+    /**
+     *
+     * @return the number of random restarts
+     */
+    public final int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     *
+     * @return the number of restarts because the boundary of the partition
+     * was reached
+     */
+    public final int getBoundaryRestarts() {
+        return boundary_restarts;
+    }
+
+    /**
+     * Number of Spark iterations that were executed to perform the search.
+     * @return
+     */
+    public final int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Node (outside the partition) where the search stopped, or null.
+     * @return
+     */
+    public final Node<T> getBoundaryNode() {
+        return boundary_node;
+    }
+
+    /**
+     * Merge the neighbors and statistics of another result.
+     * @param other
+     */
+    public final void add(final CompactSearchResult<T> other) {
+        neighbors.addAll(other.neighbors);
+        similarities += other.similarities;
+        restarts += other.restarts;
+        boundary_restarts += other.boundary_restarts;
+    }
+
+    final void incSimilarities() {
+        similarities++;
+    }
+
+    final void incRestarts() {
+        restarts++;
+    }
+
+    final void incBoundaryRestarts() {
+        boundary_restarts++;
+    }
+
+    final void incIterations() {
+        iterations++;
+    }
+
+    final void setBoundaryNode(final Node<T> boundary_node) {
+        this.boundary_node = boundary_node;
+    }
+
+    @Override
+    public final String toString() {
+        return "CompactSearchResult{" + "neighbors=" + neighbors
+                + ", similarities=" + similarities
+                + ", restarts=" + restarts
+                + ", boundary_restarts=" + boundary_restarts
+                + ", iterations=" + iterations + '}';
+    }
+}
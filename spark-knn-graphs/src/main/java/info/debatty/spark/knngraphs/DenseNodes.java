@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ * Nodes wrapped with dense ids: ids are contiguous in 0..n-1, and partition
+ * p holds ids getOffset(p) to getOffset(p + 1) - 1.
+ *
+ * Consumers do not need this object to benefit from dense ids: JaBeJa, for
+ * example, checks the density of the collected ids and then uses arrays
+ * instead of maps. The offsets allow to find the partition that holds an
+ * id, without scanning the nodes.
+ *
+ * @author Thibault Debatty
+ * @param <T> value of nodes
+ */
+public class DenseNodes<T> {
+
+    private final JavaRDD<Node<T>> nodes;
+    private final long[] offsets;
+
+    /**
+     *
+     * @param nodes
+     * @param offsets offset of each partition, with a last entry equal to
+     * the total number of nodes
+     */
+    DenseNodes(final JavaRDD<Node<T>> nodes, final long[] offsets) {
+        if (offsets.length != nodes.getNumPartitions() + 1) {
+            throw new InvalidParameterException(
+                    "offsets must contain partitions + 1 values");
+        }
+
+        this.nodes = nodes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Get the wrapped nodes.
+     * @return
+     */
+    public final JavaRDD<Node<T>> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Number of nodes (ids are in 0..size-1).
+     * @return
+     */
+    public final long size() {
+        return offsets[offsets.length - 1];
+    }
+
+    /**
+     * Id of the first node of this partition.
+     * @param partition
+     * @return
+     */
+    public final long getOffset(final int partition) {
+        return offsets[partition];
+    }
+
+    /**
+     * Get a copy of the offset table (partitions + 1 values).
+     * @return
+     */
+    public final long[] getOffsets() {
+        return offsets.clone();
+    }
+
+    /**
+     * Index of the RDD partition that holds this id.
+     * @param id
+     * @return
+     */
+    public final int getPartition(final long id) {
+        if (id < 0 || id >= size()) {
+            throw new InvalidParameterException("id out of range: " + id);
+        }
+
+        // Empty partitions have the same offset as the next one: search
+        // for the last partition starting at or before id
+        int position = Arrays.binarySearch(offsets, id);
+        if (position < 0) {
+            return -position - 2;
+        }
+
+        while (offsets[position + 1] == id) {
+            position++;
+        }
+        return position;
+    }
+}
@@ -24,16 +24,29 @@
 package info.debatty.spark.knngraphs;
 
 import info.debatty.java.graphs.Graph;
+import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
 import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.spark.knngraphs.builder.NodeSimilarityAdapter;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
 import scala.Tuple2;
 
 /**
@@ -56,6 +69,123 @@ public class DistributedGraph {
 
     }
 
+    /**
+     * Wrap the nodes with dense ids: ids are contiguous in 0..n-1 and each
+     * partition holds a contiguous range of ids. This allows downstream
+     * code to use arrays indexed by id instead of maps (JaBeJa detects
+     * dense ids by itself).
+     *
+     * This triggers a job to count the nodes in each partition, and ids
+     * are assigned lazily afterwards: nodes should be cached, or the input
+     * should be deterministic.
+     *
+     * @param <T>
+     * @param nodes
+     * @return
+     */
+    public static final <T> DenseNodes<T> wrapNodesDense(
+            final JavaRDD<T> nodes) {
+
+        List<Long> counts = nodes
+                .mapPartitions(new CountPartitionFunction<T>())
+                .collect();
+
+        long[] offsets = new long[nodes.getNumPartitions() + 1];
+        for (int i = 0; i < counts.size(); i++) {
+            offsets[i + 1] = offsets[i] + counts.get(i);
+        }
+
+        return new DenseNodes<>(
+                nodes.mapPartitionsWithIndex(
+                        new WrapDenseFunction<T>(offsets), true),
+                offsets);
+    }
+
+    /**
+     * Schema of the edge table: src and dst ids, similarity, and rank of
+     * the edge in the neighborlist of src (0 for the most similar).
+     */
+    public static final StructType EDGE_SCHEMA = new StructType(
+            new StructField[] {
+                DataTypes.createStructField(
+                        "src", DataTypes.LongType, false),
+                DataTypes.createStructField(
+                        "dst", DataTypes.LongType, false),
+                DataTypes.createStructField(
+                        "similarity", DataTypes.FloatType, false),
+                DataTypes.createStructField(
+                        "rank", DataTypes.IntegerType, false)});
+
+    /**
+     * Convert the graph to an edge table (see EDGE_SCHEMA). Values of the
+     * nodes are not part of the table.
+     * @param <T>
+     * @param spark
+     * @param graph
+     * @return
+     */
+    public static final <T> Dataset<Row> toEdges(
+            final SparkSession spark,
+            final JavaPairRDD<Node<T>, NeighborList> graph) {
+
+        return spark.createDataFrame(
+                toTopology(graph).flatMap(new ToEdgesFunction()),
+                EDGE_SCHEMA);
+    }
+
+    /**
+     * Write the edge table of the graph as Parquet. Edges are sorted by src
+     * (and rank), so the min/max statistics of files and row groups allow
+     * to skip data when filtering on src.
+     * @param <T>
+     * @param spark
+     * @param graph
+     * @param path
+     */
+    public static final <T> void saveAsParquet(
+            final SparkSession spark,
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final String path) {
+
+        toEdges(spark, graph)
+                .sort("src", "rank")
+                .write()
+                .parquet(path);
+    }
+
+    /**
+     * Build the topology from an edge table, for example read with
+     * spark.read().parquet(path). Only the src, dst and similarity columns
+     * are used.
+     * @param edges
+     * @return
+     */
+    public static final JavaPairRDD<Long, IdNeighborList> topologyFromEdges(
+            final Dataset<Row> edges) {
+
+        return edges
+                .select("src", "dst", "similarity")
+                .javaRDD()
+                .mapToPair(new EdgeBySrcFunction())
+                .groupByKey()
+                .mapValues(new EdgesToNeighborsFunction());
+    }
+
+    /**
+     * Rebuild a graph of (Node, NeighborList) from an edge table and the
+     * nodes.
+     * @param <T>
+     * @param edges
+     * @param nodes
+     * @return
+     */
+    public static final <T> JavaPairRDD<Node<T>, NeighborList> fromEdges(
+            final Dataset<Row> edges,
+            final JavaRDD<Node<T>> nodes) {
+
+        return fromTopology(topologyFromEdges(edges), nodes);
+    }
+
     /**
      *
      * @param <T>
@@ -75,7 +205,9 @@ public class DistributedGraph {
     }
 
     /**
-     * Convert a PairRDD of (Node, NeighborList) to a RDD of Graph.
+     * Convert a PairRDD of (Node, NeighborList) to a RDD of Graph. The
+     * neighborlists are rebuilt with the size of the largest neighborlist
+     * of the partition as capacity.
      * @param <T>
      * @param graph
      * @param similarity
@@ -85,8 +217,158 @@ public class DistributedGraph {
             final JavaPairRDD<Node<T>, NeighborList> graph,
             final SimilarityInterface<T> similarity) {
 
+        return toGraph(graph, similarity, 0);
+    }
+
+    /**
+     * Convert a PairRDD of (Node, NeighborList) to a RDD of Graph, with k
+     * as capacity of the neighborlists.
+     * @param <T>
+     * @param graph
+     * @param similarity
+     * @param k
+     * @return
+     */
+    public static final <T> JavaRDD<Graph<Node<T>>> toGraph(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final SimilarityInterface<T> similarity,
+            final int k) {
+
+        return graph.mapPartitions(
+                new NeighborListToGraph(similarity, k), true);
+    }
+
+    /**
+     * Convert a PairRDD of (Node, NeighborList) to a RDD of CompactGraph
+     * (one per partition).
+     * @param <T>
+     * @param graph
+     * @param similarity
+     * @return
+     */
+    public static final <T> JavaRDD<CompactGraph<T>> toCompactGraph(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final SimilarityInterface<T> similarity) {
+
         return graph.mapPartitions(
-                new NeighborListToGraph(similarity), true);
+                new NeighborListToCompactGraph<T>(similarity), true);
+    }
+
+    /**
+     * Extract the topology of the graph: the neighborlists, with only the id
+     * and similarity of each neighbor. Values of the nodes can be kept
+     * separately with graph.keys().
+     * @param <T>
+     * @param graph
+     * @return
+     */
+    public static final <T> JavaPairRDD<Long, IdNeighborList> toTopology(
+            final JavaPairRDD<Node<T>, NeighborList> graph) {
+
+        return graph.mapToPair(new ToTopologyFunction<T>());
+    }
+
+    /**
+     * Rebuild a graph of (Node, NeighborList) from the topology and the
+     * nodes. Neighbor ids that do not appear in the nodes are dropped. k is
+     * the size of the largest neighborlist (this requires a pass over the
+     * topology).
+     * @param <T>
+     * @param topology
+     * @param nodes
+     * @return
+     */
+    public static final <T> JavaPairRDD<Node<T>, NeighborList> fromTopology(
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes) {
+
+        int k = topology
+                .map(new TopologySizeFunction())
+                .fold(1, new MaxFunction());
+        return fromTopology(topology, nodes, k);
+    }
+
+    /**
+     * Rebuild a graph of (Node, NeighborList) from the topology and the
+     * nodes, with k as capacity of the neighborlists.
+     *
+     * Each value is copied in the neighborlist of all the nodes it is a
+     * neighbor of, which requires to shuffle each value about k times.
+     * @param <T>
+     * @param topology
+     * @param nodes
+     * @param k
+     * @return
+     */
+    public static final <T> JavaPairRDD<Node<T>, NeighborList> fromTopology(
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes,
+            final int k) {
+
+        if (k < 1) {
+            throw new InvalidParameterException("k must be >= 1");
+        }
+
+        JavaPairRDD<Long, Node<T>> nodes_by_id =
+                nodes.mapToPair(new KeyByIdFunction<T>());
+
+        // (neighbor id, (node id, similarity)) joined with the value of the
+        // neighbor, then keyed by node id again
+        JavaPairRDD<Long, Neighbor<Node<T>>> neighbors = topology
+                .flatMapToPair(new ReverseEdgesFunction())
+                .join(nodes_by_id)
+                .mapToPair(new AttachValueFunction<T>());
+
+        return nodes_by_id
+                .cogroup(neighbors)
+                .flatMapToPair(new CollectNeighborsFunction<T>(k));
+    }
+
+    /**
+     * Build the partitions of a graph stored as topology and nodes, for
+     * distributed search, without rebuilding the (Node, NeighborList) graph.
+     * The nodes must already be partitioned (see KMedoids.assign).
+     *
+     * Each node is shuffled once to its partition, and once to each other
+     * partition that holds one of its reverse neighbors (instead of once per
+     * reverse neighbor with fromTopology). Inside a partition, neighbors
+     * point to the same instance of each node.
+     * @param <T>
+     * @param topology
+     * @param nodes with their partition in [0, partitions[
+     * @param similarity
+     * @param partitions
+     * @param k capacity of the neighborlists, or 0 to use the size of the
+     * largest neighborlist of the partition
+     * @return
+     */
+    public static final <T> JavaRDD<Graph<Node<T>>> toGraph(
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes,
+            final SimilarityInterface<T> similarity,
+            final int partitions,
+            final int k) {
+
+        JavaPairRDD<Long, Node<T>> nodes_by_id =
+                nodes.mapToPair(new KeyByIdFunction<T>());
+
+        // (node id, (node, neighbors)), including nodes without neighbors
+        JavaPairRDD<Long, Tuple2<Node<T>, IdNeighborList>> located =
+                nodes_by_id.cogroup(topology).flatMapValues(
+                        new LocateNodeFunction<T>());
+
+        // the ids of the neighbors are sent to the node, which is sent back
+        // once to each other partition that needs it
+        JavaPairRDD<Integer, Node<T>> externals = located
+                .flatMapToPair(new RequestNeighborsFunction<T>())
+                .distinct()
+                .join(nodes_by_id)
+                .flatMapToPair(new SendExternalFunction<T>());
+
+        return located
+                .mapToPair(new ByPartitionFunction<T>())
+                .cogroup(externals, partitions)
+                .mapPartitions(new TopologyToGraphFunction<T>(similarity, k));
     }
 
     /**
@@ -141,6 +423,73 @@ class WrapNodeFunction<T> implements Function<Tuple2<T, Long>, Node<T>> {
     }
 }
 
+/**
+ * Count the elements in each partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class CountPartitionFunction<T>
+        implements FlatMapFunction<Iterator<T>, Long> {
+
+    @Override
+    public Iterator<Long> call(final Iterator<T> values) {
+        long count = 0;
+        while (values.hasNext()) {
+            values.next();
+            count++;
+        }
+
+        ArrayList<Long> result = new ArrayList<>(1);
+        result.add(count);
+        return result.iterator();
+    }
+}
+
+/**
+ * Wrap the values of a partition with consecutive ids, starting at the
+ * offset of the partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class WrapDenseFunction<T>
+        implements Function2<Integer, Iterator<T>, Iterator<Node<T>>> {
+
+    private final long[] offsets;
+
+    WrapDenseFunction(final long[] offsets) {
+        this.offsets = offsets;
+    }
+
+    @Override
+    public Iterator<Node<T>> call(
+            final Integer partition, final Iterator<T> values) {
+
+        final long offset = offsets[partition];
+        return new Iterator<Node<T>>() {
+
+            private long next_id = offset;
+
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public Node<T> next() {
+                Node<T> node = new Node<>(values.next());
+                node.id = next_id;
+                next_id++;
+                return node;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
+
 /**
  * Used to convert a PairRDD Node,NeighborList to a RDD of Graph.
  * @author Thibault Debatty
@@ -151,25 +500,55 @@ class NeighborListToGraph<T>
             Iterator<Tuple2<Node<T>, NeighborList>>, Graph<Node<T>>> {
 
     private final SimilarityInterface<T> similarity;
+    private final int k;
 
-    NeighborListToGraph(final SimilarityInterface<T> similarity) {
+    /**
+     *
+     * @param similarity
+     * @param k capacity of the neighborlists, or 0 to use the size of the
+     * largest neighborlist of the partition
+     */
+    NeighborListToGraph(final SimilarityInterface<T> similarity, final int k) {
 
         this.similarity = similarity;
+        this.k = k;
     }
 
     @Override
     public Iterator<Graph<Node<T>>> call(
             final Iterator<Tuple2<Node<T>, NeighborList>> iterator) {
 
-        info.debatty.java.graphs.Graph<Node<T>> graph = new Graph<>();
+        ArrayList<Tuple2<Node<T>, NeighborList>> tuples = new ArrayList<>();
+        HashMap<Node<T>, Node<T>> local_nodes = new HashMap<>();
+        int capacity = k;
         while (iterator.hasNext()) {
             Tuple2<Node<T>, NeighborList> next = iterator.next();
-            graph.put(next._1, next._2);
+            tuples.add(next);
+            local_nodes.put(next._1, next._1);
+            if (k == 0) {
+                capacity = Math.max(capacity, next._2.size());
+            }
+        }
+
+        // Neighbors that are in this partition point to the same instance
+        // as the node itself, so the value is stored only once
+        info.debatty.java.graphs.Graph<Node<T>> graph = new Graph<>();
+        for (Tuple2<Node<T>, NeighborList> tuple : tuples) {
+            NeighborList neighbors = new NeighborList(capacity);
+            for (Neighbor<Node<T>> neighbor : tuple._2) {
+                Node<T> local_node = local_nodes.get(neighbor.getNode());
+                if (local_node == null) {
+                    neighbors.add(neighbor);
+                } else {
+                    neighbors.add(new Neighbor<>(
+                            local_node, neighbor.getSimilarity()));
+                }
+            }
+            graph.put(tuple._1, neighbors);
         }
 
         graph.setSimilarity(new NodeSimilarityAdapter<>(similarity));
-        graph.setK(
-                graph.getNeighbors(graph.getNodes().iterator().next()).size());
+        graph.setK(capacity);
 
         ArrayList<Graph<Node<T>>> list = new ArrayList<>(1);
         list.add(graph);
@@ -178,6 +557,50 @@ class NeighborListToGraph<T>
     }
 }
 
+/**
+ * Used to convert a PairRDD Node,NeighborList to a RDD of CompactGraph.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class NeighborListToCompactGraph<T>
+        implements FlatMapFunction<
+            Iterator<Tuple2<Node<T>, NeighborList>>, CompactGraph<T>> {
+
+    private final SimilarityInterface<T> similarity;
+
+    NeighborListToCompactGraph(final SimilarityInterface<T> similarity) {
+        this.similarity = similarity;
+    }
+
+    @Override
+    public Iterator<CompactGraph<T>> call(
+            final Iterator<Tuple2<Node<T>, NeighborList>> iterator) {
+
+        ArrayList<Tuple2<Node<T>, NeighborList>> tuples = new ArrayList<>();
+        int k = 1;
+        while (iterator.hasNext()) {
+            Tuple2<Node<T>, NeighborList> next = iterator.next();
+            tuples.add(next);
+            k = Math.max(k, next._2.size());
+        }
+
+        // register all local nodes first, so that neighbors in the
+        // partition are stored as local nodes
+        CompactGraph<T> graph =
+                new CompactGraph<>(k, similarity, tuples.size());
+        for (Tuple2<Node<T>, NeighborList> tuple : tuples) {
+            graph.add(tuple._1);
+        }
+        for (Tuple2<Node<T>, NeighborList> tuple : tuples) {
+            graph.put(tuple._1, tuple._2);
+        }
+
+        ArrayList<CompactGraph<T>> list = new ArrayList<>(1);
+        list.add(graph);
+        return list.iterator();
+    }
+}
+
 /**
  *
  * @author Thibault Debatty
@@ -220,4 +643,381 @@ class SumFunction
         return arg0 + arg1;
     }
 
-}
\ No newline at end of file
+}
+
+/**
+ * Keep only the id and similarity of neighbors.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ToTopologyFunction<T>
+        implements PairFunction<
+            Tuple2<Node<T>, NeighborList>, Long, IdNeighborList> {
+
+    @Override
+    public Tuple2<Long, IdNeighborList> call(
+            final Tuple2<Node<T>, NeighborList> tuple) {
+
+        return new Tuple2<>(tuple._1.id, new IdNeighborList(tuple._2));
+    }
+}
+
+/**
+ * Convert a neighborlist to rows of the edge table.
+ * @author Thibault Debatty
+ */
+class ToEdgesFunction
+        implements FlatMapFunction<Tuple2<Long, IdNeighborList>, Row> {
+
+    @Override
+    public Iterator<Row> call(final Tuple2<Long, IdNeighborList> tuple) {
+        IdNeighborList neighbors = tuple._2;
+        ArrayList<Row> rows = new ArrayList<>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            rows.add(RowFactory.create(
+                    tuple._1,
+                    neighbors.getId(i),
+                    neighbors.getSimilarity(i),
+                    i));
+        }
+        return rows.iterator();
+    }
+}
+
+/**
+ * Key a row (src, dst, similarity) by src.
+ * @author Thibault Debatty
+ */
+class EdgeBySrcFunction
+        implements PairFunction<Row, Long, Tuple2<Long, Float>> {
+
+    @Override
+    public Tuple2<Long, Tuple2<Long, Float>> call(final Row row) {
+        return new Tuple2<>(
+                row.getLong(0),
+                new Tuple2<>(row.getLong(1), row.getFloat(2)));
+    }
+}
+
+/**
+ * Collect the edges (dst, similarity) of a node in an IdNeighborList.
+ * @author Thibault Debatty
+ */
+class EdgesToNeighborsFunction
+        implements Function<Iterable<Tuple2<Long, Float>>, IdNeighborList> {
+
+    @Override
+    public IdNeighborList call(final Iterable<Tuple2<Long, Float>> edges) {
+        ArrayList<Tuple2<Long, Float>> list = new ArrayList<>();
+        for (Tuple2<Long, Float> edge : edges) {
+            list.add(edge);
+        }
+
+        long[] ids = new long[list.size()];
+        float[] similarities = new float[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            ids[i] = list.get(i)._1;
+            similarities[i] = list.get(i)._2;
+        }
+        return new IdNeighborList(ids, similarities);
+    }
+}
+
+/**
+ *
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class KeyByIdFunction<T> implements PairFunction<Node<T>, Long, Node<T>> {
+
+    @Override
+    public Tuple2<Long, Node<T>> call(final Node<T> node) {
+        return new Tuple2<>(node.id, node);
+    }
+}
+
+/**
+ * Emit each edge as (neighbor id, (node id, similarity)).
+ * @author Thibault Debatty
+ */
+class ReverseEdgesFunction
+        implements PairFlatMapFunction<
+            Tuple2<Long, IdNeighborList>, Long, Tuple2<Long, Float>> {
+
+    @Override
+    public Iterator<Tuple2<Long, Tuple2<Long, Float>>> call(
+            final Tuple2<Long, IdNeighborList> tuple) {
+
+        IdNeighborList neighbors = tuple._2;
+        ArrayList<Tuple2<Long, Tuple2<Long, Float>>> edges =
+                new ArrayList<>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            edges.add(new Tuple2<>(
+                    neighbors.getId(i),
+                    new Tuple2<>(tuple._1, neighbors.getSimilarity(i))));
+        }
+        return edges.iterator();
+    }
+}
+
+/**
+ * Build the Neighbor (with value) of a reversed edge, keyed by node id.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class AttachValueFunction<T>
+        implements PairFunction<
+            Tuple2<Long, Tuple2<Tuple2<Long, Float>, Node<T>>>,
+            Long,
+            Neighbor<Node<T>>> {
+
+    @Override
+    public Tuple2<Long, Neighbor<Node<T>>> call(
+            final Tuple2<Long, Tuple2<Tuple2<Long, Float>, Node<T>>> tuple) {
+
+        Tuple2<Long, Float> edge = tuple._2._1;
+        return new Tuple2<>(
+                edge._1,
+                new Neighbor<>(tuple._2._2, (double) edge._2));
+    }
+}
+
+/**
+ * Create the NeighborList of each node.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class CollectNeighborsFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Long, Tuple2<
+                Iterable<Node<T>>, Iterable<Neighbor<Node<T>>>>>,
+            Node<T>,
+            NeighborList> {
+
+    private final int k;
+
+    CollectNeighborsFunction(final int k) {
+        this.k = k;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Tuple2<Long, Tuple2<
+                    Iterable<Node<T>>, Iterable<Neighbor<Node<T>>>>> tuple) {
+
+        ArrayList<Tuple2<Node<T>, NeighborList>> result = new ArrayList<>(1);
+        for (Node<T> node : tuple._2._1) {
+            ArrayList<Neighbor<Node<T>>> list = new ArrayList<>();
+            for (Neighbor<Node<T>> neighbor : tuple._2._2) {
+                list.add(neighbor);
+            }
+
+            NeighborList neighbors = new NeighborList(k);
+            neighbors.addAll(list);
+            result.add(new Tuple2<>(node, neighbors));
+        }
+        return result.iterator();
+    }
+}
+
+/**
+ * Size of a neighborlist of the topology.
+ * @author Thibault Debatty
+ */
+class TopologySizeFunction
+        implements Function<Tuple2<Long, IdNeighborList>, Integer> {
+
+    @Override
+    public Integer call(final Tuple2<Long, IdNeighborList> tuple) {
+        return tuple._2.size();
+    }
+}
+
+/**
+ * Maximum of two integers.
+ * @author Thibault Debatty
+ */
+class MaxFunction implements Function2<Integer, Integer, Integer> {
+
+    @Override
+    public Integer call(final Integer value1, final Integer value2) {
+        return Math.max(value1, value2);
+    }
+}
+
+/**
+ * (Iterable of node, Iterable of neighbors) to (node, neighbors), with an
+ * empty list if the node has no neighbors. Neighbors without node are
+ * dropped.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class LocateNodeFunction<T>
+        implements Function<
+            Tuple2<Iterable<Node<T>>, Iterable<IdNeighborList>>,
+            Iterable<Tuple2<Node<T>, IdNeighborList>>> {
+
+    private static final IdNeighborList EMPTY =
+            new IdNeighborList(new long[0], new float[0]);
+
+    @Override
+    public Iterable<Tuple2<Node<T>, IdNeighborList>> call(
+            final Tuple2<Iterable<Node<T>>, Iterable<IdNeighborList>> tuple) {
+
+        IdNeighborList neighbors = EMPTY;
+        for (IdNeighborList list : tuple._2) {
+            neighbors = list;
+        }
+
+        ArrayList<Tuple2<Node<T>, IdNeighborList>> result =
+                new ArrayList<>(1);
+        for (Node<T> node : tuple._1) {
+            result.add(new Tuple2<>(node, neighbors));
+        }
+        return result;
+    }
+}
+
+/**
+ * (node id, (node, neighbors)) to (neighbor id, partition of the node), for
+ * each neighbor.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class RequestNeighborsFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Long, Tuple2<Node<T>, IdNeighborList>>, Long, Integer> {
+
+    @Override
+    public Iterator<Tuple2<Long, Integer>> call(
+            final Tuple2<Long, Tuple2<Node<T>, IdNeighborList>> tuple) {
+
+        IdNeighborList neighbors = tuple._2._2;
+        ArrayList<Tuple2<Long, Integer>> result =
+                new ArrayList<>(neighbors.size());
+        for (int i = 0; i < neighbors.size(); i++) {
+            result.add(new Tuple2<>(
+                    neighbors.getId(i), tuple._2._1.partition));
+        }
+        return result.iterator();
+    }
+}
+
+/**
+ * (node id, (requesting partition, node)) to (partition, node), if the node
+ * is not already in the requesting partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class SendExternalFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Long, Tuple2<Integer, Node<T>>>, Integer, Node<T>> {
+
+    @Override
+    public Iterator<Tuple2<Integer, Node<T>>> call(
+            final Tuple2<Long, Tuple2<Integer, Node<T>>> tuple) {
+
+        ArrayList<Tuple2<Integer, Node<T>>> result = new ArrayList<>(1);
+        if (tuple._2._2.partition != tuple._2._1) {
+            result.add(new Tuple2<>(tuple._2._1, tuple._2._2));
+        }
+        return result.iterator();
+    }
+}
+
+/**
+ * (node id, (node, neighbors)) to (partition, (node, neighbors)).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ByPartitionFunction<T>
+        implements PairFunction<
+            Tuple2<Long, Tuple2<Node<T>, IdNeighborList>>,
+            Integer,
+            Tuple2<Node<T>, IdNeighborList>> {
+
+    @Override
+    public Tuple2<Integer, Tuple2<Node<T>, IdNeighborList>> call(
+            final Tuple2<Long, Tuple2<Node<T>, IdNeighborList>> tuple) {
+        return new Tuple2<>(tuple._2._1.partition, tuple._2);
+    }
+}
+
+/**
+ * Build the Graph of a partition from its nodes (with their topology) and
+ * the external nodes they reference. Like NeighborListToGraph, this produces
+ * one Graph per partition, even if the partition is empty.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class TopologyToGraphFunction<T>
+        implements FlatMapFunction<
+            Iterator<Tuple2<Integer, Tuple2<
+                Iterable<Tuple2<Node<T>, IdNeighborList>>,
+                Iterable<Node<T>>>>>,
+            Graph<Node<T>>> {
+
+    private final SimilarityInterface<T> similarity;
+    private final int k;
+
+    /**
+     *
+     * @param similarity
+     * @param k capacity of the neighborlists, or 0 to use the size of the
+     * largest neighborlist of the partition
+     */
+    TopologyToGraphFunction(
+            final SimilarityInterface<T> similarity, final int k) {
+
+        this.similarity = similarity;
+        this.k = k;
+    }
+
+    @Override
+    public Iterator<Graph<Node<T>>> call(
+            final Iterator<Tuple2<Integer, Tuple2<
+                    Iterable<Tuple2<Node<T>, IdNeighborList>>,
+                    Iterable<Node<T>>>>> iterator) {
+
+        // the partition usually holds a single key (partition id)
+        ArrayList<Tuple2<Node<T>, IdNeighborList>> locals = new ArrayList<>();
+        HashMap<Long, Node<T>> nodes = new HashMap<>();
+        int capacity = Math.max(1, k);
+        while (iterator.hasNext()) {
+            Tuple2<Iterable<Tuple2<Node<T>, IdNeighborList>>,
+                    Iterable<Node<T>>> tuple = iterator.next()._2;
+            for (Tuple2<Node<T>, IdNeighborList> local : tuple._1) {
+                locals.add(local);
+                nodes.put(local._1.id, local._1);
+                if (k == 0) {
+                    capacity = Math.max(capacity, local._2.size());
+                }
+            }
+            for (Node<T> external : tuple._2) {
+                if (!nodes.containsKey(external.id)) {
+                    nodes.put(external.id, external);
+                }
+            }
+        }
+
+        Graph<Node<T>> graph = new Graph<>();
+        for (Tuple2<Node<T>, IdNeighborList> local : locals) {
+            NeighborList neighbors = new NeighborList(capacity);
+            for (int i = 0; i < local._2.size(); i++) {
+                Node<T> neighbor = nodes.get(local._2.getId(i));
+                if (neighbor != null) {
+                    neighbors.add(new Neighbor<>(
+                            neighbor, local._2.getSimilarity(i)));
+                }
+            }
+            graph.put(local._1, neighbors);
+        }
+
+        graph.setSimilarity(new NodeSimilarityAdapter<>(similarity));
+        graph.setK(capacity);
+
+        ArrayList<Graph<Node<T>>> list = new ArrayList<>(1);
+        list.add(graph);
+        return list.iterator();
+    }
+}
@@ -0,0 +1,785 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.SerializableWritable;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.FlatMapFunction;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+
+/**
+ * Save and load graphs in a compact binary format, instead of
+ * saveAsObjectFile / objectFile (Java serialization).
+ *
+ * A graph is saved as a directory with one file per partition, which
+ * contains the ids, partitions and neighbors of the nodes (see
+ * GraphFileCodec), optional files per partition with the values of the
+ * nodes and of their neighbors (Java serialization), and an index file that
+ * is written last. When loading, local partition files are memory-mapped.
+ *
+ * The values of the neighbors are written once per partition file, so the
+ * complete graph is loaded partition by partition, without shuffle.
+ *
+ * @author Thibault Debatty
+ */
+public final class GraphFile {
+
+    static final String INDEX = "_index";
+    private static final int INDEX_ENTRY_SIZE = 24;
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(GraphFile.class);
+
+    private GraphFile() {
+
+    }
+
+    /**
+     * Save the graph, with node values and exact (32 bits) similarities.
+     * @param <T>
+     * @param graph
+     * @param path
+     * @throws IOException if the directory already exists or cannot be
+     * written
+     */
+    public static <T> void save(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final String path) throws IOException {
+
+        save(graph, path, true, false);
+    }
+
+    /**
+     * Save the graph.
+     * @param <T>
+     * @param graph
+     * @param path
+     * @param with_values also save the values of the nodes and of their
+     * neighbors (required to load the complete graph)
+     * @param quantize store similarities on 16 bits (relative to the range
+     * of each neighbor list) instead of 32
+     * @throws IOException if the directory already exists or cannot be
+     * written
+     */
+    public static <T> void save(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final String path,
+            final boolean with_values,
+            final boolean quantize) throws IOException {
+
+        Configuration conf = graph.context().hadoopConfiguration();
+        Path dir = new Path(path);
+        FileSystem fs = dir.getFileSystem(conf);
+        if (fs.exists(dir)) {
+            throw new IOException("Output directory already exists: " + path);
+        }
+        fs.mkdirs(dir);
+
+        byte flags = 0;
+        if (quantize) {
+            flags |= GraphFileCodec.FLAG_QUANTIZED;
+        }
+        if (with_values) {
+            flags |= GraphFileCodec.FLAG_VALUES;
+            flags |= GraphFileCodec.FLAG_NEIGHBORS;
+        }
+
+        List<long[]> partitions = graph
+                .mapPartitionsWithIndex(
+                        new WriteGraphFunction<T>(
+                                path,
+                                flags,
+                                new SerializableWritable<>(conf)),
+                        false)
+                .collect();
+
+        long bytes = 0;
+        int k = 0;
+        DataOutputStream out = new DataOutputStream(
+                fs.create(new Path(dir, INDEX)));
+        try {
+            out.writeInt(GraphFileCodec.MAGIC);
+            out.writeByte(GraphFileCodec.VERSION);
+            out.writeByte(flags);
+            out.writeInt(partitions.size());
+            for (long[] partition : partitions) {
+                out.writeLong(partition[0]);
+                out.writeLong(partition[1]);
+                out.writeLong(partition[2]);
+                bytes += partition[1] + partition[2];
+                k = Math.max(k, (int) partition[3]);
+            }
+
+            // Capacity of the neighborlists when loading the graph
+            out.writeInt(k);
+        } finally {
+            out.close();
+        }
+
+        LOGGER.info("Saved {} partitions ({} bytes) to {}",
+                partitions.size(), bytes, path);
+    }
+
+    /**
+     * Load the complete graph. The file must contain the values of the
+     * nodes.
+     *
+     * Files saved with the values of the neighbors are loaded partition by
+     * partition, without shuffle. Older files are rebuilt from the topology
+     * and the nodes (see DistributedGraph.fromTopology), which shuffles each
+     * value about k times. Directories without index are assumed to be
+     * written by saveAsObjectFile.
+     *
+     * @param <T>
+     * @param sc
+     * @param path
+     * @return
+     * @throws IOException if the index cannot be read
+     */
+    public static <T> JavaPairRDD<Node<T>, NeighborList> load(
+            final JavaSparkContext sc,
+            final String path) throws IOException {
+
+        Path index = new Path(path, INDEX);
+        if (!index.getFileSystem(sc.hadoopConfiguration()).exists(index)) {
+            LOGGER.warn("No index in {}, reading it as an object file", path);
+            return JavaPairRDD.fromJavaRDD(
+                    sc.<Tuple2<Node<T>, NeighborList>>objectFile(path));
+        }
+
+        if ((readFlags(sc, path) & GraphFileCodec.FLAG_NEIGHBORS) == 0) {
+            return DistributedGraph.fromTopology(
+                    GraphFile.loadTopology(sc, path),
+                    GraphFile.<T>loadNodes(sc, path));
+        }
+
+        return JavaPairRDD.fromJavaRDD(indexes(sc, path).mapPartitions(
+                new LoadGraphFunction<T>(
+                        path,
+                        Math.max(1, readIndex(sc, path)[2]),
+                        new SerializableWritable<>(sc.hadoopConfiguration()))));
+    }
+
+    /**
+     * Load the nodes (with their id, partition and value).
+     * @param <T>
+     * @param sc
+     * @param path
+     * @return
+     * @throws IOException if the index cannot be read, or if the file does
+     * not contain the values of the nodes
+     */
+    public static <T> JavaRDD<Node<T>> loadNodes(
+            final JavaSparkContext sc,
+            final String path) throws IOException {
+
+        if ((readFlags(sc, path) & GraphFileCodec.FLAG_VALUES) == 0) {
+            throw new IOException("Graph was saved without values: " + path);
+        }
+
+        return GraphFile.<T>read(sc, path, true).map(
+                new Function<Tuple2<Node<T>, IdNeighborList>, Node<T>>() {
+                    @Override
+                    public Node<T> call(
+                            final Tuple2<Node<T>, IdNeighborList> tuple) {
+                        return tuple._1;
+                    }
+                });
+    }
+
+    /**
+     * Load the topology of the graph (ids of neighbors only), without
+     * reading the values of the nodes.
+     * @param sc
+     * @param path
+     * @return
+     * @throws IOException if the index cannot be read
+     */
+    public static JavaPairRDD<Long, IdNeighborList> loadTopology(
+            final JavaSparkContext sc,
+            final String path) throws IOException {
+
+        return GraphFile.read(sc, path, false).mapToPair(
+                new PairFunction<
+                        Tuple2<Node<Object>, IdNeighborList>,
+                        Long, IdNeighborList>() {
+                    @Override
+                    public Tuple2<Long, IdNeighborList> call(
+                            final Tuple2<Node<Object>, IdNeighborList> tuple) {
+                        return new Tuple2<>(tuple._1.id, tuple._2);
+                    }
+                });
+    }
+
+    private static <T> JavaRDD<Tuple2<Node<T>, IdNeighborList>> read(
+            final JavaSparkContext sc,
+            final String path,
+            final boolean read_values) throws IOException {
+
+        return indexes(sc, path).mapPartitions(
+                new ReadGraphFunction<T>(
+                        path,
+                        read_values,
+                        new SerializableWritable<>(sc.hadoopConfiguration())));
+    }
+
+    /**
+     * One element (the index of the partition file) per partition.
+     */
+    private static JavaRDD<Integer> indexes(
+            final JavaSparkContext sc,
+            final String path) throws IOException {
+
+        int partitions = readPartitions(sc, path);
+        List<Integer> indexes = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            indexes.add(i);
+        }
+
+        return sc.parallelize(indexes, partitions);
+    }
+
+    private static byte readFlags(
+            final JavaSparkContext sc, final String path) throws IOException {
+        return (byte) readIndex(sc, path)[0];
+    }
+
+    private static int readPartitions(
+            final JavaSparkContext sc, final String path) throws IOException {
+        return readIndex(sc, path)[1];
+    }
+
+    /**
+     * Read the flags, the number of partitions and the size of the largest
+     * neighborlist from the index file.
+     */
+    private static int[] readIndex(
+            final JavaSparkContext sc, final String path) throws IOException {
+
+        Path index = new Path(path, INDEX);
+        FileSystem fs = index.getFileSystem(sc.hadoopConfiguration());
+        if (!fs.exists(index)) {
+            throw new IOException("Not a graph file (no index): " + path);
+        }
+
+        FSDataInputStream in = fs.open(index);
+        try {
+            DataInputStream data = new DataInputStream(in);
+            if (data.readInt() != GraphFileCodec.MAGIC) {
+                throw new IOException("Not a graph file: " + path);
+            }
+            byte version = data.readByte();
+            if (version != GraphFileCodec.VERSION) {
+                throw new IOException("Unsupported version: " + version);
+            }
+            int flags = data.readByte();
+            int partitions = data.readInt();
+            int k = 0;
+            if ((flags & GraphFileCodec.FLAG_NEIGHBORS) != 0) {
+                // Skip the entries of the partitions
+                data.readFully(new byte[partitions * INDEX_ENTRY_SIZE]);
+                k = data.readInt();
+            }
+            return new int[] {flags, partitions, k};
+        } finally {
+            in.close();
+        }
+    }
+
+    static String partitionName(final int partition) {
+        return String.format("part-%05d", partition);
+    }
+
+    static String valuesName(final int partition) {
+        return partitionName(partition) + ".values";
+    }
+
+    static String neighborsName(final int partition) {
+        return partitionName(partition) + ".neighbors";
+    }
+}
+
+/**
+ * Write a partition of the graph, and return the index of the partition,
+ * the size of the partition file, the size of the values files and the size
+ * of the largest neighborlist.
+ *
+ * For each record, the neighbors file contains the neighbors (sorted by id)
+ * that were not written yet in this file.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class WriteGraphFunction<T>
+        implements Function2<
+            Integer,
+            Iterator<Tuple2<Node<T>, NeighborList>>,
+            Iterator<long[]>> {
+
+    // Clear the references kept by ObjectOutputStream every so often
+    private static final int RESET_INTERVAL = 1000;
+
+    private final String path;
+    private final byte flags;
+    private final SerializableWritable<Configuration> conf;
+
+    WriteGraphFunction(
+            final String path,
+            final byte flags,
+            final SerializableWritable<Configuration> conf) {
+
+        this.path = path;
+        this.flags = flags;
+        this.conf = conf;
+    }
+
+    @Override
+    public Iterator<long[]> call(
+            final Integer partition,
+            final Iterator<Tuple2<Node<T>, NeighborList>> tuples)
+            throws IOException {
+
+        boolean quantize = (flags & GraphFileCodec.FLAG_QUANTIZED) != 0;
+        boolean with_values = (flags & GraphFileCodec.FLAG_VALUES) != 0;
+
+        Path file = new Path(path, GraphFile.partitionName(partition));
+        Path values_file = new Path(path, GraphFile.valuesName(partition));
+        Path neighbors_file =
+                new Path(path, GraphFile.neighborsName(partition));
+        FileSystem fs = file.getFileSystem(conf.value());
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(fs.create(file)));
+        ObjectOutputStream values_out = null;
+        ObjectOutputStream neighbors_out = null;
+        HashSet<Long> written = new HashSet<>();
+        if (with_values) {
+            values_out = new ObjectOutputStream(
+                    new BufferedOutputStream(fs.create(values_file)));
+            neighbors_out = new ObjectOutputStream(
+                    new BufferedOutputStream(fs.create(neighbors_file)));
+        }
+
+        int count = 0;
+        int k = 0;
+        try {
+            out.writeInt(GraphFileCodec.MAGIC);
+            out.writeByte(GraphFileCodec.VERSION);
+            out.writeByte(flags);
+
+            long previous_id = 0;
+            while (tuples.hasNext()) {
+                Tuple2<Node<T>, NeighborList> tuple = tuples.next();
+                GraphFileCodec.writeRecord(
+                        out, tuple._1, tuple._2, previous_id, quantize);
+                previous_id = tuple._1.id;
+                k = Math.max(k, tuple._2.size());
+
+                if (with_values) {
+                    values_out.writeObject(tuple._1.value);
+                    writeNeighbors(neighbors_out, tuple._2, written);
+                    if (count % RESET_INTERVAL == 0) {
+                        values_out.reset();
+                        neighbors_out.reset();
+                    }
+                }
+                count++;
+            }
+
+            out.writeInt(count);
+            out.writeInt(GraphFileCodec.MAGIC);
+        } finally {
+            out.close();
+            if (values_out != null) {
+                values_out.close();
+                neighbors_out.close();
+            }
+        }
+
+        long values_length = 0;
+        if (with_values) {
+            values_length = fs.getFileStatus(values_file).getLen()
+                    + fs.getFileStatus(neighbors_file).getLen();
+        }
+
+        ArrayList<long[]> result = new ArrayList<>(1);
+        result.add(new long[] {
+            partition,
+            fs.getFileStatus(file).getLen(),
+            values_length,
+            k});
+        return result.iterator();
+    }
+
+    private static void writeNeighbors(
+            final ObjectOutputStream out,
+            final NeighborList neighbors,
+            final HashSet<Long> written) throws IOException {
+
+        ArrayList<Node> nodes = new ArrayList<>(neighbors.size());
+        for (Neighbor neighbor : neighbors) {
+            nodes.add((Node) neighbor.getNode());
+        }
+        Collections.sort(nodes, new NodeIdComparator());
+
+        for (Node node : nodes) {
+            if (written.add(node.id)) {
+                out.writeObject(node);
+            }
+        }
+    }
+}
+
+/**
+ * Sort nodes by id.
+ * @author Thibault Debatty
+ */
+class NodeIdComparator implements Comparator<Node> {
+
+    @Override
+    public int compare(final Node node1, final Node node2) {
+        return Long.compare(node1.id, node2.id);
+    }
+}
+
+/**
+ * Read the partition files whose index is in the input partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ReadGraphFunction<T>
+        implements FlatMapFunction<
+            Iterator<Integer>, Tuple2<Node<T>, IdNeighborList>> {
+
+    private final String path;
+    private final boolean read_values;
+    private final SerializableWritable<Configuration> conf;
+
+    ReadGraphFunction(
+            final String path,
+            final boolean read_values,
+            final SerializableWritable<Configuration> conf) {
+
+        this.path = path;
+        this.read_values = read_values;
+        this.conf = conf;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, IdNeighborList>> call(
+            final Iterator<Integer> indexes) {
+
+        return new GraphFileIterator<>(
+                path, indexes, read_values, conf.value());
+    }
+}
+
+/**
+ * Lazily decode the records of one or more partition files.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class GraphFileIterator<T>
+        implements Iterator<Tuple2<Node<T>, IdNeighborList>> {
+
+    private final String path;
+    private final Iterator<Integer> indexes;
+    private final boolean read_values;
+    private final Configuration conf;
+
+    private ByteBuffer buffer;
+    private ObjectInputStream values_in;
+    private boolean quantized;
+    private int remaining = 0;
+    private long previous_id;
+
+    GraphFileIterator(
+            final String path,
+            final Iterator<Integer> indexes,
+            final boolean read_values,
+            final Configuration conf) {
+
+        this.path = path;
+        this.indexes = indexes;
+        this.read_values = read_values;
+        this.conf = conf;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (remaining == 0) {
+            if (!indexes.hasNext()) {
+                return false;
+            }
+
+            try {
+                open(indexes.next());
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple2<Node<T>, IdNeighborList> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Node<T> node = new Node<>(null);
+        node.id = previous_id + GraphFileCodec.unzigzag(
+                GraphFileCodec.readVarLong(buffer));
+        node.partition = (int) GraphFileCodec.unzigzag(
+                GraphFileCodec.readVarLong(buffer));
+        previous_id = node.id;
+
+        IdNeighborList neighbors =
+                GraphFileCodec.readNeighbors(buffer, quantized);
+
+        if (read_values) {
+            try {
+                node.value = (T) values_in.readObject();
+            } catch (IOException | ClassNotFoundException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        remaining--;
+        if (remaining == 0) {
+            close();
+        }
+
+        return new Tuple2<>(node, neighbors);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void open(final int index) throws IOException {
+        Path file = new Path(path, GraphFile.partitionName(index));
+        buffer = GraphFileCodec.open(file, conf);
+
+        int footer = buffer.limit() - GraphFileCodec.FOOTER_SIZE;
+        if (buffer.getInt(0) != GraphFileCodec.MAGIC
+                || buffer.getInt(footer + 4) != GraphFileCodec.MAGIC) {
+            throw new IOException("Not a graph file: " + file);
+        }
+
+        byte flags = buffer.get(5);
+        quantized = (flags & GraphFileCodec.FLAG_QUANTIZED) != 0;
+        remaining = buffer.getInt(footer);
+        previous_id = 0;
+        buffer.position(GraphFileCodec.HEADER_SIZE);
+
+        if (read_values && remaining > 0) {
+            values_in = new ContextObjectInputStream(
+                    new ByteBufferInputStream(GraphFileCodec.open(
+                            new Path(path, GraphFile.valuesName(index)),
+                            conf)));
+        }
+    }
+
+    private void close() {
+        buffer = null;
+        if (values_in != null) {
+            try {
+                values_in.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            values_in = null;
+        }
+    }
+}
+
+/**
+ * Load the complete graph from the partition files whose index is in the
+ * input partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class LoadGraphFunction<T>
+        implements FlatMapFunction<
+            Iterator<Integer>, Tuple2<Node<T>, NeighborList>> {
+
+    private final String path;
+    private final int k;
+    private final SerializableWritable<Configuration> conf;
+
+    LoadGraphFunction(
+            final String path,
+            final int k,
+            final SerializableWritable<Configuration> conf) {
+
+        this.path = path;
+        this.k = k;
+        this.conf = conf;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Iterator<Integer> indexes) {
+
+        return new GraphIterator<>(path, indexes, k, conf.value());
+    }
+}
+
+/**
+ * Lazily rebuild the neighborlists of one or more partition files, using
+ * the neighbors file of each partition.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class GraphIterator<T> implements Iterator<Tuple2<Node<T>, NeighborList>> {
+
+    private final String path;
+    private final Iterator<Integer> indexes;
+    private final int k;
+    private final Configuration conf;
+
+    private GraphFileIterator<T> records;
+    private ObjectInputStream neighbors_in;
+    private final HashMap<Long, Node<T>> neighbors = new HashMap<>();
+
+    GraphIterator(
+            final String path,
+            final Iterator<Integer> indexes,
+            final int k,
+            final Configuration conf) {
+
+        this.path = path;
+        this.indexes = indexes;
+        this.k = k;
+        this.conf = conf;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (records == null || !records.hasNext()) {
+            close();
+            if (!indexes.hasNext()) {
+                return false;
+            }
+
+            int index = indexes.next();
+            records = new GraphFileIterator<>(
+                    path,
+                    Collections.singletonList(index).iterator(),
+                    true,
+                    conf);
+            try {
+                neighbors_in = new ContextObjectInputStream(
+                        new ByteBufferInputStream(GraphFileCodec.open(
+                                new Path(path, GraphFile.neighborsName(index)),
+                                conf)));
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple2<Node<T>, NeighborList> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Tuple2<Node<T>, IdNeighborList> record = records.next();
+        IdNeighborList ids = record._2;
+
+        try {
+            // Neighbors that were not read yet are in the order of their id
+            long[] sorted = new long[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                sorted[i] = ids.getId(i);
+            }
+            Arrays.sort(sorted);
+            for (long id : sorted) {
+                if (!neighbors.containsKey(id)) {
+                    neighbors.put(id, (Node<T>) neighbors_in.readObject());
+                }
+            }
+
+            NeighborList nl = new NeighborList(k);
+            for (int i = 0; i < ids.size(); i++) {
+                nl.add(new Neighbor(
+                        neighbors.get(ids.getId(i)), ids.getSimilarity(i)));
+            }
+
+            return new Tuple2<>(record._1, nl);
+
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void close() {
+        neighbors.clear();
+        if (neighbors_in != null) {
+            try {
+                neighbors_in.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            neighbors_in = null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Low level encoding of the graph file format (see GraphFile).
+ *
+ * Each partition file contains a header (magic, version, flags), the
+ * records and a footer (number of records, magic). A record is:
+ * - the node id, as a zigzag varint delta from the previous node id;
+ * - the partition of the node, as a zigzag varint;
+ * - the number of neighbors, as a varint;
+ * - the neighbor ids, sorted, as varint deltas (the first one zigzag);
+ * - the similarities, either as floats, or quantized on 16 bits between
+ *   the min and max similarity of the list (two floats).
+ *
+ * @author Thibault Debatty
+ */
+final class GraphFileCodec {
+
+    static final int MAGIC = 0x4B4E4E47;
+    static final byte VERSION = 1;
+    static final byte FLAG_QUANTIZED = 1;
+    static final byte FLAG_VALUES = 2;
+    static final byte FLAG_NEIGHBORS = 4;
+
+    static final int HEADER_SIZE = 6;
+    static final int FOOTER_SIZE = 8;
+
+    private static final int QUANTIZATION_LEVELS = 0xFFFF;
+    private static final int VARINT_MASK = 0x7F;
+    private static final int VARINT_CONTINUE = 0x80;
+    private static final int VARINT_SHIFT = 7;
+
+    private GraphFileCodec() {
+
+    }
+
+    static void writeVarLong(final DataOutputStream out, final long value)
+            throws IOException {
+
+        long remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.writeByte((int) ((remaining & VARINT_MASK) | VARINT_CONTINUE));
+            remaining >>>= VARINT_SHIFT;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.get();
+            value |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_CONTINUE) == 0) {
+                return value;
+            }
+            shift += VARINT_SHIFT;
+        }
+    }
+
+    static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a record.
+     * @param out
+     * @param node
+     * @param neighbors
+     * @param previous_id id of the previous node in this file (or 0)
+     * @param quantize
+     * @throws IOException
+     */
+    static void writeRecord(
+            final DataOutputStream out,
+            final Node node,
+            final NeighborList neighbors,
+            final long previous_id,
+            final boolean quantize) throws IOException {
+
+        writeVarLong(out, zigzag(node.id - previous_id));
+        writeVarLong(out, zigzag(node.partition));
+
+        // Sort by id, to delta encode the neighbor ids
+        int size = neighbors.size();
+        long[][] edges = new long[size][];
+        double[] similarities = new double[size];
+        int i = 0;
+        for (Neighbor neighbor : neighbors) {
+            edges[i] = new long[] {((Node) neighbor.getNode()).id, i};
+            similarities[i] = neighbor.getSimilarity();
+            i++;
+        }
+        Arrays.sort(edges, new EdgeComparator());
+
+        writeVarLong(out, size);
+        long previous = 0;
+        for (i = 0; i < size; i++) {
+            long id = edges[i][0];
+            if (i == 0) {
+                writeVarLong(out, zigzag(id));
+            } else {
+                writeVarLong(out, id - previous);
+            }
+            previous = id;
+        }
+
+        if (!quantize) {
+            for (i = 0; i < size; i++) {
+                out.writeFloat((float) similarities[(int) edges[i][1]]);
+            }
+            return;
+        }
+
+        if (size == 0) {
+            return;
+        }
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (double similarity : similarities) {
+            min = Math.min(min, (float) similarity);
+            max = Math.max(max, (float) similarity);
+        }
+        out.writeFloat(min);
+        out.writeFloat(max);
+        float range = max - min;
+        for (i = 0; i < size; i++) {
+            float similarity = (float) similarities[(int) edges[i][1]];
+            int code = 0;
+            if (range > 0) {
+                code = Math.round(
+                        (similarity - min) / range * QUANTIZATION_LEVELS);
+            }
+            out.writeShort(code);
+        }
+    }
+
+    /**
+     * Read the neighbors of a record, after the node id and partition.
+     * @param buffer
+     * @param quantized
+     * @return
+     */
+    static IdNeighborList readNeighbors(
+            final ByteBuffer buffer, final boolean quantized) {
+
+        int size = (int) readVarLong(buffer);
+        long[] ids = new long[size];
+        float[] similarities = new float[size];
+
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                ids[i] = unzigzag(readVarLong(buffer));
+            } else {
+                ids[i] = previous + readVarLong(buffer);
+            }
+            previous = ids[i];
+        }
+
+        if (!quantized) {
+            for (int i = 0; i < size; i++) {
+                similarities[i] = buffer.getFloat();
+            }
+            return new IdNeighborList(ids, similarities);
+        }
+
+        if (size == 0) {
+            return new IdNeighborList(ids, similarities);
+        }
+
+        float min = buffer.getFloat();
+        float max = buffer.getFloat();
+        float range = max - min;
+        for (int i = 0; i < size; i++) {
+            int code = buffer.getShort() & QUANTIZATION_LEVELS;
+            similarities[i] = min + range * code / QUANTIZATION_LEVELS;
+        }
+        return new IdNeighborList(ids, similarities);
+    }
+
+    /**
+     * Map a file in memory. Files that are not on the local file system
+     * (e.g. HDFS) cannot be mapped and are read in a heap buffer.
+     * @param path
+     * @param conf
+     * @return
+     * @throws IOException
+     */
+    static ByteBuffer open(final Path path, final Configuration conf)
+            throws IOException {
+
+        FileSystem fs = path.getFileSystem(conf);
+        long length = fs.getFileStatus(path).getLen();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(
+                    "Partition file is too large (> 2GB): " + path);
+        }
+
+        if (fs instanceof LocalFileSystem) {
+            File file = ((LocalFileSystem) fs).pathToFile(path);
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                // The mapping remains valid after the channel is closed
+                return raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                raf.close();
+            }
+        }
+
+        byte[] bytes = new byte[(int) length];
+        FSDataInputStream in = fs.open(path);
+        try {
+            in.readFully(0, bytes);
+        } finally {
+            in.close();
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
+
+/**
+ * Sort edges (id, position) by id.
+ * @author Thibault Debatty
+ */
+class EdgeComparator implements Comparator<long[]> {
+
+    @Override
+    public int compare(final long[] edge1, final long[] edge2) {
+        return Long.compare(edge1[0], edge2[0]);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import info.debatty.java.graphs.FastSearchResult;
+import info.debatty.java.graphs.Graph;
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.java.util.BoundedPriorityQueue;
+import info.debatty.java.util.SynchronizedBoundedPriorityQueue;
+import info.debatty.spark.knngraphs.builder.BuilderKryoRegistrator;
+import info.debatty.spark.knngraphs.partitioner.PartitionerKryoRegistrator;
+import java.lang.reflect.Field;
+import java.util.Map;
+import org.apache.spark.SparkConf;
+import org.apache.spark.serializer.KryoRegistrator;
+import org.apache.spark.serializer.KryoSerializer;
+
+/**
+ * Register the classes of this library with Kryo, with compact serializers
+ * for nodes and neighborlists: ids are written as varints, and neighbors of
+ * a NeighborList are written without class tag.
+ *
+ * Enable with GraphKryoRegistrator.enable(conf) before creating the
+ * SparkContext.
+ *
+ * @author Thibault Debatty
+ */
+public class GraphKryoRegistrator implements KryoRegistrator {
+
+    private static final String SERIALIZER = "spark.serializer";
+    private static final String REGISTRATOR = "spark.kryo.registrator";
+
+    /**
+     * Use Kryo serialization, with this registrator (in addition to already
+     * configured registrators).
+     * @param conf
+     * @return the same conf
+     */
+    public static SparkConf enable(final SparkConf conf) {
+        conf.set(SERIALIZER, KryoSerializer.class.getName());
+
+        String registrators = conf.get(REGISTRATOR, "");
+        String name = GraphKryoRegistrator.class.getName();
+        if (registrators.isEmpty()) {
+            conf.set(REGISTRATOR, name);
+        } else if (!registrators.contains(name)) {
+            conf.set(REGISTRATOR, registrators + "," + name);
+        }
+        return conf;
+    }
+
+    @Override
+    public final void registerClasses(final Kryo kryo) {
+        kryo.register(Node.class, new NodeSerializer());
+        kryo.register(Neighbor.class, new NeighborSerializer());
+        kryo.register(NeighborList.class, new NeighborListSerializer());
+        kryo.register(Graph.class, new GraphSerializer());
+        kryo.register(IdNeighborList.class, new IdNeighborListSerializer());
+        kryo.register(FastSearchResult.class);
+        kryo.register(DistributedFastSearchResult.class);
+        kryo.register(CompactSearchResult.class);
+        kryo.register(CompactGraph.class);
+        kryo.register(LongIntHashMap.class);
+
+        new BuilderKryoRegistrator().registerClasses(kryo);
+        new PartitionerKryoRegistrator().registerClasses(kryo);
+    }
+}
+
+/**
+ * Node: id and partition as varints, then the value.
+ * @author Thibault Debatty
+ */
+class NodeSerializer extends Serializer<Node> {
+
+    @Override
+    public void write(final Kryo kryo, final Output output, final Node node) {
+        output.writeVarLong(node.id, true);
+        output.writeVarInt(node.partition, true);
+        kryo.writeClassAndObject(output, node.value);
+    }
+
+    @Override
+    public Node read(
+            final Kryo kryo, final Input input, final Class<Node> type) {
+        long id = input.readVarLong(true);
+        int partition = input.readVarInt(true);
+        Node node = new Node(kryo.readClassAndObject(input));
+        node.id = id;
+        node.partition = partition;
+        return node;
+    }
+}
+
+/**
+ * Neighbor: the node and the similarity.
+ * @author Thibault Debatty
+ */
+class NeighborSerializer extends Serializer<Neighbor> {
+
+    @Override
+    public void write(
+            final Kryo kryo, final Output output, final Neighbor neighbor) {
+        kryo.writeClassAndObject(output, neighbor.getNode());
+        output.writeDouble(neighbor.getSimilarity());
+    }
+
+    @Override
+    public Neighbor read(
+            final Kryo kryo, final Input input, final Class<Neighbor> type) {
+        Object node = kryo.readClassAndObject(input);
+        return new Neighbor(node, input.readDouble());
+    }
+}
+
+/**
+ * NeighborList: capacity and size as varints, then the neighbors. When all
+ * neighbors are plain Neighbor of Node (the common case), they are written
+ * without class tag. Otherwise (for example FlaggedNeighbor), each neighbor
+ * is written with its class.
+ *
+ * Similarities are kept as double: builders compare stored similarities
+ * with freshly computed ones.
+ *
+ * @author Thibault Debatty
+ */
+class NeighborListSerializer extends Serializer<NeighborList> {
+
+    private static final Field QUEUE;
+
+    static {
+        try {
+            QUEUE = SynchronizedBoundedPriorityQueue.class
+                    .getDeclaredField("queue");
+            QUEUE.setAccessible(true);
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Override
+    public void write(
+            final Kryo kryo, final Output output, final NeighborList nl) {
+
+        output.writeVarInt(capacity(nl), true);
+        output.writeVarInt(nl.size(), true);
+
+        boolean compact = true;
+        for (Object element : nl) {
+            Neighbor neighbor = (Neighbor) element;
+            if (neighbor.getClass() != Neighbor.class
+                    || neighbor.getNode() == null
+                    || neighbor.getNode().getClass() != Node.class) {
+                compact = false;
+                break;
+            }
+        }
+        output.writeBoolean(compact);
+
+        for (Object element : nl) {
+            Neighbor neighbor = (Neighbor) element;
+            if (compact) {
+                kryo.writeObject(output, neighbor.getNode());
+                output.writeDouble(neighbor.getSimilarity());
+            } else {
+                kryo.writeClassAndObject(output, neighbor);
+            }
+        }
+    }
+
+    @Override
+    public NeighborList read(
+            final Kryo kryo,
+            final Input input,
+            final Class<NeighborList> type) {
+
+        NeighborList nl = new NeighborList(input.readVarInt(true));
+        int size = input.readVarInt(true);
+        boolean compact = input.readBoolean();
+        for (int i = 0; i < size; i++) {
+            if (compact) {
+                Node node = kryo.readObject(input, Node.class);
+                nl.add(new Neighbor(node, input.readDouble()));
+            } else {
+                nl.add((Neighbor) kryo.readClassAndObject(input));
+            }
+        }
+        return nl;
+    }
+
+    private static int capacity(final NeighborList nl) {
+        try {
+            return ((BoundedPriorityQueue) QUEUE.get(nl)).getCapacity();
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
+
+/**
+ * Graph: k, similarity, then the nodes and their neighborlist.
+ * @author Thibault Debatty
+ */
+class GraphSerializer extends Serializer<Graph> {
+
+    @Override
+    public void write(final Kryo kryo, final Output output, final Graph graph) {
+        output.writeVarInt(graph.getK(), true);
+        kryo.writeClassAndObject(output, graph.getSimilarity());
+        output.writeVarInt(graph.size(), true);
+        for (Object element : graph.entrySet()) {
+            Map.Entry entry = (Map.Entry) element;
+            kryo.writeClassAndObject(output, entry.getKey());
+            kryo.writeObject(output, entry.getValue());
+        }
+    }
+
+    @Override
+    public Graph read(
+            final Kryo kryo, final Input input, final Class<Graph> type) {
+        Graph graph = new Graph(input.readVarInt(true));
+        kryo.reference(graph);
+        graph.setSimilarity(
+                (SimilarityInterface) kryo.readClassAndObject(input));
+        int size = input.readVarInt(true);
+        for (int i = 0; i < size; i++) {
+            Object node = kryo.readClassAndObject(input);
+            graph.put(node, kryo.readObject(input, NeighborList.class));
+        }
+        return graph;
+    }
+}
+
+/**
+ * IdNeighborList: size, then ids as varints and float similarities.
+ * @author Thibault Debatty
+ */
+class IdNeighborListSerializer extends Serializer<IdNeighborList> {
+
+    @Override
+    public void write(
+            final Kryo kryo, final Output output, final IdNeighborList nl) {
+        output.writeVarInt(nl.size(), true);
+        for (int i = 0; i < nl.size(); i++) {
+            output.writeVarLong(nl.getId(i), true);
+            output.writeFloat(nl.getSimilarity(i));
+        }
+    }
+
+    @Override
+    public IdNeighborList read(
+            final Kryo kryo,
+            final Input input,
+            final Class<IdNeighborList> type) {
+        int size = input.readVarInt(true);
+        long[] ids = new long[size];
+        float[] similarities = new float[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = input.readVarLong(true);
+            similarities[i] = input.readFloat();
+        }
+        return new IdNeighborList(ids, similarities);
+    }
+}
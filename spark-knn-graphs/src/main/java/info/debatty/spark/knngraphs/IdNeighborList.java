@@ -0,0 +1,190 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Neighbors of a node, represented only by their id and similarity (stored
+ * in primitive arrays), without the value of the neighbors. Neighbors are
+ * sorted by decreasing similarity.
+ *
+ * A graph of IdNeighborList (the topology) and a RDD of nodes store each
+ * value only once, while a graph of NeighborList holds a copy of the node
+ * in each of its k neighbors. See DistributedGraph.toTopology and
+ * DistributedGraph.fromTopology.
+ *
+ * @author Thibault Debatty
+ */
+public class IdNeighborList implements Serializable {
+
+    private final long[] ids;
+    private final float[] similarities;
+
+    /**
+     * Copy the ids and similarities of a list of neighbors, which must be
+     * of type Node.
+     * @param neighbors
+     */
+    public IdNeighborList(final NeighborList neighbors) {
+        this.ids = new long[neighbors.size()];
+        this.similarities = new float[neighbors.size()];
+
+        // NeighborList iterates in heap order, not sorted
+        int i = 0;
+        for (Neighbor neighbor : neighbors) {
+            Node node = (Node) neighbor.getNode();
+            ids[i] = node.id;
+            similarities[i] = (float) neighbor.getSimilarity();
+            i++;
+        }
+        sort();
+    }
+
+    /**
+     *
+     * @param ids
+     * @param similarities
+     */
+    public IdNeighborList(final long[] ids, final float[] similarities) {
+        if (ids.length != similarities.length) {
+            throw new InvalidParameterException(
+                    "ids and similarities must have the same length");
+        }
+
+        this.ids = ids.clone();
+        this.similarities = similarities.clone();
+        sort();
+    }
+
+    /**
+     *
+     * @return the number of neighbors
+     */
+    public final int size() {
+        return ids.length;
+    }
+
+    /**
+     * Id of the i-th most similar neighbor.
+     * @param i
+     * @return
+     */
+    public final long getId(final int i) {
+        return ids[i];
+    }
+
+    /**
+     * Similarity of the i-th most similar neighbor.
+     * @param i
+     * @return
+     */
+    public final float getSimilarity(final int i) {
+        return similarities[i];
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if the node with this id is a neighbor
+     */
+    public final boolean containsId(final long id) {
+        for (long neighbor_id : ids) {
+            if (neighbor_id == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the neighbors that are also in the other list.
+     * @param other
+     * @return
+     */
+    public final int countCommons(final IdNeighborList other) {
+        int count = 0;
+        for (long id : ids) {
+            if (other.containsId(id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public final String toString() {
+        StringBuilder builder = new StringBuilder("IdNeighborList{");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(ids[i]).append(':').append(similarities[i]);
+        }
+        return builder.append('}').toString();
+    }
+
+    @Override
+    public final int hashCode() {
+        return 31 * Arrays.hashCode(ids) + Arrays.hashCode(similarities);
+    }
+
+    @Override
+    public final boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        final IdNeighborList other = (IdNeighborList) obj;
+        return Arrays.equals(ids, other.ids)
+                && Arrays.equals(similarities, other.similarities);
+    }
+
+    /**
+     * Sort by decreasing similarity (insertion sort: lists are short).
+     */
+    private void sort() {
+        for (int i = 1; i < ids.length; i++) {
+            long id = ids[i];
+            float similarity = similarities[i];
+            int j = i - 1;
+            while (j >= 0 && similarities[j] < similarity) {
+                ids[j + 1] = ids[j];
+                similarities[j + 1] = similarities[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            similarities[j + 1] = similarity;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import java.io.Serializable;
+
+/**
+ * Open addressing hash map from long keys to int values, backed by
+ * primitive arrays (linear probing). Entries cannot be removed.
+ *
+ * @author Thibault Debatty
+ */
+final class LongIntHashMap implements Serializable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    // FREE marks empty slots, so this key is stored separately
+    private boolean has_free_key = false;
+    private int free_key_value;
+
+    LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param expected number of entries that can be stored without resizing
+     */
+    LongIntHashMap(final int expected) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < 2 * expected) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(final long key) {
+        if (key == FREE) {
+            return has_free_key;
+        }
+        return keys[slot(key)] == key;
+    }
+
+    /**
+     *
+     * @param key
+     * @param missing value to return if the key is not in the map
+     * @return
+     */
+    int get(final long key, final int missing) {
+        if (key == FREE) {
+            return has_free_key ? free_key_value : missing;
+        }
+
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            return values[slot];
+        }
+        return missing;
+    }
+
+    void put(final long key, final int value) {
+        if (key == FREE) {
+            if (!has_free_key) {
+                size++;
+            }
+            has_free_key = true;
+            free_key_value = value;
+            return;
+        }
+
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            values[slot] = value;
+            return;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (2 * size > keys.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * Slot of the key, or the free slot where it should be inserted.
+     */
+    private int slot(final long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        long[] old_keys = keys;
+        int[] old_values = values;
+        allocate(2 * old_keys.length);
+        for (int i = 0; i < old_keys.length; i++) {
+            if (old_keys[i] != FREE) {
+                int slot = slot(old_keys[i]);
+                keys[slot] = old_keys[i];
+                values[slot] = old_values[i];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            keys[i] = FREE;
+        }
+    }
+
+    private static int hash(final long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -6,16 +6,32 @@ import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.java.graphs.build.Brute;
 import info.debatty.java.graphs.build.GraphBuilder;
 import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
-import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scala.Tuple2;
 
 /**
+ * Partition the nodes in buckets (using the bin method), compute the graph
+ * of each bucket using the inner graph builder, and merge the subgraphs.
+ *
+ * If max_bucket_size is defined, the size of each bucket is counted (with a
+ * distributed reduce), a histogram of bucket sizes is logged, and only the
+ * buckets larger than max_bucket_size are collected. These buckets are
+ * randomly split in overlapping sub-buckets: each node of the bucket is
+ * assigned to bucket_overlap sub-buckets, so the sub-buckets have (on
+ * average) max_bucket_size nodes, and are processed by different tasks.
  *
  * @author Thibault Debatty
  * @param <T>
@@ -25,9 +41,26 @@ public abstract class AbstractPartitioningBuilder<T>
 
     protected int stages = 3;
     protected int buckets = 10;
+    private int max_bucket_size = 0;
+    private int bucket_overlap = 2;
+    protected long seed = new Random().nextLong();
+    private Map<Integer, Long> oversized_buckets = new HashMap<>();
+    private long largest_bucket = 0;
+    private long bucket_count = 0;
 
     protected GraphBuilder<Node<T>> inner_graph_builder;
 
+    // histogram of bucket sizes: number of buckets in each range
+    // [2^i, 2^(i+1) - 1], followed by the number of buckets and the size of
+    // the largest bucket
+    static final int HISTOGRAM_RANGES = 64;
+    static final int HISTOGRAM_COUNT = HISTOGRAM_RANGES;
+    static final int HISTOGRAM_MAX = HISTOGRAM_RANGES + 1;
+    static final int HISTOGRAM_SIZE = HISTOGRAM_RANGES + 2;
+
+    private final Logger logger = LoggerFactory.getLogger(
+            AbstractPartitioningBuilder.class);
+
     public void setStages(final int stages) {
         this.stages = stages;
     }
@@ -36,11 +69,85 @@ public abstract class AbstractPartitioningBuilder<T>
         this.buckets = buckets;
     }
 
+    /**
+     * Set the graph builder used to compute the subgraph of each bucket.
+     * Use an AdaptiveGraphBuilder to pick the algorithm from the size of
+     * each bucket.
+     * Default is Brute.
+     * @param inner_graph_builder
+     */
     public void setInnerGraphBuilder(
             final GraphBuilder<Node<T>> inner_graph_builder) {
         this.inner_graph_builder = inner_graph_builder;
     }
 
+    /**
+     * Set the maximum number of nodes per bucket: larger buckets are split
+     * in overlapping sub-buckets. Use 0 to disable.
+     * Default value is 0
+     * @param max_bucket_size
+     */
+    public void setMaxBucketSize(final int max_bucket_size) {
+        if (max_bucket_size < 0) {
+            throw new InvalidParameterException(
+                    "max_bucket_size must be positive!");
+        }
+        this.max_bucket_size = max_bucket_size;
+    }
+
+    /**
+     * Set the number of sub-buckets each node of a split bucket is assigned
+     * to.
+     * Default value is 2
+     * @param bucket_overlap
+     */
+    public void setBucketOverlap(final int bucket_overlap) {
+        if (bucket_overlap <= 0) {
+            throw new InvalidParameterException(
+                    "bucket_overlap must be positive!");
+        }
+        this.bucket_overlap = bucket_overlap;
+    }
+
+    /**
+     * Set the seed used to split large buckets, and by randomized binning
+     * (like MinHash).
+     * Default is a random seed.
+     * @param seed
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Get the size of the buckets larger than max_bucket_size, during the
+     * last graph computation. Empty if max_bucket_size is not defined.
+     * @return
+     */
+    public final Map<Integer, Long> getOversizedBuckets() {
+        return oversized_buckets;
+    }
+
+    /**
+     * Get the size of the largest bucket produced by the bin method, during
+     * the last graph computation. Bucket sizes are only counted if
+     * max_bucket_size is defined, otherwise this returns 0.
+     * @return
+     */
+    public final long getLargestBucketSize() {
+        return largest_bucket;
+    }
+
+    /**
+     * Get the number of buckets produced by the bin method, during the last
+     * graph computation. Like getLargestBucketSize, this is only counted if
+     * max_bucket_size is defined, otherwise this returns 0.
+     * @return
+     */
+    public final long getBucketCount() {
+        return bucket_count;
+    }
+
     @Override
     protected JavaPairRDD<Node<T>, NeighborList> doComputeGraph(
             final JavaRDD<Node<T>> nodes)
@@ -58,25 +165,151 @@ public abstract class AbstractPartitioningBuilder<T>
         // each node is assigned to <stages> buckets (oversampling)
         JavaPairRDD<Integer, Node<T>> bucketsofnodes = bin(nodes);
 
-        // compute the disconnected subgraphs
-        JavaPairRDD<Node<T>, NeighborList> graph =
-                bucketsofnodes.groupByKey().flatMapToPair(
-                new  ComputeSubgraphsFunction(inner_graph_builder));
+        // count the nodes in each bucket, and the number of sub-buckets
+        // of large buckets
+        oversized_buckets = new HashMap<>();
+        largest_bucket = 0;
+        bucket_count = 0;
+        HashMap<Integer, Integer> splits = new HashMap<>();
+        if (max_bucket_size > 0) {
+            // binning is used to count bucket sizes, then to compute the
+            // subgraphs
+            bucketsofnodes.cache();
 
+            // the histogram and the oversized buckets are computed from the
+            // same shuffle output (the second job skips the map stage)
+            JavaPairRDD<Integer, Long> sizes = bucketsofnodes
+                    .mapValues(new CountNodeFunction<T>())
+                    .reduceByKey(new AddSizesFunction());
+            logHistogram(sizes.values().aggregate(
+                    new long[HISTOGRAM_SIZE],
+                    new AddToHistogramFunction(),
+                    new MergeHistogramsFunction()));
+            oversized_buckets = new HashMap<>(sizes
+                    .filter(new OversizedBucketFunction(max_bucket_size))
+                    .collectAsMap());
 
-        graph = graph.groupByKey().mapToPair(
-                new MergeSubgraphsFunction(k));
+            for (Map.Entry<Integer, Long> entry
+                    : oversized_buckets.entrySet()) {
+                long size = entry.getValue() * bucket_overlap;
+                splits.put(entry.getKey(), (int)
+                        ((size - 1) / max_bucket_size + 1));
+            }
+            logger.info("Split {} buckets larger than {} nodes",
+                    splits.size(), max_bucket_size);
+        }
 
-        return graph;
+        // group the nodes of each (sub-)bucket
+        JavaPairRDD<Tuple2<Integer, Integer>, Iterable<Node<T>>> buckets =
+                bucketsofnodes.flatMapToPair(
+                        new SplitBucketsFunction<T>(
+                                splits, bucket_overlap, seed))
+                .groupByKey();
+
+        if (bucketsofnodes.getStorageLevel() != StorageLevel.NONE()) {
+            // write the shuffle output, which is reused when the graph is
+            // computed, then release the binning
+            buckets.count();
+            bucketsofnodes.unpersist();
+        }
+
+        // compute the disconnected subgraphs
+        JavaPairRDD<Node<T>, NeighborList> graph = buckets.flatMapToPair(
+                new  ComputeSubgraphsFunction(inner_graph_builder));
+
+        // merge the neighborlists of each node, keeping only the k best
+        // (distinct) neighbors, with map-side combining
+        return graph.reduceByKey(new MergeFunction(k));
     }
 
+    /**
+     * Assign each node to stages buckets. The returned RDD may be persisted
+     * (if computing it requires intermediate data), in which case it is
+     * unpersisted once the buckets are grouped.
+     * @param nodes
+     * @return (bucket id, node)
+     * @throws Exception if binning fails
+     */
     protected abstract JavaPairRDD<Integer, Node<T>> bin(JavaRDD<Node<T>> nodes)
             throws Exception;
+
+    /**
+     * Log the number of buckets in each size range (powers of 2), and the
+     * size of the largest bucket.
+     * @param histogram see AddToHistogramFunction
+     */
+    private void logHistogram(final long[] histogram) {
+        largest_bucket = histogram[HISTOGRAM_MAX];
+        bucket_count = histogram[HISTOGRAM_COUNT];
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < HISTOGRAM_RANGES; i++) {
+            if (histogram[i] == 0) {
+                continue;
+            }
+            long range = 1L << i;
+            builder.append(String.format("[%d-%d]: %d  ",
+                    range, 2 * range - 1, histogram[i]));
+        }
+        logger.info("{} buckets, largest has {} nodes",
+                bucket_count, largest_bucket);
+        logger.info("Bucket sizes: {}", builder.toString().trim());
+    }
+}
+
+/**
+ * Assign each node of a split bucket to bucket_overlap random (distinct)
+ * sub-buckets. Nodes of other buckets are kept in sub-bucket 0.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class SplitBucketsFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Integer, Node<T>>,
+            Tuple2<Integer, Integer>,
+            Node<T>> {
+
+    private final HashMap<Integer, Integer> splits;
+    private final int overlap;
+    private final long seed;
+
+    SplitBucketsFunction(
+            final HashMap<Integer, Integer> splits,
+            final int overlap,
+            final long seed) {
+        this.splits = splits;
+        this.overlap = overlap;
+        this.seed = seed;
+    }
+
+    @Override
+    public Iterator<Tuple2<Tuple2<Integer, Integer>, Node<T>>> call(
+            final Tuple2<Integer, Node<T>> tuple) {
+
+        ArrayList<Tuple2<Tuple2<Integer, Integer>, Node<T>>> r =
+                new ArrayList<>(overlap);
+        Integer subs = splits.get(tuple._1);
+        if (subs == null) {
+            r.add(new Tuple2<>(new Tuple2<>(tuple._1, 0), tuple._2));
+            return r.iterator();
+        }
+
+        // pick min(overlap, subs) distinct sub-buckets
+        Random rand = new Random(seed + tuple._2.id * 31 + tuple._1);
+        int first = rand.nextInt(subs);
+        for (int i = 0; i < Math.min(overlap, subs); i++) {
+            r.add(new Tuple2<>(
+                    new Tuple2<>(tuple._1, (first + i) % subs), tuple._2));
+        }
+        return r.iterator();
+    }
 }
 
 class ComputeSubgraphsFunction<T>
         implements PairFlatMapFunction<
-        Tuple2<Integer, Iterable<Node<T>>>, Node<T>, NeighborList> {
+        Tuple2<Tuple2<Integer, Integer>, Iterable<Node<T>>>,
+        Node<T>,
+        NeighborList> {
 
     private final GraphBuilder<Node<T>> inner_graph_builder;
 
@@ -88,7 +321,7 @@ class ComputeSubgraphsFunction<T>
 
     @Override
     public Iterator<Tuple2<Node<T>, NeighborList>> call(
-            final Tuple2<Integer, Iterable<Node<T>>> tuple)
+            final Tuple2<Tuple2<Integer, Integer>, Iterable<Node<T>>> tuple)
             throws Exception {
         ArrayList<Node<T>> nodes = new ArrayList<>();
         for (Node<T> n : tuple._2) {
@@ -105,22 +338,81 @@ class ComputeSubgraphsFunction<T>
     }
 }
 
-class MergeSubgraphsFunction<T>
-        implements PairFunction<
-        Tuple2<T, Iterable<NeighborList>>, T, NeighborList> {
+/**
+ * Each node counts for 1 in the size of its bucket.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class CountNodeFunction<T> implements Function<Node<T>, Long> {
+
+    @Override
+    public Long call(final Node<T> node) {
+        return 1L;
+    }
+}
 
-    private final int k;
+/**
+ * Add the sizes of (partial) buckets.
+ * @author Thibault Debatty
+ */
+class AddSizesFunction implements Function2<Long, Long, Long> {
 
-    MergeSubgraphsFunction(final int k) {
-        this.k = k;
+    @Override
+    public Long call(final Long size1, final Long size2) {
+        return size1 + size2;
     }
+}
+
+/**
+ * Add a bucket size to a histogram (see
+ * AbstractPartitioningBuilder.HISTOGRAM_SIZE).
+ * @author Thibault Debatty
+ */
+class AddToHistogramFunction implements Function2<long[], Long, long[]> {
 
-    public Tuple2<T, NeighborList> call(
-            final Tuple2<T, Iterable<NeighborList>> tuple) {
-        NeighborList nl = new NeighborList(k);
-        for (NeighborList n : tuple._2) {
-            nl.addAll(n);
+    @Override
+    public long[] call(final long[] histogram, final Long size) {
+        histogram[63 - Long.numberOfLeadingZeros(size)]++;
+        histogram[AbstractPartitioningBuilder.HISTOGRAM_COUNT]++;
+        histogram[AbstractPartitioningBuilder.HISTOGRAM_MAX] = Math.max(
+                histogram[AbstractPartitioningBuilder.HISTOGRAM_MAX], size);
+        return histogram;
+    }
+}
+
+/**
+ * Merge two histograms of bucket sizes.
+ * @author Thibault Debatty
+ */
+class MergeHistogramsFunction implements Function2<long[], long[], long[]> {
+
+    @Override
+    public long[] call(final long[] histogram1, final long[] histogram2) {
+        for (int i = 0; i < AbstractPartitioningBuilder.HISTOGRAM_MAX; i++) {
+            histogram1[i] += histogram2[i];
         }
-        return new Tuple2<T, NeighborList>(tuple._1, nl);
+        histogram1[AbstractPartitioningBuilder.HISTOGRAM_MAX] = Math.max(
+                histogram1[AbstractPartitioningBuilder.HISTOGRAM_MAX],
+                histogram2[AbstractPartitioningBuilder.HISTOGRAM_MAX]);
+        return histogram1;
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Keep the buckets larger than max_bucket_size.
+ * @author Thibault Debatty
+ */
+class OversizedBucketFunction
+        implements Function<Tuple2<Integer, Long>, Boolean> {
+
+    private final int max_bucket_size;
+
+    OversizedBucketFunction(final int max_bucket_size) {
+        this.max_bucket_size = max_bucket_size;
+    }
+
+    @Override
+    public Boolean call(final Tuple2<Integer, Long> bucket) {
+        return bucket._2 > max_bucket_size;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.Graph;
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.java.graphs.build.Brute;
+import info.debatty.java.graphs.build.GraphBuilder;
+import info.debatty.java.graphs.build.ThreadedNNDescent;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+/**
+ * Local graph builder that picks the algorithm from the number of nodes:
+ * Brute for small sets of nodes, and multi-threaded NN-Descent (using all
+ * the cores of the executor) for large sets. Used as the inner graph builder
+ * of the partitioning builders, so the few huge buckets do not become
+ * O(n^2) stragglers.
+ *
+ * @author Thibault Debatty
+ * @param <T>
+ */
+public class AdaptiveGraphBuilder<T> extends GraphBuilder<T> {
+
+    /**
+     * Default number of nodes above which the large graph builder is used.
+     */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private int threshold = DEFAULT_THRESHOLD;
+    private GraphBuilder<T> small_graph_builder = new Brute<>();
+    private GraphBuilder<T> large_graph_builder = new ThreadedNNDescent<>();
+
+    /**
+     * Set the number of nodes above which the large graph builder is used.
+     * Default value is 1000
+     * @param threshold
+     */
+    public final void setThreshold(final int threshold) {
+        if (threshold <= 0) {
+            throw new InvalidParameterException(
+                    "threshold must be positive!");
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public final int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Set the graph builder used for small sets of nodes.
+     * Default is Brute.
+     * @param small_graph_builder
+     */
+    public final void setSmallGraphBuilder(
+            final GraphBuilder<T> small_graph_builder) {
+        this.small_graph_builder = small_graph_builder;
+    }
+
+    /**
+     * Set the graph builder used for large sets of nodes.
+     * Default is ThreadedNNDescent.
+     * @param large_graph_builder
+     */
+    public final void setLargeGraphBuilder(
+            final GraphBuilder<T> large_graph_builder) {
+        this.large_graph_builder = large_graph_builder;
+    }
+
+    @Override
+    protected final Graph<T> computeGraph(
+            final List<T> nodes,
+            final int k,
+            final SimilarityInterface<T> similarity) {
+
+        GraphBuilder<T> builder = small_graph_builder;
+        if (nodes.size() > threshold) {
+            builder = large_graph_builder;
+        }
+
+        builder.setK(k);
+        builder.setSimilarity(similarity);
+        return builder.computeGraph(nodes);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Iterator;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+
+/**
+ * Emit the node for each pair of blocks it belongs to.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class AssignBlockPairsFunction<T>
+        implements PairFlatMapFunction<Node<T>, Integer, Node<T>> {
+
+    private final int blocks;
+
+    AssignBlockPairsFunction(final int blocks) {
+        this.blocks = blocks;
+    }
+
+    @Override
+    public Iterator<Tuple2<Integer, Node<T>>> call(final Node<T> node) {
+        int block = BlockPairs.blockOf(node, blocks);
+        ArrayList<Tuple2<Integer, Node<T>>> r = new ArrayList<>(blocks);
+        for (int other = 0; other < blocks; other++) {
+            r.add(new Tuple2<>(
+                    BlockPairs.index(block, other, blocks), node));
+        }
+        return r.iterator();
+    }
+}
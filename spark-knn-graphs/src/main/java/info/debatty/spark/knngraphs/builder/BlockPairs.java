@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.spark.knngraphs.Node;
+
+/**
+ * Utility methods to index the upper triangular pairs of blocks (including
+ * the diagonal).
+ * @author Thibault Debatty
+ */
+final class BlockPairs {
+
+    private static final long MIXING_PRIME = 1125899906842597L;
+
+    private BlockPairs() {
+    }
+
+    /**
+     * Block to which this node belongs.
+     * @param node
+     * @param blocks
+     * @return
+     */
+    static int blockOf(final Node node, final int blocks) {
+        // Floor modulo: Math.abs(Long.MIN_VALUE) is negative
+        long block = (node.id * MIXING_PRIME) % blocks;
+        if (block < 0) {
+            block += blocks;
+        }
+        return (int) block;
+    }
+
+    /**
+     * Number of pairs of blocks: B * (B + 1) / 2.
+     * @param blocks
+     * @return
+     */
+    static int count(final int blocks) {
+        return blocks * (blocks + 1) / 2;
+    }
+
+    /**
+     * Index of the pair of blocks (i, j), in [0, count(blocks)[.
+     * @param i
+     * @param j
+     * @param blocks
+     * @return
+     */
+    static int index(final int i, final int j, final int blocks) {
+        int low = Math.min(i, j);
+        int high = Math.max(i, j);
+        return low * blocks - low * (low - 1) / 2 + (high - low);
+    }
+
+    /**
+     * Inverse of index(i, j, blocks): returns the pair {i, j} with i <= j.
+     * @param index
+     * @param blocks
+     * @return
+     */
+    static int[] blocks(final int index, final int blocks) {
+        int start = 0;
+        for (int i = 0; i < blocks; i++) {
+            int row_length = blocks - i;
+            if (index < start + row_length) {
+                return new int[]{i, i + index - start};
+            }
+            start += row_length;
+        }
+
+        throw new IllegalArgumentException("Invalid pair index " + index);
+    }
+}
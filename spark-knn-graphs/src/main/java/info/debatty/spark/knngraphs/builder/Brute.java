@@ -28,23 +28,205 @@ import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
 import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
 import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.SizeEstimator;
 import scala.Tuple2;
 
 /**
+ * Distributed brute force k-nn graph builder.
+ *
+ * The following strategies are available:
+ * - CARTESIAN computes the similarity between each ordered pair of nodes,
+ *   using the cartesian product of the nodes;
+ * - CARTESIAN_TOP_K also uses the cartesian product, but each partition only
+ *   emits the k best candidates of each node (map-side combining);
+ * - TILED splits the nodes in blocks, and only processes the upper triangular
+ *   pairs of blocks. Each similarity is computed once and credited to both
+ *   nodes, and each task only emits the k best neighbors of its nodes;
+ * - BROADCAST collects the nodes and broadcasts them to the executors. Each
+ *   partition then computes the exact neighbors of its own nodes, without any
+ *   shuffle. The dataset must fit in the memory of the driver and of each
+ *   executor;
+ * - AUTO (default) uses BROADCAST if the estimated size of the dataset is
+ *   smaller than the broadcast threshold, and CARTESIAN otherwise.
  *
  * @author Thibault Debatty
  * @param <T>
  */
 public class Brute<T> extends DistributedGraphBuilder<T> {
 
+    /**
+     * How the pairwize similarities are scheduled.
+     */
+    public enum Strategy {
+        /**
+         * Cartesian product of the nodes.
+         */
+        CARTESIAN,
+
+        /**
+         * Cartesian product of the nodes, with a bounded top-k per node
+         * inside each partition.
+         */
+        CARTESIAN_TOP_K,
+
+        /**
+         * Upper triangular pairs of blocks of nodes.
+         */
+        TILED,
+
+        /**
+         * Broadcast all nodes, and compute the neighbors of each partition
+         * locally. The broadcast is removed when the graph is garbage
+         * collected.
+         */
+        BROADCAST,
+
+        /**
+         * BROADCAST for small datasets, CARTESIAN otherwise.
+         */
+        AUTO
+    }
+
+    /**
+     * Default broadcast threshold: 128MB.
+     */
+    public static final long DEFAULT_BROADCAST_THRESHOLD = 128L * 1024 * 1024;
+
+    private static final int SIZE_ESTIMATION_SAMPLE = 100;
+
+    private Strategy strategy = Strategy.AUTO;
+    private int blocks = 0;
+    private long broadcast_threshold = DEFAULT_BROADCAST_THRESHOLD;
+
+    /**
+     * Set the strategy used to compute the pairwize similarities.
+     * Default is AUTO.
+     * @param strategy
+     */
+    public final void setStrategy(final Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * Set the number of blocks B used by the TILED strategy. The nodes are
+     * split in B blocks, which results in B * (B + 1) / 2 tasks.
+     * Default (0) is to use the number of partitions of the input RDD.
+     * @param blocks
+     */
+    public final void setBlocks(final int blocks) {
+        if (blocks < 0) {
+            throw new InvalidParameterException("blocks must be positive!");
+        }
+
+        this.blocks = blocks;
+    }
+
+    /**
+     * Set the maximum estimated size (in bytes) of the dataset for which the
+     * AUTO strategy uses BROADCAST.
+     * Default is 128MB.
+     * @param broadcast_threshold
+     */
+    public final void setBroadcastThreshold(final long broadcast_threshold) {
+        if (broadcast_threshold < 0) {
+            throw new InvalidParameterException(
+                    "broadcast threshold must be positive!");
+        }
+
+        this.broadcast_threshold = broadcast_threshold;
+    }
+
     @Override
     protected final JavaPairRDD<Node<T>, NeighborList> doComputeGraph(
             final JavaRDD<Node<T>> nodes) {
 
+        Strategy selected = strategy;
+        boolean cached_here = false;
+        if (selected == Strategy.AUTO) {
+            // the nodes are read by the selection (take and count), then by
+            // the selected strategy
+            if (nodes.getStorageLevel() == StorageLevel.NONE()) {
+                nodes.cache();
+                cached_here = true;
+            }
+            selected = selectStrategy(nodes);
+        }
+
+        // The graph is lazy: the nodes we cached are released right away, and
+        // read again from their lineage when the graph is computed, as if
+        // AUTO was not used
+        if (cached_here) {
+            nodes.unpersist();
+        }
+
+        if (selected == Strategy.BROADCAST) {
+            return computeBroadcast(nodes);
+        }
+
+        if (selected == Strategy.TILED) {
+            return computeTiled(nodes);
+        }
+
+        if (selected == Strategy.CARTESIAN_TOP_K) {
+            return computeCartesianTopK(nodes);
+        }
+
+        return computeCartesian(nodes);
+    }
+
+    /**
+     * Estimate the size of the dataset from a sample of the nodes, and
+     * select BROADCAST if it is below the threshold.
+     */
+    private Strategy selectStrategy(final JavaRDD<Node<T>> nodes) {
+        List<Node<T>> sample = nodes.take(SIZE_ESTIMATION_SAMPLE);
+        if (sample.isEmpty()) {
+            return Strategy.BROADCAST;
+        }
+
+        long sample_size = SizeEstimator.estimate(new ArrayList<>(sample));
+        long estimated_size = sample_size / sample.size() * nodes.count();
+
+        if (estimated_size <= broadcast_threshold) {
+            return Strategy.BROADCAST;
+        }
+        return Strategy.CARTESIAN;
+    }
+
+    private JavaPairRDD<Node<T>, NeighborList> computeBroadcast(
+            final JavaRDD<Node<T>> nodes) {
+
+        JavaSparkContext sc = JavaSparkContext.fromSparkContext(
+                nodes.context());
+
+        List<Node<T>> local_nodes = nodes.collect();
+        Node<T>[] array = local_nodes.toArray(new Node[local_nodes.size()]);
+        Broadcast<Node<T>[]> all_nodes = sc.broadcast(array);
+
+        // The graph is not persisted: the caller chooses the storage level.
+        // The lineage of the graph keeps a reference to the broadcast, which
+        // is removed from the executors by the context cleaner once the
+        // graph is garbage collected.
+        return nodes.mapPartitionsToPair(new BroadcastTopKFunction<>(
+                all_nodes, similarity, k));
+    }
+
+    private JavaPairRDD<Node<T>, NeighborList> computeCartesian(
+            final JavaRDD<Node<T>> nodes) {
+
         JavaPairRDD<Node<T>, Node<T>> pairs = nodes.cartesian(nodes);
 
         // Compute all pairwize similarities
@@ -67,6 +249,182 @@ public class Brute<T> extends DistributedGraphBuilder<T> {
         return graph;
     }
 
+    private JavaPairRDD<Node<T>, NeighborList> computeCartesianTopK(
+            final JavaRDD<Node<T>> nodes) {
+
+        // Each partition of the cartesian product emits at most k
+        // candidates per node
+        JavaPairRDD<Node<T>, NeighborList> partial_graph =
+                nodes.cartesian(nodes).mapPartitionsToPair(
+                        new PartitionTopKFunction<>(similarity, k));
+
+        return partial_graph.reduceByKey(new MergeFunction(k));
+    }
+
+    private JavaPairRDD<Node<T>, NeighborList> computeTiled(
+            final JavaRDD<Node<T>> nodes) {
+
+        int b = blocks;
+        if (b == 0) {
+            b = nodes.getNumPartitions();
+        }
+
+        // Send each node to the B pairs of blocks it belongs to
+        // one task per pair of blocks
+        JavaPairRDD<Integer, Node<T>> tiles = nodes.flatMapToPair(
+                new AssignBlockPairsFunction<T>(b));
+
+        // Inside each pair of blocks, compute each similarity once
+        // and keep the k best neighbors of each node
+        JavaPairRDD<Node<T>, NeighborList> partial_graph =
+                tiles.groupByKey(BlockPairs.count(b)).flatMapToPair(
+                        new ComputeBlockPairFunction<>(similarity, k, b));
+
+        // Each node received B partial neighborlists
+        return partial_graph.reduceByKey(new MergeFunction(k));
+    }
+}
+
+/**
+ * Inside a partition of the cartesian product, keep a bounded heap of
+ * (index, similarity) for each source node, and emit a single neighborlist
+ * of at most k neighbors per source node.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class PartitionTopKFunction<T>
+        implements PairFlatMapFunction<
+            Iterator<Tuple2<Node<T>, Node<T>>>,
+            Node<T>,
+            NeighborList> {
+
+    private final SimilarityInterface<T> similarity;
+    private final int k;
+
+    PartitionTopKFunction(
+            final SimilarityInterface<T> similarity, final int k) {
+
+        this.similarity = similarity;
+        this.k = k;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Iterator<Tuple2<Node<T>, Node<T>>> pairs) {
+
+        // Local index of the nodes seen in this partition
+        HashMap<Long, Integer> index = new HashMap<>();
+        ArrayList<Node<T>> local_nodes = new ArrayList<>();
+
+        // Heap of each source node, by local index of the source node
+        HashMap<Integer, TopKHeap> heaps = new HashMap<>();
+
+        while (pairs.hasNext()) {
+            Tuple2<Node<T>, Node<T>> pair = pairs.next();
+
+            // The heap is created even for the pair (node, node), so a node
+            // without other pair gets an empty neighborlist (like CARTESIAN)
+            int src = localIndex(pair._1, index, local_nodes);
+            TopKHeap heap = heaps.get(src);
+            if (heap == null) {
+                heap = new TopKHeap(k);
+                heaps.put(src, heap);
+            }
+
+            if (pair._1.equals(pair._2)) {
+                continue;
+            }
+
+            int dst = localIndex(pair._2, index, local_nodes);
+            heap.add(dst, similarity.similarity(pair._1.value, pair._2.value));
+        }
+
+        ArrayList<Tuple2<Node<T>, NeighborList>> r =
+                new ArrayList<>(heaps.size());
+        for (Integer src : heaps.keySet()) {
+            TopKHeap heap = heaps.get(src);
+            NeighborList nl = new NeighborList(k);
+            for (int i = 0; i < heap.size(); i++) {
+                nl.add(new Neighbor(
+                        local_nodes.get((int) heap.getId(i)),
+                        heap.getSimilarity(i)));
+            }
+            r.add(new Tuple2<>(local_nodes.get(src), nl));
+        }
+
+        return r.iterator();
+    }
+
+    private int localIndex(
+            final Node<T> node,
+            final HashMap<Long, Integer> index,
+            final ArrayList<Node<T>> local_nodes) {
+
+        Integer position = index.get(node.id);
+        if (position == null) {
+            position = local_nodes.size();
+            index.put(node.id, position);
+            local_nodes.add(node);
+        }
+        return position;
+    }
+}
+
+/**
+ * Compute the exact neighbors of the nodes of a partition, by scanning the
+ * broadcasted array of all nodes.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class BroadcastTopKFunction<T>
+        implements PairFlatMapFunction<
+            Iterator<Node<T>>,
+            Node<T>,
+            NeighborList> {
+
+    private final Broadcast<Node<T>[]> all_nodes;
+    private final SimilarityInterface<T> similarity;
+    private final int k;
+
+    BroadcastTopKFunction(
+            final Broadcast<Node<T>[]> all_nodes,
+            final SimilarityInterface<T> similarity,
+            final int k) {
+
+        this.all_nodes = all_nodes;
+        this.similarity = similarity;
+        this.k = k;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Iterator<Node<T>> local_nodes) {
+
+        Node<T>[] others = all_nodes.value();
+        ArrayList<Tuple2<Node<T>, NeighborList>> r = new ArrayList<>();
+
+        while (local_nodes.hasNext()) {
+            Node<T> node = local_nodes.next();
+            TopKHeap heap = new TopKHeap(k);
+            for (int i = 0; i < others.length; i++) {
+                if (others[i].id == node.id) {
+                    continue;
+                }
+                heap.add(i, similarity.similarity(
+                        node.value, others[i].value));
+            }
+
+            NeighborList nl = new NeighborList(k);
+            for (int i = 0; i < heap.size(); i++) {
+                nl.add(new Neighbor(
+                        others[(int) heap.getId(i)],
+                        heap.getSimilarity(i)));
+            }
+            r.add(new Tuple2<>(node, nl));
+        }
+
+        return r.iterator();
+    }
 }
 
 class PairwizeSimilarityFunction<T>
@@ -96,27 +454,3 @@ class PairwizeSimilarityFunction<T>
                 new Neighbor(nodes_pair._2, sim));
     }
 }
-
-class AggregateNeighborsFunction
-        implements Function2<NeighborList, Neighbor, NeighborList> {
-
-    @Override
-    public NeighborList call(
-            final NeighborList nl,
-            final Neighbor n) {
-        nl.add(n);
-        return nl;
-    }
-}
-
-class CombineNeighborListsFunction
-        implements Function2<NeighborList, NeighborList, NeighborList> {
-
-    @Override
-    public NeighborList call(
-            final NeighborList nl1,
-            final NeighborList nl2) {
-        nl1.addAll(nl2);
-        return nl1;
-    }
-}
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import info.debatty.spark.knngraphs.Node;
+import org.apache.spark.serializer.KryoRegistrator;
+
+/**
+ * Register the (package private) classes of the builders with Kryo.
+ * Use GraphKryoRegistrator, which also calls this registrator.
+ *
+ * @author Thibault Debatty
+ */
+public class BuilderKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public final void registerClasses(final Kryo kryo) {
+        kryo.register(FlaggedNeighbor.class, new FlaggedNeighborSerializer());
+        kryo.register(SkewStatistics.class);
+    }
+}
+
+/**
+ * FlaggedNeighbor: the node (without class tag), the similarity, the flag
+ * and the iteration (zigzag varint, as it can be -1).
+ * @author Thibault Debatty
+ */
+class FlaggedNeighborSerializer extends Serializer<FlaggedNeighbor> {
+
+    @Override
+    public void write(
+            final Kryo kryo,
+            final Output output,
+            final FlaggedNeighbor neighbor) {
+
+        kryo.writeObject(output, neighbor.getNode());
+        output.writeDouble(neighbor.getSimilarity());
+        output.writeBoolean(neighbor.isNew());
+        output.writeVarInt(neighbor.getIteration(), false);
+    }
+
+    @Override
+    public FlaggedNeighbor read(
+            final Kryo kryo,
+            final Input input,
+            final Class<FlaggedNeighbor> type) {
+
+        Node node = kryo.readObject(input, Node.class);
+        double similarity = input.readDouble();
+        boolean is_new = input.readBoolean();
+        int iteration = input.readVarInt(false);
+        return new FlaggedNeighbor(node, similarity, is_new, iteration);
+    }
+}
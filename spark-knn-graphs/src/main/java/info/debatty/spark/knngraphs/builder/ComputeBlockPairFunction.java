@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Iterator;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+
+/**
+ * Compute the similarities inside a pair of blocks. If the pair is on the
+ * diagonal, only the pairs i < j are computed. Each similarity is credited to
+ * both nodes, and a single neighborlist of size k is returned for each node.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ComputeBlockPairFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Integer, Iterable<Node<T>>>,
+            Node<T>,
+            NeighborList> {
+
+    private final SimilarityInterface<T> similarity;
+    private final int k;
+    private final int blocks;
+
+    ComputeBlockPairFunction(
+            final SimilarityInterface<T> similarity,
+            final int k,
+            final int blocks) {
+
+        this.similarity = similarity;
+        this.k = k;
+        this.blocks = blocks;
+    }
+
+    @Override
+    public Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Tuple2<Integer, Iterable<Node<T>>> tuple) {
+
+        int[] pair = BlockPairs.blocks(tuple._1, blocks);
+        boolean diagonal = pair[0] == pair[1];
+
+        // Split the nodes according to their block
+        ArrayList<Node<T>> left = new ArrayList<>();
+        ArrayList<Node<T>> right = new ArrayList<>();
+        for (Node<T> node : tuple._2) {
+            if (BlockPairs.blockOf(node, blocks) == pair[0]) {
+                left.add(node);
+            } else {
+                right.add(node);
+            }
+        }
+
+        ArrayList<NeighborList> left_nl = new ArrayList<>(left.size());
+        for (int i = 0; i < left.size(); i++) {
+            left_nl.add(new NeighborList(k));
+        }
+
+        ArrayList<NeighborList> right_nl = new ArrayList<>(right.size());
+        for (int i = 0; i < right.size(); i++) {
+            right_nl.add(new NeighborList(k));
+        }
+
+        if (diagonal) {
+            // Diagonal block: compute pairs i < j only
+            for (int i = 0; i < left.size(); i++) {
+                Node<T> n1 = left.get(i);
+                for (int j = i + 1; j < left.size(); j++) {
+                    Node<T> n2 = left.get(j);
+                    double sim = similarity.similarity(n1.value, n2.value);
+                    left_nl.get(i).add(new Neighbor(n2, sim));
+                    left_nl.get(j).add(new Neighbor(n1, sim));
+                }
+            }
+
+        } else {
+            for (int i = 0; i < left.size(); i++) {
+                Node<T> n1 = left.get(i);
+                for (int j = 0; j < right.size(); j++) {
+                    Node<T> n2 = right.get(j);
+                    double sim = similarity.similarity(n1.value, n2.value);
+                    left_nl.get(i).add(new Neighbor(n2, sim));
+                    right_nl.get(j).add(new Neighbor(n1, sim));
+                }
+            }
+        }
+
+        ArrayList<Tuple2<Node<T>, NeighborList>> r =
+                new ArrayList<>(left.size() + right.size());
+        for (int i = 0; i < left.size(); i++) {
+            r.add(new Tuple2<>(left.get(i), left_nl.get(i)));
+        }
+
+        for (int j = 0; j < right.size(); j++) {
+            r.add(new Tuple2<>(right.get(j), right_nl.get(j)));
+        }
+
+        return r.iterator();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+
+/**
+ * Compute the neighbors inside a pair of blocks, using packed vectors.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class DenseBlockPairFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Integer, Iterable<Node<T>>>,
+            Node<T>,
+            NeighborList> {
+
+    /**
+     * Number of vectors per tile: the dot products are computed between
+     * TILE vectors of each block at a time, so both tiles remain in cache.
+     */
+    private static final int TILE = 64;
+
+    private final VectorMetric metric;
+    private final int k;
+    private final int blocks;
+
+    DenseBlockPairFunction(
+            final VectorMetric metric, final int k, final int blocks) {
+
+        this.metric = metric;
+        this.k = k;
+        this.blocks = blocks;
+    }
+
+    @Override
+    public final Iterator<Tuple2<Node<T>, NeighborList>> call(
+            final Tuple2<Integer, Iterable<Node<T>>> tuple) {
+
+        int[] pair = BlockPairs.blocks(tuple._1, blocks);
+        boolean diagonal = pair[0] == pair[1];
+
+        ArrayList<Node<T>> left = new ArrayList<>();
+        ArrayList<Node<T>> right = new ArrayList<>();
+        for (Node<T> node : tuple._2) {
+            if (BlockPairs.blockOf(node, blocks) == pair[0]) {
+                left.add(node);
+            } else {
+                right.add(node);
+            }
+        }
+
+        // On the diagonal, the block is compared to itself
+        if (diagonal) {
+            right = left;
+        }
+
+        PackedVectors left_vectors = PackedVectors.pack(left);
+        PackedVectors right_vectors = left_vectors;
+        if (!diagonal) {
+            right_vectors = PackedVectors.pack(right);
+        }
+
+        TopKHeap[] left_heaps = createHeaps(left.size());
+        TopKHeap[] right_heaps = left_heaps;
+        if (!diagonal) {
+            right_heaps = createHeaps(right.size());
+        }
+
+        double[] dots = new double[TILE * TILE];
+        for (int i0 = 0; i0 < left.size(); i0 += TILE) {
+            int i1 = Math.min(i0 + TILE, left.size());
+
+            int j_start = diagonal ? i0 : 0;
+            for (int j0 = j_start; j0 < right.size(); j0 += TILE) {
+                int j1 = Math.min(j0 + TILE, right.size());
+                int cols = j1 - j0;
+
+                left_vectors.dot(i0, i1, right_vectors, j0, j1, dots);
+
+                for (int i = i0; i < i1; i++) {
+                    double norm_i = left_vectors.squaredNorm(i);
+                    int row = (i - i0) * cols - j0;
+
+                    // On the diagonal, only compute pairs i < j
+                    int j = j0;
+                    if (diagonal && j <= i) {
+                        j = i + 1;
+                    }
+
+                    for (; j < j1; j++) {
+                        double sim = metric.similarity(
+                                dots[row + j],
+                                norm_i,
+                                right_vectors.squaredNorm(j));
+                        left_heaps[i].add(j, sim);
+                        right_heaps[j].add(i, sim);
+                    }
+                }
+            }
+        }
+
+        ArrayList<Tuple2<Node<T>, NeighborList>> r =
+                new ArrayList<>(left.size() + right.size());
+        for (int i = 0; i < left.size(); i++) {
+            r.add(new Tuple2<>(left.get(i), toNeighborList(
+                    left_heaps[i], right)));
+        }
+
+        if (!diagonal) {
+            for (int j = 0; j < right.size(); j++) {
+                r.add(new Tuple2<>(right.get(j), toNeighborList(
+                        right_heaps[j], left)));
+            }
+        }
+
+        return r.iterator();
+    }
+
+    private TopKHeap[] createHeaps(final int count) {
+        TopKHeap[] heaps = new TopKHeap[count];
+        for (int i = 0; i < count; i++) {
+            heaps[i] = new TopKHeap(k);
+        }
+        return heaps;
+    }
+
+    private NeighborList toNeighborList(
+            final TopKHeap heap, final List<Node<T>> candidates) {
+
+        NeighborList nl = new NeighborList(k);
+        for (int i = 0; i < heap.size(); i++) {
+            nl.add(new Neighbor(
+                    candidates.get((int) heap.getId(i)),
+                    heap.getSimilarity(i)));
+        }
+        return nl;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ * Exact k-nn graph builder for dense vectors.
+ *
+ * Like the TILED strategy of Brute, the nodes are split in blocks and only the
+ * upper triangular pairs of blocks are processed. Inside a pair of blocks, the
+ * vectors are packed in contiguous primitive arrays and the similarities are
+ * computed tile by tile from the dot products and the norms of the vectors,
+ * instead of calling the similarity for each pair of nodes.
+ *
+ * The similarity is defined by the metric (default is L2). Any other
+ * similarity set with setSimilarity is rejected when the graph is computed.
+ *
+ * @author Thibault Debatty
+ * @param <T> type of vectors
+ */
+public abstract class DenseVectorBrute<T> extends DistributedGraphBuilder<T> {
+
+    private VectorMetric metric;
+    private SimilarityInterface<T> metric_similarity;
+    private int blocks = 0;
+
+    /**
+     * Set the metric used to compute the similarity between vectors.
+     * This also defines the similarity of the builder.
+     * @param metric
+     */
+    public final void setMetric(final VectorMetric metric) {
+        if (metric == null) {
+            throw new InvalidParameterException("metric can not be null!");
+        }
+
+        this.metric = metric;
+        this.metric_similarity = createSimilarity(metric);
+        setSimilarity(metric_similarity);
+    }
+
+    /**
+     *
+     * @return the metric used to compute the similarity between vectors
+     */
+    public final VectorMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Set the number of blocks B. The nodes are split in B blocks, which
+     * results in B * (B + 1) / 2 tasks.
+     * Default (0) is to use the number of partitions of the input RDD.
+     * @param blocks
+     */
+    public final void setBlocks(final int blocks) {
+        if (blocks < 0) {
+            throw new InvalidParameterException("blocks must be positive!");
+        }
+
+        this.blocks = blocks;
+    }
+
+    /**
+     * Similarity corresponding to the metric, for this type of vectors.
+     * @param metric
+     * @return
+     */
+    abstract SimilarityInterface<T> createSimilarity(VectorMetric metric);
+
+    @Override
+    protected final JavaPairRDD<Node<T>, NeighborList> doComputeGraph(
+            final JavaRDD<Node<T>> nodes) {
+
+        // the tiles are computed from the metric, not from the similarity
+        if (similarity != metric_similarity) {
+            throw new InvalidParameterException(
+                    "Only the similarity defined by setMetric is supported!");
+        }
+
+        int b = blocks;
+        if (b == 0) {
+            b = nodes.getNumPartitions();
+        }
+
+        JavaPairRDD<Integer, Node<T>> tiles = nodes.flatMapToPair(
+                new AssignBlockPairsFunction<T>(b));
+
+        JavaPairRDD<Node<T>, NeighborList> partial_graph =
+                tiles.groupByKey(BlockPairs.count(b)).flatMapToPair(
+                        new DenseBlockPairFunction<T>(metric, k, b));
+
+        return partial_graph.reduceByKey(new MergeFunction(k));
+    }
+}
@@ -4,6 +4,7 @@ import info.debatty.java.graphs.NeighborList;
 
 import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.IdNeighborList;
 import info.debatty.spark.knngraphs.Node;
 import java.io.BufferedReader;
 import java.io.File;
@@ -77,6 +78,24 @@ public abstract class DistributedGraphBuilder<T> {
         return doComputeGraph(nodes);
     }
 
+    /**
+     * Compute the graph and return only its topology (the id and similarity
+     * of neighbors). The values can be kept once, in the nodes RDD.
+     * @param nodes
+     * @return
+     * @throws Exception on error
+     * @see info.debatty.spark.knngraphs.ApproximateSearch
+     */
+    public final JavaPairRDD<Long, IdNeighborList> computeTopology(
+            final JavaRDD<Node<T>> nodes) throws Exception {
+
+        if (similarity == null) {
+            throw new InvalidParameterException("Similarity is not defined!");
+        }
+
+        return doComputeTopology(nodes);
+    }
+
     /**
      *
      * @param nodes
@@ -86,6 +105,20 @@ public abstract class DistributedGraphBuilder<T> {
     protected abstract JavaPairRDD<Node<T>, NeighborList>
             doComputeGraph(JavaRDD<Node<T>> nodes) throws Exception;
 
+    /**
+     * Compute the topology of the graph. By default, the graph is computed
+     * then stripped. Builders that can work on ids only (like NNDescent in
+     * IDS mode) override this to never embed the values of the neighbors.
+     * @param nodes
+     * @return
+     * @throws Exception if cannot build graph
+     */
+    protected JavaPairRDD<Long, IdNeighborList> doComputeTopology(
+            final JavaRDD<Node<T>> nodes) throws Exception {
+
+        return DistributedGraph.toTopology(doComputeGraph(nodes));
+    }
+
     /**
      * Read a file to an ArrayList of String.
      * @param path
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import java.util.ArrayList;
+
+/**
+ * Projections of a block of dense vectors: each hyperplane is multiplied
+ * with all vectors of the block while it is in cache.
+ * @author Thibault Debatty
+ */
+class DoubleArrayProjector implements SuperBitProjector<double[]> {
+
+    @Override
+    public void project(
+            final ArrayList<double[]> block,
+            final double[][] hyperplanes,
+            final double[][] projections) {
+
+        for (int h = 0; h < hyperplanes.length; h++) {
+            double[] hyperplane = hyperplanes[h];
+            for (int i = 0; i < block.size(); i++) {
+                projections[i][h] = dot(hyperplane, block.get(i));
+            }
+        }
+    }
+
+    private static double dot(final double[] v1, final double[] v2) {
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int i = 0;
+        for (; i + 3 < v1.length; i += 4) {
+            s0 += v1[i] * v2[i];
+            s1 += v1[i + 1] * v2[i + 1];
+            s2 += v1[i + 2] * v2[i + 2];
+            s3 += v1[i + 3] * v2[i + 3];
+        }
+        for (; i < v1.length; i++) {
+            s0 += v1[i] * v2[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.SimilarityInterface;
+
+/**
+ * Similarity between two double[] vectors, using one of the vector metrics.
+ * @author Thibault Debatty
+ */
+class DoubleArraySimilarity implements SimilarityInterface<double[]> {
+
+    private final VectorMetric metric;
+
+    DoubleArraySimilarity(final VectorMetric metric) {
+        this.metric = metric;
+    }
+
+    @Override
+    public final double similarity(
+            final double[] value1, final double[] value2) {
+
+        double dot = 0;
+        double norm1 = 0;
+        double norm2 = 0;
+        for (int i = 0; i < value1.length; i++) {
+            dot += value1[i] * value2[i];
+            norm1 += value1[i] * value1[i];
+            norm2 += value2[i] * value2[i];
+        }
+
+        return metric.similarity(dot, norm1, norm2);
+    }
+}
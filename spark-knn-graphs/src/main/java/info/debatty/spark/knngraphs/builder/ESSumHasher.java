@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import java.nio.charset.Charset;
+
+/**
+ * Reusable ESSum (SpamSum) hasher, equivalent to
+ * info.debatty.java.spamsum.ESSum.HashString, but keeping the rolling hash
+ * state, the input bytes and the signature in primitive buffers that are
+ * reused from one string to the next.
+ *
+ * The returned signature is overwritten by the next call to hash: the caller
+ * must consume it before hashing another string. Not thread-safe.
+ *
+ * @author Thibault Debatty
+ */
+final class ESSumHasher {
+
+    private static final long HASH_PRIME = 16777619L;
+    private static final long HASH_INIT = 671226215L;
+    private static final long UINT32 = 4294967296L;
+    private static final int ROLLING_WINDOW = 7;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final int length;
+    private final int characters;
+    private final int min_blocksize;
+
+    private final int[] signature;
+    private final long[] window = new long[ROLLING_WINDOW];
+    private long h1;
+    private long h2;
+    private long h3;
+    private long n;
+
+    /**
+     *
+     * @param length length of the signature (number of stages)
+     * @param characters number of possible values (number of buckets)
+     * @param min_blocksize
+     */
+    ESSumHasher(
+            final int length, final int characters, final int min_blocksize) {
+        this.length = length;
+        this.characters = characters;
+        this.min_blocksize = min_blocksize;
+        this.signature = new int[length];
+    }
+
+    /**
+     * Compute the signature of the string.
+     * @param string
+     * @return the signature, which is reused by the next call
+     */
+    int[] hash(final String string) {
+        byte[] bytes = string.getBytes(CHARSET);
+
+        int blocksize = min_blocksize;
+        while (blocksize * length < bytes.length) {
+            blocksize *= 2;
+        }
+
+        while (true) {
+            int position = hash(bytes, blocksize);
+
+            if (blocksize <= min_blocksize || position >= length / 2) {
+                return signature;
+            }
+
+            // Signature is too short: restart with a smaller block size
+            blocksize /= 2;
+        }
+    }
+
+    /**
+     * Fill the signature using this block size.
+     * @return the index of the last written character
+     */
+    private int hash(final byte[] bytes, final int blocksize) {
+        for (int i = 0; i < length; i++) {
+            signature[i] = 0;
+        }
+        reset();
+
+        int position = 0;
+        long block_hash = HASH_INIT;
+        long rolling_hash = 0;
+
+        for (byte b : bytes) {
+            long c = (b + 256) % 256;
+            rolling_hash = roll(c);
+            block_hash = (((block_hash * HASH_PRIME) % UINT32) ^ c) % UINT32;
+
+            if (rolling_hash % blocksize == blocksize - 1) {
+                signature[position] = (int) (block_hash % characters);
+                if (position < length - 1) {
+                    block_hash = HASH_INIT;
+                    position++;
+                }
+            }
+        }
+
+        if (rolling_hash != 0) {
+            signature[position] = (int) (block_hash % characters);
+        }
+
+        return position;
+    }
+
+    private void reset() {
+        for (int i = 0; i < ROLLING_WINDOW; i++) {
+            window[i] = 0;
+        }
+        h1 = 0;
+        h2 = 0;
+        h3 = 0;
+        n = 0;
+    }
+
+    private long roll(final long c) {
+        h2 -= h1;
+        h2 = (h2 + ROLLING_WINDOW * c) % UINT32;
+        h1 = (h1 + c) % UINT32;
+
+        int slot = (int) (n % ROLLING_WINDOW);
+        h1 -= window[slot];
+        window[slot] = c;
+        n++;
+
+        h3 = (h3 << 5) % UINT32;
+        h3 = (h3 ^ c) % UINT32;
+
+        return (h1 + h2 + h3) % UINT32;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * A neighbor with a flag indicating if it was inserted since the last local
+ * join, and the iteration during which it was inserted (-1 for the random
+ * initialization). Equality is inherited from Neighbor: two flagged neighbors
+ * with the same node are equal, whatever their flag.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class FlaggedNeighbor<T> extends Neighbor<Node<T>> {
+
+    private final boolean is_new;
+    private final int iteration;
+
+    FlaggedNeighbor(
+            final Node<T> node,
+            final double similarity,
+            final boolean is_new,
+            final int iteration) {
+        super(node, similarity);
+        this.is_new = is_new;
+        this.iteration = iteration;
+    }
+
+    boolean isNew() {
+        return is_new;
+    }
+
+    int getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Select at most sample_size new neighbors of the node. The selection
+     * is pseudo-random, but deterministic for a given node and iteration,
+     * so successive transformations (or recomputations) select the same
+     * neighbors.
+     * @param <T>
+     * @param node
+     * @param nl
+     * @param sample_size
+     * @param iteration
+     * @return ids of the selected neighbors
+     */
+    static <T> HashSet<Long> sampleNew(
+            final Node<T> node,
+            final NeighborList nl,
+            final int sample_size,
+            final int iteration) {
+
+        ArrayList<long[]> new_neighbors = new ArrayList<>();
+        for (Neighbor neighbor : nl) {
+            FlaggedNeighbor<T> flagged = (FlaggedNeighbor<T>) neighbor;
+            if (flagged.isNew()) {
+                long id = flagged.getNode().id;
+                new_neighbors.add(new long[]{
+                    mix(node.id, id, iteration), id});
+            }
+        }
+
+        if (new_neighbors.size() > sample_size) {
+            Collections.sort(new_neighbors, new Comparator<long[]>() {
+                @Override
+                public int compare(final long[] o1, final long[] o2) {
+                    return Long.compare(o1[0], o2[0]);
+                }
+            });
+        }
+
+        HashSet<Long> sample = new HashSet<>();
+        for (int i = 0; i < Math.min(sample_size, new_neighbors.size()); i++) {
+            sample.add(new_neighbors.get(i)[1]);
+        }
+        return sample;
+    }
+
+    /**
+     * Deterministic hash of (node, neighbor, iteration).
+     * @param node
+     * @param neighbor
+     * @param iteration
+     * @return
+     */
+    static long mix(
+            final long node, final long neighbor, final int iteration) {
+
+        long h = node * 0x9E3779B97F4A7C15L
+                + neighbor * 0xC2B2AE3D27D4EB4FL
+                + iteration;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
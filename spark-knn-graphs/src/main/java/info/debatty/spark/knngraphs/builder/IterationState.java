@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import java.security.InvalidParameterException;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.storage.StorageLevel;
+
+/**
+ * Keep track of the state (RDD) of an iterative algorithm: each new state is
+ * persisted and materialized, the previous state is unpersisted, and the
+ * lineage is truncated (checkpointed) every N iterations. This way the
+ * planning time and the cost of recomputing a lost partition do not grow
+ * with the number of iterations.
+ *
+ * @author Thibault Debatty
+ * @param <K>
+ * @param <V>
+ */
+public class IterationState<K, V> {
+
+    /**
+     * How the lineage is truncated.
+     */
+    public enum Checkpoint {
+        /**
+         * Never truncate the lineage.
+         */
+        NONE,
+
+        /**
+         * Local checkpoint: fast, but a lost executor means a lost state.
+         */
+        LOCAL,
+
+        /**
+         * Reliable checkpoint: the state is written to the checkpoint
+         * directory of the Spark context.
+         */
+        RELIABLE
+    }
+
+    private final StorageLevel storage_level;
+    private final Checkpoint checkpoint;
+    private final int checkpoint_interval;
+
+    private JavaPairRDD<K, V> current;
+    private int iteration = 0;
+
+    /**
+     *
+     * @param storage_level storage level used to persist each state
+     * @param checkpoint how to truncate the lineage
+     * @param checkpoint_interval number of iterations between checkpoints
+     */
+    public IterationState(
+            final StorageLevel storage_level,
+            final Checkpoint checkpoint,
+            final int checkpoint_interval) {
+
+        if (checkpoint_interval <= 0) {
+            throw new InvalidParameterException(
+                    "checkpoint_interval must be positive!");
+        }
+
+        this.storage_level = storage_level;
+        this.checkpoint = checkpoint;
+        this.checkpoint_interval = checkpoint_interval;
+    }
+
+    /**
+     * Persist, (eventually) checkpoint and materialize the new state, then
+     * unpersist the previous state.
+     * @param next
+     * @return the number of elements in the new state
+     */
+    public final long update(final JavaPairRDD<K, V> next) {
+        if (checkpoint == Checkpoint.RELIABLE
+                && next.context().getCheckpointDir().isEmpty()) {
+            throw new InvalidParameterException(
+                    "Reliable checkpoint requires a checkpoint directory!");
+        }
+
+        next.persist(storage_level);
+
+        if (iteration > 0 && iteration % checkpoint_interval == 0) {
+            if (checkpoint == Checkpoint.LOCAL) {
+                next.rdd().localCheckpoint();
+            } else if (checkpoint == Checkpoint.RELIABLE) {
+                next.checkpoint();
+            }
+        }
+
+        long count = next.count();
+
+        if (current != null) {
+            current.unpersist();
+        }
+
+        current = next;
+        iteration++;
+        return count;
+    }
+
+    /**
+     *
+     * @return the current state
+     */
+    public final JavaPairRDD<K, V> get() {
+        return current;
+    }
+
+    /**
+     * Unpersist the current state, once the final result of the algorithm
+     * is materialized.
+     */
+    public final void release() {
+        if (current != null) {
+            current.unpersist();
+            current = null;
+        }
+    }
+}
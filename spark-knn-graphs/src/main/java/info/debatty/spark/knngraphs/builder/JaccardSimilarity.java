@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.SimilarityInterface;
+import java.util.Set;
+
+/**
+ * Jaccard similarity between sets: |A n B| / |A u B|.
+ * @author Thibault Debatty
+ * @param <E>
+ */
+class JaccardSimilarity<E> implements SimilarityInterface<Set<E>> {
+
+    @Override
+    public double similarity(final Set<E> set1, final Set<E> set2) {
+        if (set1.isEmpty() && set2.isEmpty()) {
+            return 1.0;
+        }
+
+        Set<E> small = set1;
+        Set<E> large = set2;
+        if (set1.size() > set2.size()) {
+            small = set2;
+            large = set1;
+        }
+
+        int intersection = 0;
+        for (E element : small) {
+            if (large.contains(element)) {
+                intersection++;
+            }
+        }
+        return (double) intersection
+                / (set1.size() + set2.size() - intersection);
+    }
+}
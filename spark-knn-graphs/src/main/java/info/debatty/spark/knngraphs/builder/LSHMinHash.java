@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import scala.Tuple2;
+
+/**
+ * A k-nn graph builder for sets (of tokens, shingles, ...) that bins nodes
+ * using banded MinHash signatures. The signature of each node has
+ * bands * rows values, and the node is assigned to one bucket per band
+ * (the hash of the rows of the band). Inside the buckets, the inner graph
+ * builder (brute-force by default) is used to build the sub-graphs.
+ *
+ * Elements are hashed using their hashCode(). The number of stages is the
+ * number of bands, and the number of buckets is not used: the bucket id is
+ * the (32 bits) hash of the band. Default similarity is Jaccard.
+ *
+ * @author Thibault Debatty
+ * @param <E> type of the elements of the sets
+ */
+public class LSHMinHash<E> extends AbstractPartitioningBuilder<Set<E>> {
+
+    /**
+     * Default number of bands.
+     */
+    public static final int DEFAULT_BANDS = 20;
+
+    /**
+     * Default number of rows per band.
+     */
+    public static final int DEFAULT_ROWS = 5;
+
+    private int rows = DEFAULT_ROWS;
+
+    /**
+     *
+     */
+    public LSHMinHash() {
+        super();
+        this.stages = DEFAULT_BANDS;
+        this.similarity = new JaccardSimilarity<>();
+    }
+
+    /**
+     * Set the number of bands (same as setStages).
+     * Default value is 20
+     * @param bands
+     */
+    public final void setBands(final int bands) {
+        if (bands <= 0) {
+            throw new InvalidParameterException("bands must be positive!");
+        }
+        this.stages = bands;
+    }
+
+    /**
+     * Set the number of rows (MinHash values) per band. More rows means
+     * fewer and smaller buckets.
+     * Default value is 5
+     * @param rows
+     */
+    public final void setRows(final int rows) {
+        if (rows <= 0) {
+            throw new InvalidParameterException("rows must be positive!");
+        }
+        this.rows = rows;
+    }
+
+    @Override
+    protected final JavaPairRDD<Integer, Node<Set<E>>> bin(
+            final JavaRDD<Node<Set<E>>> nodes) {
+
+        long[] seeds = new long[stages * rows];
+        Random rand = new Random(seed);
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = rand.nextLong();
+        }
+
+        return nodes.mapPartitionsToPair(
+                new MinHashBinFunction<E>(seeds, stages, rows));
+    }
+}
+
+/**
+ * Compute the MinHash signature of each node of the partition (once), and
+ * lazily produce (bucket, node) for each band.
+ * @author Thibault Debatty
+ * @param <E>
+ */
+class MinHashBinFunction<E>
+        implements PairFlatMapFunction<
+            Iterator<Node<Set<E>>>,
+            Integer,
+            Node<Set<E>>> {
+
+    private final long[] seeds;
+    private final int bands;
+    private final int rows;
+
+    MinHashBinFunction(final long[] seeds, final int bands, final int rows) {
+        this.seeds = seeds;
+        this.bands = bands;
+        this.rows = rows;
+    }
+
+    @Override
+    public Iterator<Tuple2<Integer, Node<Set<E>>>> call(
+            final Iterator<Node<Set<E>>> nodes) {
+
+        return new Iterator<Tuple2<Integer, Node<Set<E>>>>() {
+
+            private final long[] signature = new long[seeds.length];
+            private Node<Set<E>> node = null;
+            private int band = bands;
+
+            @Override
+            public boolean hasNext() {
+                if (band < bands) {
+                    return true;
+                }
+                if (!nodes.hasNext()) {
+                    return false;
+                }
+
+                node = nodes.next();
+                signature(node.value, signature);
+                band = 0;
+                return true;
+            }
+
+            @Override
+            public Tuple2<Integer, Node<Set<E>>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                long hash = band;
+                for (int r = band * rows; r < (band + 1) * rows; r++) {
+                    hash = mix(hash * 31 + signature[r]);
+                }
+                band++;
+                return new Tuple2<>((int) (hash ^ (hash >>> 32)), node);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Compute the MinHash signature of the set: for each seed, the minimum
+     * of the hash of the elements.
+     */
+    private void signature(final Set<E> set, final long[] signature) {
+        for (int i = 0; i < signature.length; i++) {
+            signature[i] = Long.MAX_VALUE;
+        }
+
+        for (E element : set) {
+            long code = element.hashCode();
+            for (int i = 0; i < seeds.length; i++) {
+                long hash = mix(code ^ seeds[i]);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+    }
+
+    /**
+     * 64 bits finalizer of MurmurHash3.
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
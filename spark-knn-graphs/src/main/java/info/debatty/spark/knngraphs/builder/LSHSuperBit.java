@@ -3,14 +3,30 @@ package info.debatty.spark.knngraphs.builder;
 
 import info.debatty.spark.knngraphs.Node;
 import java.io.Serializable;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.broadcast.Broadcast;
 import scala.Tuple2;
 
 /**
+ * Partition the nodes using SuperBit LSH.
+ *
+ * The hyperplanes are broadcasted once, and each partition is hashed by
+ * blocks of nodes: the projections of a block on all hyperplanes are
+ * computed together, and the buckets are computed from the projections
+ * without allocating any object per node (except the emitted tuples).
+ *
+ * With multi-probe, each node is also assigned to neighboring buckets of
+ * each stage: the buckets obtained by flipping (one at a time) the bits of
+ * the stage that have the lowest margin (the smallest absolute projection
+ * on the hyperplane). This improves recall without increasing the number
+ * of stages.
  *
  * @author Thibault Debatty
  */
@@ -18,34 +34,143 @@ abstract class LSHSuperBit<T>
         extends AbstractPartitioningBuilder<T>
         implements Serializable {
 
-    info.debatty.java.lsh.LSHSuperBit lsh;
     protected int dim;
+    protected int probes = 0;
 
     public void setDim(int dim) {
         this.dim = dim;
     }
 
+    /**
+     * Set the number of additional buckets probed for each stage.
+     * Default value is 0
+     * @param probes
+     */
+    public void setProbes(final int probes) {
+        if (probes < 0) {
+            throw new InvalidParameterException("probes must be positive!");
+        }
+        this.probes = probes;
+    }
+
     @Override
     protected JavaPairRDD<Integer, Node<T>> bin(final JavaRDD<Node<T>> nodes)
             throws Exception {
 
-        lsh = new info.debatty.java.lsh.LSHSuperBit(stages, buckets, this.dim);
+        if (stages * buckets / 2 < 1) {
+            throw new InvalidParameterException(
+                    "stages * buckets must be at least 2!");
+        }
 
+        Broadcast<SuperBitHasher> hasher =
+                JavaSparkContext.fromSparkContext(nodes.context()).broadcast(
+                        new SuperBitHasher(dim, stages, buckets, probes));
 
-        return nodes.flatMapToPair(
-                new PairFlatMapFunction<Node<T>, Integer, Node<T>>() {
+        return nodes.mapPartitionsToPair(
+                new SuperBitBinFunction<>(hasher, createProjector()));
+    }
+
+    /**
+     *
+     * @return the projector for the type of values
+     */
+    abstract SuperBitProjector<T> createProjector();
+}
+
+/**
+ * Hash the nodes of a partition by blocks, and lazily produce
+ * (bucket, node).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class SuperBitBinFunction<T>
+        implements PairFlatMapFunction<Iterator<Node<T>>, Integer, Node<T>> {
+
+    private static final int BLOCK_SIZE = 64;
+
+    private final Broadcast<SuperBitHasher> hasher;
+    private final SuperBitProjector<T> projector;
+
+    SuperBitBinFunction(
+            final Broadcast<SuperBitHasher> hasher,
+            final SuperBitProjector<T> projector) {
+        this.hasher = hasher;
+        this.projector = projector;
+    }
+
+    @Override
+    public Iterator<Tuple2<Integer, Node<T>>> call(
+            final Iterator<Node<T>> nodes) {
 
-            public Iterator<Tuple2<Integer, Node<T>>> call(Node<T> n) throws Exception {
-                ArrayList<Tuple2<Integer, Node<T>>> r = new ArrayList<Tuple2<Integer, Node<T>>>();
-                int[] hash = hash(n.value);
-                for (int v : hash) {
-                    r.add(new Tuple2<Integer, Node<T>>(v, n));
+        final SuperBitHasher h = hasher.value();
+        final double[][] hyperplanes = h.getHyperplanes();
+
+        return new Iterator<Tuple2<Integer, Node<T>>>() {
+
+            private final ArrayList<Node<T>> block =
+                    new ArrayList<>(BLOCK_SIZE);
+            private final ArrayList<T> values = new ArrayList<>(BLOCK_SIZE);
+            private final double[][] projections =
+                    new double[BLOCK_SIZE][hyperplanes.length];
+            private final int[][] buckets =
+                    new int[BLOCK_SIZE][h.maxBuckets()];
+            private final int[] counts = new int[BLOCK_SIZE];
+            private final int[] lowest = new int[h.maxBuckets()];
+
+            // position in the current block
+            private int node = 0;
+            private int bucket = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (node >= block.size() || bucket >= counts[node]) {
+                    if (node < block.size()) {
+                        node++;
+                        bucket = 0;
+                        continue;
+                    }
+
+                    if (!nodes.hasNext()) {
+                        return false;
+                    }
+                    nextBlock();
                 }
+                return true;
+            }
 
-                return r.iterator();
+            @Override
+            public Tuple2<Integer, Node<T>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple2<Integer, Node<T>> tuple = new Tuple2<>(
+                        buckets[node][bucket], block.get(node));
+                bucket++;
+                return tuple;
             }
-        });
-    }
 
-    abstract int[] hash(T node_value);
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void nextBlock() {
+                block.clear();
+                values.clear();
+                while (nodes.hasNext() && block.size() < BLOCK_SIZE) {
+                    Node<T> n = nodes.next();
+                    block.add(n);
+                    values.add(n.value);
+                }
+
+                projector.project(values, hyperplanes, projections);
+                for (int i = 0; i < block.size(); i++) {
+                    counts[i] = h.buckets(projections[i], buckets[i], lowest);
+                }
+
+                node = 0;
+                bucket = 0;
+            }
+        };
+    }
 }
@@ -30,8 +30,7 @@ public class LSHSuperBitDoubleArray extends LSHSuperBit<double[]>{
     }
     
     @Override
-    int[] hash(double[] node_value) {
-        return lsh.hash(node_value);
+    final SuperBitProjector<double[]> createProjector() {
+        return new DoubleArrayProjector();
     }
-    
 }
@@ -2,6 +2,7 @@ package info.debatty.spark.knngraphs.builder;
 
 import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.java.utils.SparseDoubleVector;
+import java.util.ArrayList;
 
 /**
  *
@@ -20,8 +21,29 @@ public class LSHSuperBitSparseDoubleVector extends LSHSuperBit<SparseDoubleVecto
     }
     
     @Override
-    int[] hash(SparseDoubleVector node_value) {
-        return lsh.hash(node_value);
+    final SuperBitProjector<SparseDoubleVector> createProjector() {
+        return new SparseDoubleVectorProjector();
+    }
+}
+
+/**
+ * Projections of a block of sparse double vectors.
+ * @author Thibault Debatty
+ */
+class SparseDoubleVectorProjector
+        implements SuperBitProjector<SparseDoubleVector> {
+
+    @Override
+    public void project(
+            final ArrayList<SparseDoubleVector> block,
+            final double[][] hyperplanes,
+            final double[][] projections) {
+
+        for (int i = 0; i < block.size(); i++) {
+            SparseDoubleVector vector = block.get(i);
+            for (int h = 0; h < hyperplanes.length; h++) {
+                projections[i][h] = vector.dotProduct(hyperplanes[h]);
+            }
+        }
     }
-    
 }
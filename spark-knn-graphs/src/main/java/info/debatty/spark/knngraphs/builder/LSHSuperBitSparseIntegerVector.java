@@ -8,6 +8,7 @@ package info.debatty.spark.knngraphs.builder;
 
 import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.java.utils.SparseIntegerVector;
+import java.util.ArrayList;
 
 /**
  *
@@ -26,8 +27,29 @@ public class LSHSuperBitSparseIntegerVector extends LSHSuperBit<SparseIntegerVec
     }
     
     @Override
-    int[] hash(SparseIntegerVector node_value) {
-        return lsh.hash(node_value);
+    final SuperBitProjector<SparseIntegerVector> createProjector() {
+        return new SparseIntegerVectorProjector();
+    }
+}
+
+/**
+ * Projections of a block of sparse integer vectors.
+ * @author Thibault Debatty
+ */
+class SparseIntegerVectorProjector
+        implements SuperBitProjector<SparseIntegerVector> {
+
+    @Override
+    public void project(
+            final ArrayList<SparseIntegerVector> block,
+            final double[][] hyperplanes,
+            final double[][] projections) {
+
+        for (int i = 0; i < block.size(); i++) {
+            SparseIntegerVector vector = block.get(i);
+            for (int h = 0; h < hyperplanes.length; h++) {
+                projections[i][h] = vector.dotProduct(hyperplanes[h]);
+            }
+        }
     }
-    
 }
@@ -24,10 +24,9 @@
 
 package info.debatty.spark.knngraphs.builder;
 
-import info.debatty.java.spamsum.ESSum;
 import info.debatty.spark.knngraphs.Node;
-import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
@@ -43,16 +42,23 @@ public class NNCTPH extends AbstractPartitioningBuilder<String> {
     protected JavaPairRDD<Integer, Node<String>> bin(
             final JavaRDD<Node<String>> nodes) {
 
-        return nodes.flatMapToPair(new NNCTPHBinFunction(stages, buckets));
+        return nodes.mapPartitionsToPair(
+                new NNCTPHBinFunction(stages, buckets));
     }
 }
 
 /**
+ * Compute the ESSum signature of each string of the partition, and emit one
+ * (bucket, node) pair per character of the signature. A single hasher is
+ * used for the whole partition, and pairs are produced lazily.
  *
  * @author tibo
  */
 class NNCTPHBinFunction
-        implements PairFlatMapFunction<Node<String>, Integer, Node<String>> {
+        implements PairFlatMapFunction<
+            Iterator<Node<String>>,
+            Integer,
+            Node<String>> {
 
     private final int stages;
     private final int buckets;
@@ -63,16 +69,45 @@ class NNCTPHBinFunction
     }
 
     @Override
-    public Iterator<Tuple2<Integer, Node<String>>> call(final Node<String> n) {
+    public Iterator<Tuple2<Integer, Node<String>>> call(
+            final Iterator<Node<String>> nodes) {
 
-        ESSum ess = new ESSum(stages, buckets, 1);
+        return new Iterator<Tuple2<Integer, Node<String>>>() {
 
-        ArrayList<Tuple2<Integer, Node<String>>> r = new ArrayList<>();
-        int[] hash = ess.HashString(n.value);
-        for (int v : hash) {
-            r.add(new Tuple2<>(v, n));
-        }
+            private final ESSumHasher hasher =
+                    new ESSumHasher(stages, buckets, 1);
+            private int[] signature = null;
+            private Node<String> node = null;
+            private int stage = stages;
 
-        return r.iterator();
+            @Override
+            public boolean hasNext() {
+                if (stage < stages) {
+                    return true;
+                }
+                if (!nodes.hasNext()) {
+                    return false;
+                }
+
+                node = nodes.next();
+                signature = hasher.hash(node.value);
+                stage = 0;
+                return true;
+            }
+
+            @Override
+            public Tuple2<Integer, Node<String>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return new Tuple2<>(signature[stage++], node);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 }
@@ -1,23 +1,40 @@
 package info.debatty.spark.knngraphs.builder;
 
-
 import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
 import info.debatty.java.graphs.SimilarityInterface;
+import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.IdNeighborList;
 import info.debatty.spark.knngraphs.Node;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.Partitioner;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.Optional;
+import org.apache.spark.api.java.function.Function;
 import org.apache.spark.api.java.function.Function2;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
 import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.LongAccumulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
 
+
+
 /**
  * Implementation of NN-Descent k-nn graph building algorithm.
  * Based on the paper "Efficient K-Nearest Neighbor Graph Construction for
@@ -26,13 +43,93 @@ import scala.Tuple2;
  *
  * NN-Descent works by iteratively exploring the neighbors of neighbors...
  *
+ * Each neighbor carries a "new" flag, which is set when the neighbor is
+ * inserted in the neighborlist. At each iteration, the local join only
+ * compares new neighbors with each other, and new neighbors with old
+ * neighbors. Pairs of old neighbors were already compared during a previous
+ * iteration. Hence the number of computed similarities drops sharply after
+ * the first iterations.
+ *
+ * At each iteration, at most rho * k new neighbors of each node are sampled
+ * for the local join (the others remain new for the next iterations). The
+ * algorithm stops when the number of updates of the neighborlists drops
+ * below delta * n * k, or after max_iterations.
+ *
+ * The graph of each iteration is persisted (default MEMORY_ONLY), the graph
+ * of the previous iteration is unpersisted, and the lineage is truncated
+ * every checkpoint_interval iterations (default: local checkpoint every 5
+ * iterations). Random choices are seeded, and the candidates are sorted
+ * by id before they are sampled, so recomputing a partition produces the
+ * same result. The returned graph is persisted with the same storage level,
+ * and the intermediate RDDs are released: the caller owns the graph, and
+ * can release it with unpersist().
+ *
+ * The initial graph is built by assigning each node to 2 random buckets of
+ * (on average) init_bucket_size nodes, and picking k random neighbors inside
+ * each bucket. The number of buckets grows with the number of nodes, so the
+ * memory used by each task is bounded. Optionally, one of the two buckets
+ * can be computed by a cheap bucketing function (like LSH), so the first
+ * iteration already starts from a decent graph. Alternatively, the initial
+ * graph can be computed by a partitioning builder (LSH or NNCTPH), in which
+ * case NN-Descent only refines this graph.
+ *
+ * In IDS mode, the nodes (with their value and partition) are kept in a
+ * separate cached RDD, partitioned by id. The graph only contains ids, so
+ * the candidates, the updates and the merge steps only shuffle ids. The
+ * values of the candidates of each node are fetched once per iteration, with
+ * a join that does not shuffle the values RDD, and are restored in the final
+ * graph. The values RDD is unpersisted once the final graph is computed.
+ *
+ * Popular "hub" nodes may have thousands of reverse neighbors. The local
+ * join of each node uses at most max_candidates new and max_candidates old
+ * candidates (randomly sampled). Moreover, if max_group_size is defined, the
+ * candidates of nodes with more than max_group_size reverse neighbors are
+ * salted: new candidates are spread over several groups (processed by
+ * different tasks), and old candidates are replicated in each group. The
+ * updates produced by the groups are merged afterwards. The maximum group
+ * size and the task times of the local join are logged at each iteration.
+ *
  * @author Thibault Debatty
  * @param <T> The class of nodes value
  */
 public class NNDescent<T> extends DistributedGraphBuilder<T> {
 
+    /**
+     * What is shuffled during the iterations.
+     */
+    public enum Mode {
+        /**
+         * Nodes, with their value.
+         */
+        NODES,
+
+        /**
+         * Ids of nodes, the values are fetched only for the local join.
+         */
+        IDS
+    }
+
     private final Logger logger = LoggerFactory.getLogger(NNDescent.class);
     private int max_iterations = 10;
+    private double delta = 0.001;
+    private double rho = 1.0;
+    private long seed = new Random().nextLong();
+    private StorageLevel storage_level = StorageLevel.MEMORY_ONLY();
+    private IterationState.Checkpoint checkpoint =
+            IterationState.Checkpoint.LOCAL;
+    private int checkpoint_interval = 5;
+    private Mode mode = Mode.NODES;
+    private int init_bucket_size = 1000;
+    private Function<T, Integer> init_bucketing = null;
+    private int max_candidates = 0;
+    private int max_group_size = 0;
+    private AbstractPartitioningBuilder<T> initializer = null;
+
+    /**
+     * Number of buckets each node is assigned to during initialization.
+     */
+    private static final int INIT_BUCKETS_PER_NODE = 2;
+    private final ArrayList<Long> computed_similarities = new ArrayList<>();
 
     /**
      * Set the maximum number of iterations.
@@ -50,6 +147,197 @@ public class NNDescent<T> extends DistributedGraphBuilder<T> {
         return this;
     }
 
+    /**
+     * Set the early termination threshold: the algorithm stops when the
+     * number of neighborlist updates during an iteration is smaller than
+     * delta * n * k. Use 0 to always run max_iterations.
+     * Default value is 0.001
+     * @param delta
+     * @return
+     */
+    public final NNDescent setDelta(final double delta) {
+        if (delta < 0) {
+            throw new InvalidParameterException("delta must be positive!");
+        }
+
+        this.delta = delta;
+        return this;
+    }
+
+    /**
+     * Set the sampling rate: at each iteration, each node joins at most
+     * rho * k new neighbors, and at most rho * k new reverse neighbors.
+     * Default value is 1.0
+     * @param rho
+     * @return
+     */
+    public final NNDescent setRho(final double rho) {
+        if (rho <= 0 || rho > 1) {
+            throw new InvalidParameterException("rho must be in ]0, 1]!");
+        }
+
+        this.rho = rho;
+        return this;
+    }
+
+    /**
+     * Set the seed used for the random initialization and sampling.
+     * Default is a random seed.
+     * @param seed
+     * @return
+     */
+    public final NNDescent setSeed(final long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Set the storage level used to persist the graph of each iteration,
+     * and the returned graph.
+     * Default is MEMORY_ONLY.
+     * @param storage_level
+     * @return
+     */
+    public final NNDescent setStorageLevel(final StorageLevel storage_level) {
+        this.storage_level = storage_level;
+        return this;
+    }
+
+    /**
+     * Set how the lineage of the graph is truncated. RELIABLE requires a
+     * checkpoint directory to be defined on the Spark context.
+     * Default is LOCAL.
+     * @param checkpoint
+     * @return
+     */
+    public final NNDescent setCheckpoint(
+            final IterationState.Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+        return this;
+    }
+
+    /**
+     * Set the number of iterations between two checkpoints.
+     * Default value is 5
+     * @param checkpoint_interval
+     * @return
+     */
+    public final NNDescent setCheckpointInterval(
+            final int checkpoint_interval) {
+        if (checkpoint_interval <= 0) {
+            throw new InvalidParameterException(
+                    "checkpoint_interval must be positive!");
+        }
+
+        this.checkpoint_interval = checkpoint_interval;
+        return this;
+    }
+
+    /**
+     * Set what is shuffled during the iterations. IDS is faster for large
+     * values (like texts).
+     * Default is NODES.
+     * @param mode
+     * @return
+     */
+    public final NNDescent setMode(final Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * Set the average number of nodes per bucket, for the random
+     * initialization. Must be larger than k.
+     * Default value is 1000
+     * @param init_bucket_size
+     * @return
+     */
+    public final NNDescent setInitBucketSize(final int init_bucket_size) {
+        if (init_bucket_size <= 1) {
+            throw new InvalidParameterException(
+                    "init_bucket_size must be larger than 1!");
+        }
+
+        this.init_bucket_size = init_bucket_size;
+        return this;
+    }
+
+    /**
+     * Set a (cheap) bucketing function, used to initialize the graph: each
+     * node is assigned to a random bucket, and to the bucket computed by this
+     * function. Large buckets are randomly split in buckets of
+     * init_bucket_size nodes.
+     * Default is null (only random buckets).
+     * @param init_bucketing
+     * @return
+     */
+    public final NNDescent setInitBucketing(
+            final Function<T, Integer> init_bucketing) {
+        this.init_bucketing = init_bucketing;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of new (and old) candidates used by the local
+     * join of each node. Larger sets of candidates (because the node has a
+     * lot of reverse neighbors) are randomly sampled.
+     * Default is 2 * rho * k
+     * @param max_candidates
+     * @return
+     */
+    public final NNDescent setMaxCandidates(final int max_candidates) {
+        if (max_candidates <= 0) {
+            throw new InvalidParameterException(
+                    "max_candidates must be positive!");
+        }
+
+        this.max_candidates = max_candidates;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of reverse neighbors per group: the candidates
+     * of nodes with more reverse neighbors are split in several groups, that
+     * are joined by different tasks. This requires an additional job at each
+     * iteration, to count the reverse neighbors. Use 0 to disable.
+     * Default value is 0
+     * @param max_group_size
+     * @return
+     */
+    public final NNDescent setMaxGroupSize(final int max_group_size) {
+        if (max_group_size < 0) {
+            throw new InvalidParameterException(
+                    "max_group_size must be positive!");
+        }
+
+        this.max_group_size = max_group_size;
+        return this;
+    }
+
+    /**
+     * Use the graph computed by a partitioning builder (like LSH SuperBit or
+     * NNCTPH) as initial graph, instead of a random graph. The k and
+     * similarity of the initializer are set to the values of this builder,
+     * and max_iterations becomes the number of refinement iterations.
+     * Default is null (random initial graph).
+     * @param initializer
+     * @return
+     */
+    public final NNDescent setInitializer(
+            final AbstractPartitioningBuilder<T> initializer) {
+        this.initializer = initializer;
+        return this;
+    }
+
+    /**
+     * Get the number of similarities computed by the local join, for each
+     * iteration of the last graph computation.
+     * @return
+     */
+    public final List<Long> getComputedSimilarities() {
+        return computed_similarities;
+    }
+
     /**
      *
      * @param nodes
@@ -57,97 +345,439 @@ public class NNDescent<T> extends DistributedGraphBuilder<T> {
      */
     @Override
     protected final JavaPairRDD<Node<T>, NeighborList> doComputeGraph(
-            final JavaRDD<Node<T>> nodes) {
+            final JavaRDD<Node<T>> nodes) throws Exception {
+
+        IterationState<Node<T>, NeighborList> state = new IterationState<>(
+                storage_level, checkpoint, checkpoint_interval);
+        JavaPairRDD<Long, Node<T>> values = iterate(nodes, state);
+
+        // Materialize the final graph, then release the last state and the
+        // values (in IDS mode)
+        JavaPairRDD<Node<T>, NeighborList> graph;
+        if (mode == Mode.IDS) {
+            graph = restoreValues(state.get(), nodes, values);
+        } else {
+            graph = state.get().mapValues(new RemoveFlagsFunction(k));
+        }
+        graph.persist(storage_level);
+        graph.count();
+        state.release();
+        if (values != null) {
+            values.unpersist();
+        }
+        return graph;
+    }
+
+    /**
+     * In IDS mode, the graph of the iterations only contains ids, so the
+     * topology is returned without restoring the values of the neighbors.
+     * It is persisted with the storage level of the iterations.
+     * @param nodes
+     * @return
+     * @throws Exception if cannot build graph
+     */
+    @Override
+    protected final JavaPairRDD<Long, IdNeighborList> doComputeTopology(
+            final JavaRDD<Node<T>> nodes) throws Exception {
+
+        if (mode != Mode.IDS) {
+            return super.doComputeTopology(nodes);
+        }
+
+        IterationState<Node<T>, NeighborList> state = new IterationState<>(
+                storage_level, checkpoint, checkpoint_interval);
+        JavaPairRDD<Long, Node<T>> values = iterate(nodes, state);
+
+        JavaPairRDD<Long, IdNeighborList> topology =
+                DistributedGraph.toTopology(state.get());
+        topology.persist(storage_level);
+        topology.count();
+        state.release();
+        values.unpersist();
+        return topology;
+    }
 
-        // Randomize: associate each node to 10 buckets out of 20
-        JavaPairRDD<Integer, Node<T>> randomized = nodes.flatMapToPair(
-                new RandomizeFunction<T>());
+    /**
+     * Run the iterations. At the end, state holds the graph of the last
+     * iteration (with flags, and without values in IDS mode).
+     * @return the values RDD (IDS mode), or null
+     */
+    private JavaPairRDD<Long, Node<T>> iterate(
+            final JavaRDD<Node<T>> nodes,
+            final IterationState<Node<T>, NeighborList> state)
+            throws Exception {
+
+        computed_similarities.clear();
+        LongAccumulator similarities = nodes.context().longAccumulator(
+                "NNDescent similarities");
+        LongAccumulator updates = nodes.context().longAccumulator(
+                "NNDescent updates");
+        SkewAccumulator skew = new SkewAccumulator();
+        nodes.context().register(skew, "NNDescent skew");
+        int sample_size = (int) Math.ceil(rho * k);
+        int candidates_size = max_candidates;
+        if (candidates_size == 0) {
+            candidates_size = 2 * sample_size;
+        }
+
+        // Initial graph: random neighbors, or the graph computed by the
+        // initializer (all neighbors are new)
+        JavaPairRDD<Node<T>, NeighborList> initial_graph;
+        if (initializer == null) {
+            initial_graph = randomGraph(nodes, similarities);
+        } else {
+            initializer.setK(k);
+            initializer.setSimilarity(similarity);
+            initial_graph = initializer.computeGraphFromNodes(nodes)
+                    .mapValues(new FlagNeighborsFunction<T>(k));
+        }
+
+        // In IDS mode, values are kept in a separate RDD, partitioned by id
+        Partitioner partitioner = new HashPartitioner(
+                nodes.getNumPartitions());
+        JavaPairRDD<Long, Node<T>> values = null;
+        if (mode == Mode.IDS) {
+            values = nodes.mapToPair(new IdNodeFunction<T>())
+                    .partitionBy(partitioner)
+                    .persist(storage_level);
+            initial_graph = initial_graph.mapToPair(
+                    new StripValuesFunction<T>(k));
+        }
+
+        long n = state.update(initial_graph);
+        if (initializer == null) {
+            logger.info("Initialization: {} similarities",
+                    similarities.value());
+        } else {
+            logger.info("Initialization: graph computed by {}",
+                    initializer.getClass().getSimpleName());
+        }
+
+        for (int iteration = 0; iteration < max_iterations; iteration++) {
+            similarities.reset();
+            updates.reset();
+            skew.reset();
+
+            // Old neighbors, sampled new neighbors, and reverse neighbors,
+            // of each node, grouped by (node id, salt)
+            JavaPairRDD<Node<T>, NeighborList> graph = state.get();
+            HashMap<Long, Integer> salts = computeSalts(graph);
+            JavaPairRDD<Tuple2<Long, Integer>, Tuple2<Node<T>, Boolean>>
+                    candidates;
+            if (mode == Mode.IDS) {
+                candidates = fetchCandidates(
+                        graph, values, partitioner, salts, sample_size,
+                        candidates_size, skew, iteration);
+            } else {
+                candidates = graph.flatMapToPair(new CandidatesFunction<T>(
+                        salts, sample_size, iteration));
+            }
+
+            // Local join: new x new and new x old
+            JavaPairRDD<Node<T>, NeighborList> joined =
+                    candidates.groupByKey().mapPartitionsToPair(
+                            new LocalJoinFunction<>(
+                                    similarity, k, similarities, skew,
+                                    candidates_size, iteration, seed,
+                                    mode == Mode.IDS));
+
+            // Sampled neighbors have been joined, they become old
+            state.update(graph.mapToPair(new MarkOldFunction<T>(
+                            k, sample_size, iteration))
+                    .union(joined)
+                    .reduceByKey(
+                            new MergeFlaggedFunction(k),
+                            nodes.getNumPartitions())
+                    .mapValues(new CountUpdatesFunction(updates, iteration)));
+
+            computed_similarities.add(similarities.value());
+            logger.info("Iteration {}: {} similarities, {} updates",
+                    iteration, similarities.value(), updates.value());
+            logger.info("Iteration {}: {} salted nodes, {}",
+                    iteration, salts.size(), skew.value());
+
+            if (updates.value() < delta * n * k) {
+                logger.info("Converged after {} iterations", iteration + 1);
+                break;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Random initial graph: associate each node to buckets of bounded size,
+     * and pick random neighbors inside each bucket.
+     */
+    private JavaPairRDD<Node<T>, NeighborList> randomGraph(
+            final JavaRDD<Node<T>> nodes,
+            final LongAccumulator similarities) {
+
+        JavaPairRDD<Long, Node<T>> randomized = nodes.flatMapToPair(
+                createRandomizeFunction(nodes));
 
         // Inside bucket, for each node create a random neighborlist
         JavaPairRDD<Node<T>, NeighborList> random_nl =
-                randomized.groupByKey().flatMapToPair(
-                        new AssociateFunction<T>(k));
+                randomized.groupByKey(nodes.getNumPartitions()).flatMapToPair(
+                        new AssociateFunction<>(
+                                similarity, k, similarities, seed));
 
         // Merge neighborlists and create a single neighborlist of size k
-        JavaPairRDD<Node<T>, NeighborList> graph = random_nl.reduceByKey(
-                new MergeFunction(k));
+        return random_nl.reduceByKey(new MergeFunction(k));
+    }
 
-        for (int iteration = 0; iteration < max_iterations; iteration++) {
-            logger.debug("Iteration {}", iteration);
+    /**
+     * Compute the number of buckets from the number of nodes, and the
+     * number of sub-buckets for each value of the bucketing function.
+     */
+    private RandomizeFunction<T> createRandomizeFunction(
+            final JavaRDD<Node<T>> nodes) {
 
-            // Reverse
-            JavaPairRDD<Node<T>, Node<T>> exploded_graph = graph.flatMapToPair(
-                    new ReverseFunction<T>());
+        long n = nodes.count();
+        int replicas = INIT_BUCKETS_PER_NODE;
+        if (init_bucketing != null) {
+            replicas--;
+        }
 
-            // Update
-            graph = exploded_graph.groupByKey().flatMapToPair(
-                    new UpdateNLFunction<>(similarity, k));
+        long random_buckets = Math.max(
+                1, n * replicas / init_bucket_size);
+        if (init_bucketing == null) {
+            return new RandomizeFunction<>(
+                    seed, random_buckets, replicas, null, null);
+        }
 
-            // Filter
-            graph = graph.groupByKey().mapToPair(new FilterFunction<T>(k));
+        // Split the buckets produced by the bucketing function in
+        // sub-buckets of (at most) init_bucket_size nodes
+        Map<Integer, Long> counts = nodes.map(
+                new BucketingFunction<>(init_bucketing)).countByValue();
+        HashMap<Integer, long[]> splits = new HashMap<>();
+        long offset = random_buckets;
+        for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+            long subs = (entry.getValue() - 1) / init_bucket_size + 1;
+            splits.put(entry.getKey(), new long[]{offset, subs});
+            offset += subs;
         }
+        logger.info("Initialization: {} random buckets, {} LSH buckets",
+                random_buckets, offset - random_buckets);
 
-        return graph;
+        return new RandomizeFunction<>(
+                seed, random_buckets, replicas, init_bucketing, splits);
+    }
+
+    /**
+     * Compute the number of groups of each node that has more than
+     * max_group_size reverse neighbors.
+     */
+    private HashMap<Long, Integer> computeSalts(
+            final JavaPairRDD<Node<T>, NeighborList> graph) {
+
+        HashMap<Long, Integer> salts = new HashMap<>();
+        if (max_group_size == 0) {
+            return salts;
+        }
+
+        Map<Long, Long> degrees = graph
+                .flatMapToPair(new ReverseDegreeFunction<T>())
+                .reduceByKey(new SumFunction())
+                .filter(new LargerThanFunction(max_group_size))
+                .collectAsMap();
+        for (Map.Entry<Long, Long> entry : degrees.entrySet()) {
+            salts.put(entry.getKey(),
+                    (int) ((entry.getValue() - 1) / max_group_size + 1));
+        }
+        return salts;
+    }
+
+    /**
+     * Select the candidates of each node using ids only, then fetch the
+     * values of the selected candidates.
+     */
+    private JavaPairRDD<Tuple2<Long, Integer>, Tuple2<Node<T>, Boolean>>
+            fetchCandidates(
+                    final JavaPairRDD<Node<T>, NeighborList> graph,
+                    final JavaPairRDD<Long, Node<T>> values,
+                    final Partitioner partitioner,
+                    final HashMap<Long, Integer> salts,
+                    final int sample_size,
+                    final int candidates_size,
+                    final SkewAccumulator skew,
+                    final int iteration) {
+
+        // (candidate id, ((node id, salt), is new))
+        JavaPairRDD<Long, Tuple2<Tuple2<Long, Integer>, Boolean>> selected =
+                graph.flatMapToPair(new IdCandidatesFunction<T>(
+                        salts, sample_size, iteration))
+                .groupByKey(partitioner)
+                .flatMapToPair(new SelectCandidatesFunction(
+                        candidates_size, skew, iteration, seed));
+
+        // values is already partitioned: only the ids are shuffled here
+        return selected.join(values)
+                .mapToPair(new FetchValueFunction<T>());
+    }
+
+    /**
+     * Restore the values of the nodes and of their neighbors.
+     */
+    private JavaPairRDD<Node<T>, NeighborList> restoreValues(
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final JavaRDD<Node<T>> nodes,
+            final JavaPairRDD<Long, Node<T>> values) {
+
+        JavaPairRDD<Long, NeighborList> neighborlists = graph
+                .flatMapToPair(new ExplodeEdgesFunction<T>())
+                .join(values)
+                .mapToPair(new RestoreNeighborFunction<T>())
+                .aggregateByKey(
+                        new NeighborList(k),
+                        new AggregateNeighborsFunction(),
+                        new CombineNeighborListsFunction());
+
+        return nodes.mapToPair(new IdNodeFunction<T>())
+                .leftOuterJoin(neighborlists)
+                .mapToPair(new RestoreNodeFunction<T>(k));
     }
 }
 
 /**
- * Randomize: associate each node to 10 buckets out of 20.
+ * Randomize: associate each node to replicas random buckets out of
+ * random_buckets. If a bucketing function is defined, also associate the
+ * node to a random sub-bucket of the bucket produced by this function.
  * @author Thibault Debatty
  * @param <T>
  */
 class RandomizeFunction<T>
-        implements PairFlatMapFunction<Node<T>, Integer, Node<T>> {
+        implements PairFlatMapFunction<Node<T>, Long, Node<T>> {
+
+    private final long seed;
+    private final long random_buckets;
+    private final int replicas;
+    private final Function<T, Integer> bucketing;
+    private final HashMap<Integer, long[]> splits;
 
-    private final Random rand = new Random();
+    /**
+     *
+     * @param seed
+     * @param random_buckets
+     * @param replicas
+     * @param bucketing optional bucketing function (can be null)
+     * @param splits (offset, number of sub-buckets) for each value of the
+     * bucketing function
+     */
+    RandomizeFunction(
+            final long seed,
+            final long random_buckets,
+            final int replicas,
+            final Function<T, Integer> bucketing,
+            final HashMap<Integer, long[]> splits) {
+
+        this.seed = seed;
+        this.random_buckets = random_buckets;
+        this.replicas = replicas;
+        this.bucketing = bucketing;
+        this.splits = splits;
+    }
 
     @Override
-    public Iterator<Tuple2<Integer, Node<T>>> call(final Node<T> n) {
-        ArrayList<Tuple2<Integer, Node<T>>> r = new ArrayList<>();
-        for (int i = 0; i < 10; i++) {
-            r.add(new Tuple2<>(rand.nextInt(20), n));
+    public Iterator<Tuple2<Long, Node<T>>> call(final Node<T> n)
+            throws Exception {
+
+        Random rand = new Random(seed + n.id);
+        ArrayList<Tuple2<Long, Node<T>>> r = new ArrayList<>();
+        for (int i = 0; i < replicas; i++) {
+            r.add(new Tuple2<>(nextLong(rand, random_buckets), n));
+        }
+
+        if (bucketing != null) {
+            long[] split = splits.get(bucketing.call(n.value));
+            r.add(new Tuple2<>(split[0] + nextLong(rand, split[1]), n));
         }
 
         return r.iterator();
     }
+
+    private static long nextLong(final Random rand, final long bound) {
+        return (long) (rand.nextDouble() * bound);
+    }
+}
+
+/**
+ * Apply the bucketing function to the value of the node.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class BucketingFunction<T> implements Function<Node<T>, Integer> {
+
+    private final Function<T, Integer> bucketing;
+
+    BucketingFunction(final Function<T, Integer> bucketing) {
+        this.bucketing = bucketing;
+    }
+
+    @Override
+    public Integer call(final Node<T> node) throws Exception {
+        return bucketing.call(node.value);
+    }
 }
 
 /**
- * Inside bucket, associate each node to neighbors.
+ * Inside bucket, associate each node to random (new) neighbors.
  * @author Thibault Debatty
  * @param <T>
  */
 class AssociateFunction<T>
         implements PairFlatMapFunction<
-            Tuple2<Integer, Iterable<Node<T>>>,
+            Tuple2<Long, Iterable<Node<T>>>,
             Node<T>,
             NeighborList> {
 
-    private final Random rand = new Random();
+    private final SimilarityInterface<T> similarity;
     private final int k;
+    private final LongAccumulator similarities;
+    private final long seed;
 
-    AssociateFunction(final int k) {
+    AssociateFunction(
+            final SimilarityInterface<T> similarity,
+            final int k,
+            final LongAccumulator similarities,
+            final long seed) {
+
+        this.similarity = similarity;
         this.k = k;
+        this.similarities = similarities;
+        this.seed = seed;
     }
 
     @Override
     public Iterator<Tuple2<Node<T>, NeighborList>> call(
-            final Tuple2<Integer, Iterable<Node<T>>> tuple) throws Exception {
+            final Tuple2<Long, Iterable<Node<T>>> tuple) throws Exception {
+
+        Random rand = new Random(seed + tuple._1);
 
         // Read all nodes in bucket
+        // (sorted, as the order of a shuffle is not deterministic)
         ArrayList<Node<T>> nodes = new ArrayList<>();
         for (Node<T> n : tuple._2) {
             nodes.add(n);
         }
+        Collections.sort(nodes, new NodeIdComparator<T>());
 
         ArrayList<Tuple2<Node<T>, NeighborList>> r =
                 new ArrayList<>();
         for (Node<T> n : nodes) {
             NeighborList nnl = new NeighborList(k);
             for (int i = 0; i < k; i++) {
-                nnl.add(new Neighbor(
-                        nodes.get(rand.nextInt(nodes.size())),
-                        Double.MAX_VALUE));
+                Node<T> other = nodes.get(rand.nextInt(nodes.size()));
+                if (other.equals(n)) {
+                    continue;
+                }
+
+                nnl.add(new FlaggedNeighbor<>(
+                        other,
+                        similarity.similarity(n.value, other.value),
+                        true,
+                        -1));
+                similarities.add(1);
             }
 
             r.add(new Tuple2<>(n, nnl));
@@ -158,15 +788,45 @@ class AssociateFunction<T>
 }
 
 /**
- * Merge neighborlists together.
+ * Convert regular neighbors (of the initial graph) to new flagged neighbors.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class FlagNeighborsFunction<T>
+        implements Function<NeighborList, NeighborList> {
+
+    private final int k;
+
+    FlagNeighborsFunction(final int k) {
+        this.k = k;
+    }
+
+    @Override
+    public NeighborList call(final NeighborList nl) {
+        NeighborList result = new NeighborList(k);
+        for (Neighbor neighbor : nl) {
+            result.add(new FlaggedNeighbor<>(
+                    (Node<T>) neighbor.getNode(),
+                    neighbor.getSimilarity(),
+                    true,
+                    -1));
+        }
+        return result;
+    }
+}
+
+/**
+ * Merge neighborlists of flagged neighbors. Old neighbors are added first,
+ * so if a node is both in an old and in a new neighbor, it remains old (and
+ * is not joined again).
  * @author Thibault Debatty
  */
-class MergeFunction
+class MergeFlaggedFunction
         implements Function2<NeighborList, NeighborList, NeighborList> {
 
     private final int k;
 
-    MergeFunction(final int k) {
+    MergeFlaggedFunction(final int k) {
         this.k = k;
     }
 
@@ -174,115 +834,792 @@ class MergeFunction
     public NeighborList call(final NeighborList nl1, final NeighborList nl2)
             throws Exception {
         NeighborList nnl = new NeighborList(k);
-        nnl.addAll(nl1);
-        nnl.addAll(nl2);
+        addAll(nnl, nl1, false);
+        addAll(nnl, nl2, false);
+        addAll(nnl, nl1, true);
+        addAll(nnl, nl2, true);
         return nnl;
     }
+
+    private void addAll(
+            final NeighborList destination,
+            final NeighborList source,
+            final boolean is_new) {
+
+        for (Neighbor neighbor : source) {
+            if (((FlaggedNeighbor) neighbor).isNew() == is_new) {
+                destination.add(neighbor);
+            }
+        }
+    }
 }
 
 /**
- * Reverse the neighborlists.
+ * Produce the candidates of each node: its old and sampled new neighbors,
+ * and its reverse neighbors, with their "new" flag. New neighbors that are
+ * not sampled are skipped.
+ *
+ * Candidates are keyed by (node id, salt). For salted nodes, each new
+ * candidate is assigned to a single group, and each old candidate is
+ * replicated in all groups.
  * @author Thibault Debatty
  * @param <T>
  */
-class ReverseFunction<T>
+class CandidatesFunction<T>
         implements PairFlatMapFunction<
             Tuple2<Node<T>, NeighborList>,
-            Node<T>,
-            Node<T>> {
+            Tuple2<Long, Integer>,
+            Tuple2<Node<T>, Boolean>> {
+
+    private final HashMap<Long, Integer> salts;
+    private final int sample_size;
+    private final int iteration;
+
+    CandidatesFunction(
+            final HashMap<Long, Integer> salts,
+            final int sample_size,
+            final int iteration) {
+        this.salts = salts;
+        this.sample_size = sample_size;
+        this.iteration = iteration;
+    }
 
     @Override
-    public Iterator<Tuple2<Node<T>, Node<T>>> call(
-            final Tuple2<Node<T>, NeighborList> tuple) {
+    public Iterator<Tuple2<Tuple2<Long, Integer>, Tuple2<Node<T>, Boolean>>>
+            call(final Tuple2<Node<T>, NeighborList> tuple) {
 
-        ArrayList<Tuple2<Node<T>, Node<T>>> r = new ArrayList<>();
-        for (Neighbor<Node<T>> neighbor : tuple._2()) {
-            r.add(new Tuple2<>(tuple._1(), neighbor.getNode()));
-            r.add(new Tuple2<>(neighbor.getNode(), tuple._1()));
+        HashSet<Long> sample = FlaggedNeighbor.sampleNew(
+                tuple._1, tuple._2, sample_size, iteration);
+
+        ArrayList<Tuple2<Tuple2<Long, Integer>, Tuple2<Node<T>, Boolean>>> r =
+                new ArrayList<>(2 * tuple._2.size());
+        for (Neighbor neighbor : tuple._2) {
+            FlaggedNeighbor<T> flagged = (FlaggedNeighbor<T>) neighbor;
+            Node<T> other = flagged.getNode();
+            if (flagged.isNew() && !sample.contains(other.id)) {
+                continue;
+            }
+            add(r, salts, tuple._1.id, other, other.id,
+                    flagged.isNew(), iteration);
+            add(r, salts, other.id, tuple._1, tuple._1.id,
+                    flagged.isNew(), iteration);
         }
         return r.iterator();
+    }
+
+    /**
+     * Add the candidate to the group(s) of the node.
+     * @param <C> type of candidate (node or id)
+     * @param r
+     * @param salts number of groups of salted nodes
+     * @param node
+     * @param candidate
+     * @param candidate_id
+     * @param is_new
+     * @param iteration
+     */
+    static <C> void add(
+            final ArrayList<Tuple2<Tuple2<Long, Integer>, Tuple2<C, Boolean>>>
+                    r,
+            final HashMap<Long, Integer> salts,
+            final long node,
+            final C candidate,
+            final long candidate_id,
+            final boolean is_new,
+            final int iteration) {
 
+        Integer groups = salts.get(node);
+        if (groups == null) {
+            r.add(new Tuple2<>(
+                    new Tuple2<>(node, 0), new Tuple2<>(candidate, is_new)));
+            return;
+        }
+
+        if (is_new) {
+            long hash = FlaggedNeighbor.mix(node, candidate_id, iteration);
+            int salt = (int) ((hash >>> 1) % groups);
+            r.add(new Tuple2<>(
+                    new Tuple2<>(node, salt), new Tuple2<>(candidate, true)));
+            return;
+        }
+
+        for (int salt = 0; salt < groups; salt++) {
+            r.add(new Tuple2<>(
+                    new Tuple2<>(node, salt), new Tuple2<>(candidate, false)));
+        }
     }
 }
 
 /**
- * Update neighborlists.
+ * Local join: compare the new candidates with each other, and with the old
+ * candidates. Produce a single neighborlist of new neighbors for each
+ * candidate that was compared.
+ *
+ * If there are more than max_candidates new (or old) candidates, because
+ * the node has a lot of reverse neighbors, a random sample is used.
+ *
+ * Groups of a partition are joined lazily, and the size of the groups and
+ * the running time of the partition are added to the skew accumulator.
  * @author Thibault Debatty
  * @param <T>
  */
-class UpdateNLFunction<T>
+class LocalJoinFunction<T>
         implements PairFlatMapFunction<
-            Tuple2<Node<T>, Iterable<Node<T>>>,
+            Iterator<Tuple2<Tuple2<Long, Integer>,
+                    Iterable<Tuple2<Node<T>, Boolean>>>>,
             Node<T>,
             NeighborList> {
 
     private final SimilarityInterface<T> similarity;
     private final int k;
+    private final LongAccumulator similarities;
+    private final SkewAccumulator skew;
+    private final int max_candidates;
+    private final int iteration;
+    private final long seed;
+    private final boolean strip_values;
+
+    LocalJoinFunction(
+            final SimilarityInterface<T> similarity,
+            final int k,
+            final LongAccumulator similarities,
+            final SkewAccumulator skew,
+            final int max_candidates,
+            final int iteration,
+            final long seed,
+            final boolean strip_values) {
 
-    UpdateNLFunction(final SimilarityInterface<T> similarity, final int k) {
         this.similarity = similarity;
         this.k = k;
+        this.similarities = similarities;
+        this.skew = skew;
+        this.max_candidates = max_candidates;
+        this.iteration = iteration;
+        this.seed = seed;
+        this.strip_values = strip_values;
     }
 
     @Override
     public Iterator<Tuple2<Node<T>, NeighborList>> call(
-            final Tuple2<Node<T>, Iterable<Node<T>>> tuple) throws Exception {
+            final Iterator<Tuple2<Tuple2<Long, Integer>,
+                    Iterable<Tuple2<Node<T>, Boolean>>>> groups) {
 
-        // Fetch all nodes
-        ArrayList<Node<T>> nodes = new ArrayList<>();
-        nodes.add(tuple._1);
+        final long start = System.currentTimeMillis();
+        final SkewStatistics stats = new SkewStatistics();
 
-        for (Node<T> n : tuple._2) {
-            nodes.add(n);
-        }
+        return new Iterator<Tuple2<Node<T>, NeighborList>>() {
 
-        //
-        ArrayList<Tuple2<Node<T>, NeighborList>> r =
-                new ArrayList<>(nodes.size());
+            private Iterator<Tuple2<Node<T>, NeighborList>> current =
+                    Collections.emptyIterator();
+            private boolean done = false;
 
-        for (Node<T> n : nodes) {
-            NeighborList nl = new NeighborList(k);
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!groups.hasNext()) {
+                        finish();
+                        return false;
+                    }
+                    current = join(groups.next(), stats);
+                }
+                return true;
+            }
 
-            for (Node<T> other : nodes) {
-                if (other.equals(n)) {
-                    continue;
+            @Override
+            public Tuple2<Node<T>, NeighborList> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                return current.next();
+            }
 
-                nl.add(new Neighbor(
-                        other,
-                        similarity.similarity(n.value, other.value)));
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private void finish() {
+                if (!done) {
+                    done = true;
+                    stats.addTask(System.currentTimeMillis() - start);
+                    skew.add(stats);
+                }
+            }
+        };
+    }
+
+    /**
+     * Local join of a single group.
+     * @param tuple
+     * @param stats
+     * @return
+     */
+    private Iterator<Tuple2<Node<T>, NeighborList>> join(
+            final Tuple2<Tuple2<Long, Integer>,
+                    Iterable<Tuple2<Node<T>, Boolean>>> tuple,
+            final SkewStatistics stats) {
+
+        ArrayList<Node<T>> new_candidates = new ArrayList<>();
+        ArrayList<Node<T>> old_candidates = new ArrayList<>();
+        stats.addGroup(select(tuple._2, max_candidates,
+                random(seed, tuple._1, iteration), new NodeIdComparator<T>(),
+                new_candidates, old_candidates));
+
+        HashMap<Node<T>, NeighborList> updates = new HashMap<>();
+        long count = 0;
+        for (int i = 0; i < new_candidates.size(); i++) {
+            Node<T> n1 = new_candidates.get(i);
+
+            for (int j = i + 1; j < new_candidates.size(); j++) {
+                update(updates, n1, new_candidates.get(j));
+                count++;
             }
 
-            r.add(new Tuple2<>(n, nl));
+            for (Node<T> n2 : old_candidates) {
+                update(updates, n1, n2);
+                count++;
+            }
         }
+        similarities.add(count);
 
+        ArrayList<Tuple2<Node<T>, NeighborList>> r =
+                new ArrayList<>(updates.size());
+        for (Node<T> node : updates.keySet()) {
+            r.add(new Tuple2<>(node, updates.get(node)));
+        }
         return r.iterator();
+    }
+
+    /**
+     * Split the candidates of a node in new and old candidates, removing
+     * duplicates (if a candidate is both new and old, it is considered as
+     * new), and keeping at most max_candidates of each.
+     *
+     * The candidates arrive in the (non deterministic) order of the shuffle,
+     * hence they are sorted before they are sampled: with the same seed, a
+     * recomputed group selects the same candidates.
+     * @param <K> type of candidates (node or id)
+     * @param candidates
+     * @param max_candidates
+     * @param rand
+     * @param order order of the candidates, or null for natural ordering
+     * @param new_candidates
+     * @param old_candidates
+     * @return the number of candidates before selection
+     */
+    static <K> long select(
+            final Iterable<Tuple2<K, Boolean>> candidates,
+            final int max_candidates,
+            final Random rand,
+            final Comparator<? super K> order,
+            final ArrayList<K> new_candidates,
+            final ArrayList<K> old_candidates) {
+
+        long size = 0;
+        LinkedHashMap<K, Boolean> unique = new LinkedHashMap<>();
+        for (Tuple2<K, Boolean> candidate : candidates) {
+            size++;
+            Boolean is_new = unique.get(candidate._1);
+            if (is_new == null || !is_new) {
+                unique.put(candidate._1, candidate._2);
+            }
+        }
+
+        for (K candidate : unique.keySet()) {
+            if (unique.get(candidate)) {
+                new_candidates.add(candidate);
+            } else {
+                old_candidates.add(candidate);
+            }
+        }
+
+        Collections.sort(new_candidates, order);
+        Collections.sort(old_candidates, order);
+        sample(new_candidates, max_candidates, rand);
+        sample(old_candidates, max_candidates, rand);
+        return size;
+    }
+
+    /**
+     * Random generator for the selection of the candidates of a group.
+     * @param seed
+     * @param group (node id, salt)
+     * @param iteration
+     * @return
+     */
+    static Random random(
+            final long seed,
+            final Tuple2<Long, Integer> group,
+            final int iteration) {
+        return new Random(
+                seed + group._1 * 31 + iteration + group._2 * 7919L);
+    }
+
+    private static <K> void sample(
+            final ArrayList<K> candidates,
+            final int max_candidates,
+            final Random rand) {
+
+        if (candidates.size() <= max_candidates) {
+            return;
+        }
+
+        Collections.shuffle(candidates, rand);
+        candidates.subList(max_candidates, candidates.size()).clear();
+    }
+
+    private void update(
+            final HashMap<Node<T>, NeighborList> updates,
+            final Node<T> n1,
+            final Node<T> n2) {
 
+        double sim = similarity.similarity(n1.value, n2.value);
+        Node<T> neighbor1 = n1;
+        Node<T> neighbor2 = n2;
+        if (strip_values) {
+            neighbor1 = StripValuesFunction.strip(n1);
+            neighbor2 = StripValuesFunction.strip(n2);
+        }
+
+        neighborlist(updates, neighbor1).add(
+                new FlaggedNeighbor<>(neighbor2, sim, true, iteration));
+        neighborlist(updates, neighbor2).add(
+                new FlaggedNeighbor<>(neighbor1, sim, true, iteration));
+    }
+
+    private NeighborList neighborlist(
+            final HashMap<Node<T>, NeighborList> updates,
+            final Node<T> node) {
+
+        NeighborList nl = updates.get(node);
+        if (nl == null) {
+            nl = new NeighborList(k);
+            updates.put(node, nl);
+        }
+        return nl;
     }
 }
 
-class FilterFunction<T>
+/**
+ * Mark the sampled new neighbors as old (they have been joined).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class MarkOldFunction<T>
         implements PairFunction<
-            Tuple2<Node<T>, Iterable<NeighborList>>,
+            Tuple2<Node<T>, NeighborList>,
             Node<T>,
             NeighborList> {
 
     private final int k;
+    private final int sample_size;
+    private final int iteration;
 
-    FilterFunction(final int k) {
+    MarkOldFunction(final int k, final int sample_size, final int iteration) {
         this.k = k;
+        this.sample_size = sample_size;
+        this.iteration = iteration;
     }
 
     @Override
     public Tuple2<Node<T>, NeighborList> call(
-            final Tuple2<Node<T>, Iterable<NeighborList>> tuple)
-            throws Exception {
+            final Tuple2<Node<T>, NeighborList> tuple) {
+
+        HashSet<Long> sample = FlaggedNeighbor.sampleNew(
+                tuple._1, tuple._2, sample_size, iteration);
 
         NeighborList nl = new NeighborList(k);
-        for (NeighborList other : tuple._2()) {
-            nl.addAll(other);
+        for (Neighbor neighbor : tuple._2) {
+            FlaggedNeighbor<T> flagged = (FlaggedNeighbor<T>) neighbor;
+            boolean is_new = flagged.isNew()
+                    && !sample.contains(flagged.getNode().id);
+            nl.add(new FlaggedNeighbor<>(
+                    flagged.getNode(),
+                    flagged.getSimilarity(),
+                    is_new,
+                    flagged.getIteration()));
         }
-
         return new Tuple2<>(tuple._1, nl);
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Count the neighbors inserted during this iteration.
+ * @author Thibault Debatty
+ */
+class CountUpdatesFunction implements Function<NeighborList, NeighborList> {
+
+    private final LongAccumulator updates;
+    private final int iteration;
+
+    CountUpdatesFunction(final LongAccumulator updates, final int iteration) {
+        this.updates = updates;
+        this.iteration = iteration;
+    }
+
+    @Override
+    public NeighborList call(final NeighborList nl) {
+        long count = 0;
+        for (Neighbor neighbor : nl) {
+            if (((FlaggedNeighbor) neighbor).getIteration() == iteration) {
+                count++;
+            }
+        }
+        updates.add(count);
+        return nl;
+    }
+}
+
+/**
+ * Convert flagged neighbors to regular neighbors.
+ * @author Thibault Debatty
+ */
+class RemoveFlagsFunction implements Function<NeighborList, NeighborList> {
+
+    private final int k;
+
+    RemoveFlagsFunction(final int k) {
+        this.k = k;
+    }
+
+    @Override
+    public NeighborList call(final NeighborList nl) {
+        NeighborList result = new NeighborList(k);
+        for (Neighbor neighbor : nl) {
+            result.add(new Neighbor(
+                    neighbor.getNode(), neighbor.getSimilarity()));
+        }
+        return result;
+    }
+}
+
+/**
+ * Remove the values of the nodes and neighbors of the graph (in IDS mode).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class StripValuesFunction<T>
+        implements PairFunction<
+            Tuple2<Node<T>, NeighborList>,
+            Node<T>,
+            NeighborList> {
+
+    private final int k;
+
+    StripValuesFunction(final int k) {
+        this.k = k;
+    }
+
+    /**
+     * Copy of the node, without value.
+     * @param <T>
+     * @param node
+     * @return
+     */
+    static <T> Node<T> strip(final Node<T> node) {
+        Node<T> stripped = new Node<>(null);
+        stripped.id = node.id;
+        stripped.partition = node.partition;
+        return stripped;
+    }
+
+    @Override
+    public Tuple2<Node<T>, NeighborList> call(
+            final Tuple2<Node<T>, NeighborList> tuple) {
+
+        NeighborList nl = new NeighborList(k);
+        for (Neighbor neighbor : tuple._2) {
+            FlaggedNeighbor<T> flagged = (FlaggedNeighbor<T>) neighbor;
+            nl.add(new FlaggedNeighbor<>(
+                    strip(flagged.getNode()),
+                    flagged.getSimilarity(),
+                    flagged.isNew(),
+                    flagged.getIteration()));
+        }
+        return new Tuple2<>(strip(tuple._1), nl);
+    }
+}
+
+/**
+ * Same as CandidatesFunction, but using ids only.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class IdCandidatesFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Node<T>, NeighborList>,
+            Tuple2<Long, Integer>,
+            Tuple2<Long, Boolean>> {
+
+    private final HashMap<Long, Integer> salts;
+    private final int sample_size;
+    private final int iteration;
+
+    IdCandidatesFunction(
+            final HashMap<Long, Integer> salts,
+            final int sample_size,
+            final int iteration) {
+        this.salts = salts;
+        this.sample_size = sample_size;
+        this.iteration = iteration;
+    }
+
+    @Override
+    public Iterator<Tuple2<Tuple2<Long, Integer>, Tuple2<Long, Boolean>>>
+            call(final Tuple2<Node<T>, NeighborList> tuple) {
+
+        HashSet<Long> sample = FlaggedNeighbor.sampleNew(
+                tuple._1, tuple._2, sample_size, iteration);
+
+        long id = tuple._1.id;
+        ArrayList<Tuple2<Tuple2<Long, Integer>, Tuple2<Long, Boolean>>> r =
+                new ArrayList<>(2 * tuple._2.size());
+        for (Neighbor neighbor : tuple._2) {
+            FlaggedNeighbor<T> flagged = (FlaggedNeighbor<T>) neighbor;
+            long other = flagged.getNode().id;
+            if (flagged.isNew() && !sample.contains(other)) {
+                continue;
+            }
+            CandidatesFunction.add(
+                    r, salts, id, other, other, flagged.isNew(), iteration);
+            CandidatesFunction.add(
+                    r, salts, other, id, id, flagged.isNew(), iteration);
+        }
+        return r.iterator();
+    }
+}
+
+/**
+ * Select the candidates of a group (see LocalJoinFunction.select), and
+ * produce (candidate id, ((node id, salt), is new)), to fetch the values of
+ * the candidates. The size of the groups is added to the skew accumulator.
+ * @author Thibault Debatty
+ */
+class SelectCandidatesFunction
+        implements PairFlatMapFunction<
+            Tuple2<Tuple2<Long, Integer>, Iterable<Tuple2<Long, Boolean>>>,
+            Long,
+            Tuple2<Tuple2<Long, Integer>, Boolean>> {
+
+    private final int max_candidates;
+    private final SkewAccumulator skew;
+    private final int iteration;
+    private final long seed;
+
+    SelectCandidatesFunction(
+            final int max_candidates,
+            final SkewAccumulator skew,
+            final int iteration,
+            final long seed) {
+        this.max_candidates = max_candidates;
+        this.skew = skew;
+        this.iteration = iteration;
+        this.seed = seed;
+    }
+
+    @Override
+    public Iterator<Tuple2<Long, Tuple2<Tuple2<Long, Integer>, Boolean>>>
+            call(final Tuple2<Tuple2<Long, Integer>,
+                    Iterable<Tuple2<Long, Boolean>>> tuple) {
+
+        ArrayList<Long> new_candidates = new ArrayList<>();
+        ArrayList<Long> old_candidates = new ArrayList<>();
+        SkewStatistics stats = new SkewStatistics();
+        stats.addGroup(LocalJoinFunction.select(tuple._2, max_candidates,
+                LocalJoinFunction.random(seed, tuple._1, iteration), null,
+                new_candidates, old_candidates));
+        skew.add(stats);
+
+        // A node with a single candidate has nothing to join
+        ArrayList<Tuple2<Long, Tuple2<Tuple2<Long, Integer>, Boolean>>> r =
+                new ArrayList<>();
+        if (new_candidates.isEmpty()
+                || new_candidates.size() + old_candidates.size() < 2) {
+            return r.iterator();
+        }
+
+        for (Long candidate : new_candidates) {
+            r.add(new Tuple2<>(candidate, new Tuple2<>(tuple._1, true)));
+        }
+        for (Long candidate : old_candidates) {
+            r.add(new Tuple2<>(candidate, new Tuple2<>(tuple._1, false)));
+        }
+        return r.iterator();
+    }
+}
+
+/**
+ * (candidate id, (((node id, salt), is new), candidate)) to
+ * ((node id, salt), (candidate, is new)).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class FetchValueFunction<T>
+        implements PairFunction<
+            Tuple2<Long, Tuple2<Tuple2<Tuple2<Long, Integer>, Boolean>,
+                Node<T>>>,
+            Tuple2<Long, Integer>,
+            Tuple2<Node<T>, Boolean>> {
+
+    @Override
+    public Tuple2<Tuple2<Long, Integer>, Tuple2<Node<T>, Boolean>> call(
+            final Tuple2<Long, Tuple2<Tuple2<Tuple2<Long, Integer>, Boolean>,
+                    Node<T>>> tuple) {
+
+        return new Tuple2<>(
+                tuple._2._1._1, new Tuple2<>(tuple._2._2, tuple._2._1._2));
+    }
+}
+
+/**
+ * Produce (neighbor id, 1) for each edge of the graph.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ReverseDegreeFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Node<T>, NeighborList>,
+            Long,
+            Long> {
+
+    @Override
+    public Iterator<Tuple2<Long, Long>> call(
+            final Tuple2<Node<T>, NeighborList> tuple) {
+
+        ArrayList<Tuple2<Long, Long>> r = new ArrayList<>(tuple._2.size());
+        for (Neighbor neighbor : tuple._2) {
+            Node<T> other = (Node<T>) neighbor.getNode();
+            r.add(new Tuple2<>(other.id, 1L));
+        }
+        return r.iterator();
+    }
+}
+
+/**
+ * Sum of longs.
+ * @author Thibault Debatty
+ */
+class SumFunction implements Function2<Long, Long, Long> {
+
+    @Override
+    public Long call(final Long v1, final Long v2) {
+        return v1 + v2;
+    }
+}
+
+/**
+ * Keep the (id, count) pairs with a count larger than threshold.
+ * @author Thibault Debatty
+ */
+class LargerThanFunction implements Function<Tuple2<Long, Long>, Boolean> {
+
+    private final long threshold;
+
+    LargerThanFunction(final long threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Boolean call(final Tuple2<Long, Long> tuple) {
+        return tuple._2 > threshold;
+    }
+}
+
+/**
+ * Node to (id, node).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class IdNodeFunction<T> implements PairFunction<Node<T>, Long, Node<T>> {
+
+    @Override
+    public Tuple2<Long, Node<T>> call(final Node<T> node) {
+        return new Tuple2<>(node.id, node);
+    }
+}
+
+/**
+ * Produce (neighbor id, (node id, similarity)) for each edge of the graph.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class ExplodeEdgesFunction<T>
+        implements PairFlatMapFunction<
+            Tuple2<Node<T>, NeighborList>,
+            Long,
+            Tuple2<Long, Double>> {
+
+    @Override
+    public Iterator<Tuple2<Long, Tuple2<Long, Double>>> call(
+            final Tuple2<Node<T>, NeighborList> tuple) {
+
+        ArrayList<Tuple2<Long, Tuple2<Long, Double>>> r =
+                new ArrayList<>(tuple._2.size());
+        for (Neighbor neighbor : tuple._2) {
+            Node<T> other = (Node<T>) neighbor.getNode();
+            r.add(new Tuple2<>(other.id, new Tuple2<>(
+                    tuple._1.id, neighbor.getSimilarity())));
+        }
+        return r.iterator();
+    }
+}
+
+/**
+ * (neighbor id, ((node id, similarity), neighbor)) to (node id, neighbor).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class RestoreNeighborFunction<T>
+        implements PairFunction<
+            Tuple2<Long, Tuple2<Tuple2<Long, Double>, Node<T>>>,
+            Long,
+            Neighbor> {
+
+    @Override
+    public Tuple2<Long, Neighbor> call(
+            final Tuple2<Long, Tuple2<Tuple2<Long, Double>, Node<T>>> tuple) {
+
+        return new Tuple2<Long, Neighbor>(
+                tuple._2._1._1,
+                new Neighbor(tuple._2._2, tuple._2._1._2));
+    }
+}
+
+/**
+ * (id, (node, neighborlist)) to (node, neighborlist).
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class RestoreNodeFunction<T>
+        implements PairFunction<
+            Tuple2<Long, Tuple2<Node<T>, Optional<NeighborList>>>,
+            Node<T>,
+            NeighborList> {
+
+    private final int k;
+
+    RestoreNodeFunction(final int k) {
+        this.k = k;
+    }
+
+    @Override
+    public Tuple2<Node<T>, NeighborList> call(
+            final Tuple2<Long, Tuple2<Node<T>, Optional<NeighborList>>> tuple) {
+
+        return new Tuple2<>(
+                tuple._2._1, tuple._2._2.or(new NeighborList(k)));
+    }
+}
+
+/**
+ * Order nodes by id.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class NodeIdComparator<T> implements Comparator<Node<T>> {
+
+    @Override
+    public int compare(final Node<T> node1, final Node<T> node2) {
+        return Long.compare(node1.id, node2.id);
+    }
+}
@@ -32,6 +32,7 @@ import info.debatty.java.graphs.SimilarityInterface;
 import info.debatty.java.graphs.StatisticsContainer;
 import info.debatty.spark.knngraphs.ApproximateSearch;
 import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.IdNeighborList;
 import info.debatty.spark.knngraphs.Node;
 import info.debatty.spark.knngraphs.partitioner.KMedoids;
 import info.debatty.spark.knngraphs.partitioner.KMedoidsPartitioning;
@@ -109,6 +110,37 @@ public class Online<T> {
                 OnlineConfig.getDefault());
     }
 
+    /**
+     * Initialise an online graph from the topology of the initial graph and
+     * the nodes. The nodes are clustered and assigned to partitions using
+     * only their value, then the partitions are built from the topology (see
+     * DistributedGraph.toGraph), without embedding the values of the
+     * neighbors in each neighborlist.
+     *
+     * @param k
+     * @param similarity
+     * @param sc
+     * @param topology
+     * @param nodes
+     * @param partitioning_medoids
+     * @param conf
+     */
+    public Online(
+            final int k,
+            final SimilarityInterface<T> similarity,
+            final JavaSparkContext sc,
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes,
+            final int partitioning_medoids,
+            final OnlineConfig conf) {
+
+        this(
+                k, similarity, sc, conf,
+                new KMedoids<>(similarity, partitioning_medoids)
+                        .computeMedoids(nodes),
+                topology, nodes);
+    }
+
     /**
      *
      * @param k
@@ -126,6 +158,49 @@ public class Online<T> {
             final int partitioning_medoids,
             final OnlineConfig conf) {
 
+        // Use kmedoids to partition the graph
+        this(
+                k, similarity, sc, conf,
+                new KMedoids<>(similarity, partitioning_medoids)
+                        .partition(initial_graph));
+    }
+
+    private Online(
+            final int k,
+            final SimilarityInterface<T> similarity,
+            final JavaSparkContext sc,
+            final OnlineConfig conf,
+            final KMedoidsPartitioning<T> partitioning) {
+
+        this(
+                k, similarity, sc, conf, partitioning.medoids,
+                DistributedGraph.toGraph(
+                        partitioning.wrapped_graph, similarity, k));
+    }
+
+    private Online(
+            final int k,
+            final SimilarityInterface<T> similarity,
+            final JavaSparkContext sc,
+            final OnlineConfig conf,
+            final ArrayList<Node<T>> medoids,
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes) {
+
+        this(
+                k, similarity, sc, conf, medoids,
+                partitionTopology(
+                        topology, nodes, medoids, similarity, k));
+    }
+
+    private Online(
+            final int k,
+            final SimilarityInterface<T> similarity,
+            final JavaSparkContext sc,
+            final OnlineConfig conf,
+            final ArrayList<Node<T>> medoids,
+            final JavaRDD<Graph<Node<T>>> distributed_graph) {
+
         this.similarity = similarity;
         this.k = k;
         this.spark_context = sc;
@@ -136,16 +211,8 @@ public class Online<T> {
 
         this.previous_rdds = new LinkedList<>();
 
-        // Use kmedoids to partition the graph
-        KMedoids<T> partitioner
-                = new KMedoids<>(similarity, partitioning_medoids);
-
-        KMedoidsPartitioning<T> partitioning =
-                partitioner.partition(initial_graph);
-
-        this.medoids = partitioning.medoids;
-        this.distributed_graph = DistributedGraph.toGraph(
-                partitioning.wrapped_graph, similarity);
+        this.medoids = medoids;
+        this.distributed_graph = distributed_graph;
         this.distributed_graph.cache();
         this.distributed_graph.count();
 
@@ -153,6 +220,31 @@ public class Online<T> {
         this.nodes_before_update_medoids = computeNodesBeforeUpdate();
     }
 
+    /**
+     * Assign the nodes to the medoids, and build the partitions from the
+     * topology. The partitions are cached and materialized, so the nodes
+     * can be released.
+     */
+    private static <T> JavaRDD<Graph<Node<T>>> partitionTopology(
+            final JavaPairRDD<Long, IdNeighborList> topology,
+            final JavaRDD<Node<T>> nodes,
+            final ArrayList<Node<T>> medoids,
+            final SimilarityInterface<T> similarity,
+            final int k) {
+
+        JavaRDD<Node<T>> partitioned_nodes =
+                new KMedoids<>(similarity, medoids.size())
+                        .assign(nodes, medoids);
+        partitioned_nodes.cache();
+
+        JavaRDD<Graph<Node<T>>> graph = DistributedGraph.toGraph(
+                topology, partitioned_nodes, similarity, medoids.size(), k);
+        graph.cache();
+        graph.count();
+        partitioned_nodes.unpersist();
+        return graph;
+    }
+
     /**
      * Unpersist all cached RDD's.
      */
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+/**
+ * Block of double[] vectors packed in a single row-major double[] array.
+ *
+ * @author Thibault Debatty
+ */
+final class PackedDoubleVectors extends PackedVectors {
+
+    private final double[] data;
+
+    /**
+     * Pack the values of the nodes.
+     * @param nodes
+     */
+    PackedDoubleVectors(final List<Node<double[]>> nodes) {
+        super(nodes.size(), nodes.isEmpty() ? 0 : nodes.get(0).value.length);
+
+        int dim = dimension();
+        this.data = new double[size() * dim];
+        for (int i = 0; i < size(); i++) {
+            double[] value = nodes.get(i).value;
+            if (value.length != dim) {
+                throw new InvalidParameterException(
+                        "All vectors must have the same dimension!");
+            }
+            System.arraycopy(value, 0, data, i * dim, dim);
+        }
+
+        computeNorms();
+    }
+
+    @Override
+    void dot2x2(
+            final int i, final PackedVectors other, final int j,
+            final double[] out, final int out0, final int out1) {
+
+        double[] b = ((PackedDoubleVectors) other).data;
+        int dim = dimension();
+        int a0 = i * dim;
+        int a1 = a0 + dim;
+        int b0 = j * dim;
+        int b1 = b0 + dim;
+
+        double s00 = 0;
+        double s01 = 0;
+        double s10 = 0;
+        double s11 = 0;
+        for (int d = 0; d < dim; d++) {
+            double x0 = data[a0 + d];
+            double x1 = data[a1 + d];
+            double y0 = b[b0 + d];
+            double y1 = b[b1 + d];
+            s00 += x0 * y0;
+            s01 += x0 * y1;
+            s10 += x1 * y0;
+            s11 += x1 * y1;
+        }
+
+        out[out0] = s00;
+        out[out0 + 1] = s01;
+        out[out1] = s10;
+        out[out1 + 1] = s11;
+    }
+
+    /**
+     * Dot product unrolled 4 times.
+     */
+    @Override
+    double dot(final int i, final PackedVectors other, final int j) {
+        double[] b = ((PackedDoubleVectors) other).data;
+        int dim = dimension();
+        int a_offset = i * dim;
+        int b_offset = j * dim;
+
+        double s0 = 0;
+        double s1 = 0;
+        double s2 = 0;
+        double s3 = 0;
+        int d = 0;
+        for (; d + 3 < dim; d += 4) {
+            s0 += data[a_offset + d] * b[b_offset + d];
+            s1 += data[a_offset + d + 1] * b[b_offset + d + 1];
+            s2 += data[a_offset + d + 2] * b[b_offset + d + 2];
+            s3 += data[a_offset + d + 3] * b[b_offset + d + 3];
+        }
+
+        for (; d < dim; d++) {
+            s0 += data[a_offset + d] * b[b_offset + d];
+        }
+
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import java.util.List;
+
+/**
+ * A block of dense vectors, packed in a contiguous row-major array, with the
+ * squared norm of each vector.
+ *
+ * The dot products are computed two rows against two rows at a time, so each
+ * value loaded from memory is used twice, and the four accumulators are
+ * independent. Subclasses only implement the kernels for their primitive
+ * type.
+ *
+ * @author Thibault Debatty
+ */
+abstract class PackedVectors {
+
+    private final int size;
+    private final int dim;
+    private final double[] norms;
+
+    PackedVectors(final int size, final int dim) {
+        this.size = size;
+        this.dim = dim;
+        this.norms = new double[size];
+    }
+
+    /**
+     * Pack the values of the nodes, which must be double[] or float[]
+     * vectors of the same dimension.
+     * @param <T>
+     * @param nodes
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PackedVectors pack(final List<Node<T>> nodes) {
+        if (nodes.isEmpty() || nodes.get(0).value instanceof double[]) {
+            return new PackedDoubleVectors((List) nodes);
+        }
+
+        if (nodes.get(0).value instanceof float[]) {
+            return new PackedFloatVectors((List) nodes);
+        }
+
+        throw new InvalidParameterException(
+                "Vectors must be double[] or float[]!");
+    }
+
+    /**
+     * Number of vectors in the block.
+     * @return
+     */
+    final int size() {
+        return size;
+    }
+
+    /**
+     * Dimension of the vectors.
+     * @return
+     */
+    final int dimension() {
+        return dim;
+    }
+
+    /**
+     * Squared norm of vector i.
+     * @param i
+     * @return
+     */
+    final double squaredNorm(final int i) {
+        return norms[i];
+    }
+
+    /**
+     * Compute the squared norms, once the vectors are packed.
+     */
+    final void computeNorms() {
+        for (int i = 0; i < size; i++) {
+            norms[i] = dot(i, this, i);
+        }
+    }
+
+    /**
+     * Compute the dot products between vectors [from, to) of this block
+     * and vectors [other_from, other_to) of the other block. The results
+     * are written in out, row-major: the dot product between i and j is
+     * written at (i - from) * (other_to - other_from) + (j - other_from).
+     *
+     * @param from
+     * @param to
+     * @param other must be of the same class
+     * @param other_from
+     * @param other_to
+     * @param out
+     */
+    final void dot(
+            final int from, final int to,
+            final PackedVectors other, final int other_from, final int other_to,
+            final double[] out) {
+
+        int cols = other_to - other_from;
+
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            int row0 = (i - from) * cols - other_from;
+            int row1 = row0 + cols;
+
+            int j = other_from;
+            for (; j + 1 < other_to; j += 2) {
+                dot2x2(i, other, j, out, row0 + j, row1 + j);
+            }
+
+            if (j < other_to) {
+                out[row0 + j] = dot(i, other, j);
+                out[row1 + j] = dot(i + 1, other, j);
+            }
+        }
+
+        if (i < to) {
+            int row = (i - from) * cols - other_from;
+            for (int j = other_from; j < other_to; j++) {
+                out[row + j] = dot(i, other, j);
+            }
+        }
+    }
+
+    /**
+     * Dot products between vectors i, i + 1 of this block and vectors j,
+     * j + 1 of the other block. i.j and i.(j + 1) are written at out0 and
+     * out0 + 1, (i + 1).j and (i + 1).(j + 1) at out1 and out1 + 1.
+     *
+     * @param i
+     * @param other
+     * @param j
+     * @param out
+     * @param out0
+     * @param out1
+     */
+    abstract void dot2x2(
+            int i, PackedVectors other, int j,
+            double[] out, int out0, int out1);
+
+    /**
+     * Dot product between vector i of this block and vector j of the other
+     * block.
+     * @param i
+     * @param other
+     * @param j
+     * @return
+     */
+    abstract double dot(int i, PackedVectors other, int j);
+}
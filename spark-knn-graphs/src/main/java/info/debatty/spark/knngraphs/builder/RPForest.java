@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.spark.knngraphs.Node;
+import java.io.Serializable;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.storage.StorageLevel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+
+/**
+ * A k-nn graph builder for dense vectors that bins nodes using a forest of
+ * random projection trees. Each internal node of a tree splits the vectors
+ * at the median of their projection on a random (gaussian) direction, until
+ * the leaves contain about leaf_size nodes. Each node is assigned to one
+ * leaf per tree, and the graph of each leaf is computed by the inner graph
+ * builder (brute-force by default). More trees give a better recall, for a
+ * higher cost.
+ *
+ * The trees are built on the driver, from a random sample of the nodes, and
+ * broadcasted. The sample contains at least SAMPLES_PER_LEAF vectors per
+ * (expected) leaf, so leaves are computed from the data and not only from
+ * the sample size: for large inputs, the sample (and the driver memory)
+ * grows with n / leaf_size. The leaves are bounded to 2 * leaf_size nodes:
+ * larger leaves are split in sub-buckets (see setMaxBucketSize).
+ *
+ * The number of stages is the number of trees, and the number of buckets is
+ * not used. Default similarity is L2 (1 / (1 + euclidean distance)).
+ *
+ * @author Thibault Debatty
+ */
+public class RPForest extends AbstractPartitioningBuilder<double[]> {
+
+    /**
+     * Default target number of nodes per leaf.
+     */
+    public static final int DEFAULT_LEAF_SIZE = 100;
+
+    /**
+     * Default number of nodes used to build the trees.
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+    /**
+     * Minimum number of sampled vectors per leaf.
+     */
+    public static final int SAMPLES_PER_LEAF = 8;
+
+    private final Logger logger = LoggerFactory.getLogger(RPForest.class);
+    private int leaf_size = DEFAULT_LEAF_SIZE;
+    private int sample_size = DEFAULT_SAMPLE_SIZE;
+
+    /**
+     *
+     */
+    public RPForest() {
+        super();
+        this.similarity = new DoubleArraySimilarity(VectorMetric.L2);
+        setMaxBucketSize(2 * leaf_size);
+    }
+
+    /**
+     * Set the number of trees (same as setStages).
+     * Default value is 3
+     * @param trees
+     */
+    public final void setTrees(final int trees) {
+        if (trees <= 0) {
+            throw new InvalidParameterException("trees must be positive!");
+        }
+        this.stages = trees;
+    }
+
+    /**
+     * Set the target number of nodes per leaf. This also bounds the leaves
+     * to 2 * leaf_size nodes.
+     * Default value is 100
+     * @param leaf_size
+     */
+    public final void setLeafSize(final int leaf_size) {
+        if (leaf_size <= 1) {
+            throw new InvalidParameterException(
+                    "leaf_size must be larger than 1!");
+        }
+        this.leaf_size = leaf_size;
+        setMaxBucketSize(2 * leaf_size);
+    }
+
+    /**
+     * Set the minimum number of nodes sampled to build the trees. The
+     * sample is larger if needed to have SAMPLES_PER_LEAF nodes per leaf.
+     * Default value is 10000
+     * @param sample_size
+     */
+    public final void setSampleSize(final int sample_size) {
+        if (sample_size <= 0) {
+            throw new InvalidParameterException(
+                    "sample_size must be positive!");
+        }
+        this.sample_size = sample_size;
+    }
+
+    @Override
+    protected final JavaPairRDD<Integer, Node<double[]>> bin(
+            final JavaRDD<Node<double[]>> nodes) {
+
+        // nodes are counted, sampled, then binned
+        boolean cached_here = false;
+        if (nodes.getStorageLevel() == StorageLevel.NONE()) {
+            nodes.cache();
+            cached_here = true;
+        }
+        long n = nodes.count();
+        long size = Math.max(
+                sample_size, SAMPLES_PER_LEAF * ((n - 1) / leaf_size + 1));
+        List<Node<double[]>> sample = nodes.takeSample(
+                false, (int) Math.min(size, n), seed);
+        logger.info("Build trees from {} sampled nodes", sample.size());
+
+        ArrayList<double[]> values = new ArrayList<>(sample.size());
+        for (Node<double[]> node : sample) {
+            values.add(node.value);
+        }
+
+        // Each sampled vector represents n / sample_size nodes
+        double weight = (double) n / Math.max(1, values.size());
+        Random rand = new Random(seed);
+        RPTree[] forest = new RPTree[stages];
+        int leaves = 0;
+        for (int i = 0; i < stages; i++) {
+            forest[i] = new RPTree(values, leaf_size / weight, leaves, rand);
+            leaves += forest[i].getLeaves();
+        }
+        logger.info("{} trees, {} leaves", stages, leaves);
+
+        Broadcast<RPTree[]> broadcast =
+                JavaSparkContext.fromSparkContext(nodes.context())
+                        .broadcast(forest);
+        // materialize the binning, then release the nodes we cached and the
+        // copies of the forest on the executors (the forest is sent again
+        // only if a partition of the binning must be recomputed)
+        JavaPairRDD<Integer, Node<double[]>> binned =
+                nodes.flatMapToPair(new RPForestBinFunction(broadcast));
+        binned.cache();
+        binned.count();
+        broadcast.unpersist();
+        if (cached_here) {
+            nodes.unpersist();
+        }
+        return binned;
+    }
+}
+
+/**
+ * A random projection tree, stored in primitive arrays. Internal node i has
+ * direction directions[i] and threshold thresholds[i]. The children are
+ * stored in left[i] and right[i], as the index of an internal node, or as
+ * -(leaf + 1) for a leaf.
+ * @author Thibault Debatty
+ */
+class RPTree implements Serializable {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final ArrayList<double[]> directions = new ArrayList<>();
+    private final ArrayList<Double> threshold_list = new ArrayList<>();
+    private final ArrayList<int[]> children = new ArrayList<>();
+
+    private double[][] split_directions;
+    private double[] thresholds;
+    private int[] left;
+    private int[] right;
+
+    private final int first_leaf;
+    private int leaves = 0;
+
+    /**
+     * Build the tree from a sample of vectors.
+     * @param sample
+     * @param leaf_sample target number of sampled vectors per leaf
+     * @param first_leaf id of the first leaf of this tree
+     * @param rand
+     */
+    RPTree(
+            final List<double[]> sample,
+            final double leaf_sample,
+            final int first_leaf,
+            final Random rand) {
+
+        this.first_leaf = first_leaf;
+        int[] indexes = new int[sample.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+
+        int root = build(sample, indexes, leaf_sample, 0, rand);
+        if (root < 0) {
+            // a single leaf: use a dummy split, that sends everything right
+            directions.add(new double[0]);
+            threshold_list.add(Double.NEGATIVE_INFINITY);
+            children.add(new int[]{root, root});
+        }
+
+        int size = directions.size();
+        split_directions = directions.toArray(new double[size][]);
+        thresholds = new double[size];
+        left = new int[size];
+        right = new int[size];
+        for (int i = 0; i < size; i++) {
+            thresholds[i] = threshold_list.get(i);
+            left[i] = children.get(i)[0];
+            right[i] = children.get(i)[1];
+        }
+        directions.clear();
+        threshold_list.clear();
+        children.clear();
+    }
+
+    int getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * Recursively split the sample.
+     * @return index of the internal node, or -(leaf + 1)
+     */
+    private int build(
+            final List<double[]> sample,
+            final int[] indexes,
+            final double leaf_sample,
+            final int depth,
+            final Random rand) {
+
+        // stop between 0.75 and 1.5 times the target size
+        if (indexes.length <= 1.5 * leaf_sample || indexes.length < 2
+                || depth >= MAX_DEPTH) {
+            leaves++;
+            return -(leaves - 1) - 1;
+        }
+
+        int dim = sample.get(indexes[0]).length;
+        double[] direction = new double[dim];
+        for (int i = 0; i < dim; i++) {
+            direction[i] = rand.nextGaussian();
+        }
+
+        double[] projections = new double[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            projections[i] = dot(direction, sample.get(indexes[i]));
+        }
+        double[] sorted = projections.clone();
+        Arrays.sort(sorted);
+        double threshold = sorted[sorted.length / 2];
+
+        int left_count = 0;
+        for (double projection : projections) {
+            if (projection < threshold) {
+                left_count++;
+            }
+        }
+
+        // all projections are equal: cannot split
+        if (left_count == 0) {
+            leaves++;
+            return -(leaves - 1) - 1;
+        }
+
+        int[] left_indexes = new int[left_count];
+        int[] right_indexes = new int[indexes.length - left_count];
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (projections[i] < threshold) {
+                left_indexes[l++] = indexes[i];
+            } else {
+                right_indexes[r++] = indexes[i];
+            }
+        }
+
+        int node = directions.size();
+        directions.add(direction);
+        threshold_list.add(threshold);
+        int[] node_children = new int[2];
+        children.add(node_children);
+
+        node_children[0] = build(
+                sample, left_indexes, leaf_sample, depth + 1, rand);
+        node_children[1] = build(
+                sample, right_indexes, leaf_sample, depth + 1, rand);
+        return node;
+    }
+
+    /**
+     * Find the leaf of the vector.
+     * @param vector
+     * @return the id of the leaf (first_leaf + index of the leaf)
+     */
+    int leaf(final double[] vector) {
+        int node = 0;
+        while (node >= 0) {
+            if (dot(split_directions[node], vector) < thresholds[node]) {
+                node = left[node];
+            } else {
+                node = right[node];
+            }
+        }
+        return first_leaf - node - 1;
+    }
+
+    private static double dot(final double[] direction, final double[] v) {
+        double product = 0;
+        for (int i = 0; i < direction.length; i++) {
+            product += direction[i] * v[i];
+        }
+        return product;
+    }
+}
+
+/**
+ * Assign each node to one leaf per tree.
+ * @author Thibault Debatty
+ */
+class RPForestBinFunction
+        implements PairFlatMapFunction<
+            Node<double[]>,
+            Integer,
+            Node<double[]>> {
+
+    private final Broadcast<RPTree[]> forest;
+
+    RPForestBinFunction(final Broadcast<RPTree[]> forest) {
+        this.forest = forest;
+    }
+
+    @Override
+    public Iterator<Tuple2<Integer, Node<double[]>>> call(
+            final Node<double[]> node) {
+
+        RPTree[] trees = forest.value();
+        ArrayList<Tuple2<Integer, Node<double[]>>> r =
+                new ArrayList<>(trees.length);
+        for (RPTree tree : trees) {
+            r.add(new Tuple2<>(tree.leaf(node.value), node));
+        }
+        return r.iterator();
+    }
+}
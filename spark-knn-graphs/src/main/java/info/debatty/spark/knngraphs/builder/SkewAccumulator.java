@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import org.apache.spark.util.AccumulatorV2;
+
+/**
+ * Accumulate skew statistics from tasks.
+ *
+ * @author Thibault Debatty
+ */
+public class SkewAccumulator
+        extends AccumulatorV2<SkewStatistics, SkewStatistics> {
+
+    private SkewStatistics internal = new SkewStatistics();
+
+    /**
+     *
+     */
+    public SkewAccumulator() {
+    }
+
+    @Override
+    public final boolean isZero() {
+        return internal.isEmpty();
+    }
+
+    @Override
+    public final AccumulatorV2<SkewStatistics, SkewStatistics> copy() {
+        SkewAccumulator acc = new SkewAccumulator();
+        acc.add(internal);
+        return acc;
+    }
+
+    @Override
+    public final void reset() {
+        this.internal = new SkewStatistics();
+    }
+
+    @Override
+    public final void add(final SkewStatistics stats) {
+        this.internal.add(stats);
+    }
+
+    @Override
+    public final void merge(
+            final AccumulatorV2<SkewStatistics, SkewStatistics> other) {
+        this.add(other.value());
+    }
+
+    @Override
+    public final SkewStatistics value() {
+        return internal;
+    }
+}
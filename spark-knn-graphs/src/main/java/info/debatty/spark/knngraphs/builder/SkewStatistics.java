@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Skew statistics of a stage: size of the largest group, and running time of
+ * each task.
+ *
+ * @author Thibault Debatty
+ */
+public class SkewStatistics implements Serializable {
+
+    private long max_group_size = 0;
+    private final ArrayList<Long> task_times = new ArrayList<>();
+
+    /**
+     * Record the size of a group.
+     * @param size
+     */
+    public final void addGroup(final long size) {
+        max_group_size = Math.max(max_group_size, size);
+    }
+
+    /**
+     * Record the running time of a task.
+     * @param time in ms
+     */
+    public final void addTask(final long time) {
+        task_times.add(time);
+    }
+
+    /**
+     * Add the statistics of another stage or task.
+     * @param other
+     */
+    public final void add(final SkewStatistics other) {
+        max_group_size = Math.max(max_group_size, other.max_group_size);
+        task_times.addAll(other.task_times);
+    }
+
+    /**
+     *
+     * @return true if nothing was recorded
+     */
+    public final boolean isEmpty() {
+        return max_group_size == 0 && task_times.isEmpty();
+    }
+
+    /**
+     *
+     * @return the size of the largest group
+     */
+    public final long getMaxGroupSize() {
+        return max_group_size;
+    }
+
+    /**
+     *
+     * @return the number of tasks
+     */
+    public final int getTasks() {
+        return task_times.size();
+    }
+
+    /**
+     * Get a percentile of the running time of tasks.
+     * @param percentile between 0 and 100
+     * @return time in ms (0 if no task was recorded)
+     */
+    public final long getTaskTimePercentile(final double percentile) {
+        if (task_times.isEmpty()) {
+            return 0;
+        }
+
+        ArrayList<Long> sorted = new ArrayList<>(task_times);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    @Override
+    public final String toString() {
+        return "max group size: " + max_group_size
+                + ", tasks: " + task_times.size()
+                + ", median task time: " + getTaskTimePercentile(50) + "ms"
+                + ", p99 task time: " + getTaskTimePercentile(99) + "ms";
+    }
+}
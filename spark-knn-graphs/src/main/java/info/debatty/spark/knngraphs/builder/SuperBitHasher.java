@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.lsh.SuperBit;
+import java.io.Serializable;
+
+/**
+ * SuperBit hyperplanes and bucket computation, equivalent to
+ * info.debatty.java.lsh.LSHSuperBit, but working on precomputed projections
+ * and without allocating any object per node. Each hyperplane is stored as
+ * a primitive array.
+ *
+ * The code has stages * buckets / 2 bits. The bits are split among stages
+ * like in LSH.hashSignature, and the bucket of a stage is computed from the
+ * positive bits of the stage.
+ *
+ * @author Thibault Debatty
+ */
+final class SuperBitHasher implements Serializable {
+
+    private static final long LARGE_PRIME = 433494437;
+    private static final long MODULO = 2147483647;
+
+    private final double[][] hyperplanes;
+    private final int stages;
+    private final int buckets;
+    private final int probes;
+    private final int rows;
+
+    /**
+     *
+     * @param dim dimension of the vectors
+     * @param stages
+     * @param buckets
+     * @param probes additional buckets per stage
+     */
+    SuperBitHasher(
+            final int dim,
+            final int stages,
+            final int buckets,
+            final int probes) {
+
+        int code_length = stages * buckets / 2;
+        int depth = Math.min(dim, code_length);
+        while (code_length % depth != 0) {
+            depth--;
+        }
+
+        this.hyperplanes =
+                new SuperBit(dim, depth, code_length / depth).getHyperplanes();
+        this.stages = stages;
+        this.buckets = buckets;
+        this.probes = probes;
+        this.rows = code_length / stages;
+    }
+
+    double[][] getHyperplanes() {
+        return hyperplanes;
+    }
+
+    /**
+     *
+     * @return maximum number of buckets of a node
+     */
+    int maxBuckets() {
+        return stages * (probes + 1);
+    }
+
+    /**
+     * Compute the (distinct) buckets of a node: one bucket per stage, and
+     * the probes buckets obtained by flipping (one at a time) the bits with
+     * the lowest margin in each stage.
+     * @param projections projections of the node on the hyperplanes
+     * @param result array of size maxBuckets()
+     * @param lowest array of (at least) probes elements (scratch)
+     * @return the number of buckets written in result
+     */
+    int buckets(
+            final double[] projections,
+            final int[] result,
+            final int[] lowest) {
+
+        int count = 0;
+        for (int stage = 0; stage < stages; stage++) {
+            int start = stage * rows;
+            int end = start + rows;
+            if (stage == stages - 1) {
+                end = projections.length;
+            }
+
+            count = addDistinct(
+                    result, count, bucket(projections, start, end, -1));
+
+            int selected = selectLowest(projections, start, end, lowest);
+            for (int i = 0; i < selected; i++) {
+                count = addDistinct(result, count,
+                        bucket(projections, start, end, lowest[i]));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bucket of the bits [start, end[, with one bit flipped (or -1).
+     */
+    private int bucket(
+            final double[] projections,
+            final int start,
+            final int end,
+            final int flip) {
+
+        long hash = 0;
+        for (int i = start; i < end; i++) {
+            boolean bit = projections[i] >= 0;
+            if (i == flip) {
+                bit = !bit;
+            }
+            if (bit) {
+                hash = (hash + (i + 1) * LARGE_PRIME) % MODULO;
+            }
+        }
+        return (int) (hash % buckets);
+    }
+
+    /**
+     * Select the (at most) probes bits of [start, end[ with the smallest
+     * absolute projection, by increasing margin.
+     */
+    private int selectLowest(
+            final double[] projections,
+            final int start,
+            final int end,
+            final int[] lowest) {
+
+        int selected = Math.min(probes, end - start);
+        for (int i = 0; i < selected; i++) {
+            int best = -1;
+            for (int bit = start; bit < end; bit++) {
+                if (isSelected(lowest, i, bit)) {
+                    continue;
+                }
+                if (best == -1 || Math.abs(projections[bit])
+                        < Math.abs(projections[best])) {
+                    best = bit;
+                }
+            }
+            lowest[i] = best;
+        }
+        return selected;
+    }
+
+    private static boolean isSelected(
+            final int[] values, final int count, final int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int addDistinct(
+            final int[] values, final int count, final int value) {
+        if (isSelected(values, count, value)) {
+            return count;
+        }
+        values[count] = value;
+        return count + 1;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+/**
+ * Bounded min-heap of (id, similarity) pairs, backed by primitive arrays.
+ * Keeps the k pairs with highest similarity, without allocating any object
+ * per candidate.
+ *
+ * Ids are not checked for duplicates: the caller must make sure each id is
+ * added only once.
+ *
+ * @author Thibault Debatty
+ */
+final class TopKHeap {
+
+    private final long[] ids;
+    private final double[] similarities;
+    private int size = 0;
+
+    /**
+     *
+     * @param k capacity of the heap
+     */
+    TopKHeap(final int k) {
+        this.ids = new long[k];
+        this.similarities = new double[k];
+    }
+
+    /**
+     * Add the candidate if it is among the k most similar seen so far.
+     * @param id
+     * @param similarity
+     * @return true if the candidate was added
+     */
+    boolean add(final long id, final double similarity) {
+        if (ids.length == 0) {
+            return false;
+        }
+
+        if (size < ids.length) {
+            ids[size] = id;
+            similarities[size] = similarity;
+            siftUp(size);
+            size++;
+            return true;
+        }
+
+        // Heap is full: replace the root (least similar) if the candidate
+        // is better
+        if (similarity <= similarities[0]) {
+            return false;
+        }
+
+        ids[0] = id;
+        similarities[0] = similarity;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Smallest similarity in the heap, or -Infinity if the heap is not full
+     * (every candidate would be accepted).
+     * @return
+     */
+    double threshold() {
+        if (size < ids.length) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return similarities[0];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Id at position i (in heap order, not sorted).
+     * @param i
+     * @return
+     */
+    long getId(final int i) {
+        return ids[i];
+    }
+
+    /**
+     * Similarity at position i (in heap order, not sorted).
+     * @param i
+     * @return
+     */
+    double getSimilarity(final int i) {
+        return similarities[i];
+    }
+
+    private void siftUp(final int position) {
+        int child = position;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (similarities[parent] <= similarities[child]) {
+                return;
+            }
+            swap(parent, child);
+            child = parent;
+        }
+    }
+
+    private void siftDown(final int position) {
+        int parent = position;
+        while (true) {
+            int left = 2 * parent + 1;
+            if (left >= size) {
+                return;
+            }
+
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && similarities[right] < similarities[left]) {
+                smallest = right;
+            }
+
+            if (similarities[parent] <= similarities[smallest]) {
+                return;
+            }
+            swap(parent, smallest);
+            parent = smallest;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+
+        double similarity = similarities[i];
+        similarities[i] = similarities[j];
+        similarities[j] = similarity;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+/**
+ * Similarity metrics for dense vectors, computed from the dot product and
+ * the squared norms of the vectors.
+ *
+ * @author Thibault Debatty
+ */
+public enum VectorMetric {
+
+    /**
+     * 1 / (1 + euclidean distance).
+     */
+    L2,
+
+    /**
+     * Cosine similarity (0 if one of the vectors is null).
+     */
+    COSINE,
+
+    /**
+     * Dot product.
+     */
+    DOT;
+
+    /**
+     * Compute the similarity.
+     * @param dot dot product of the two vectors
+     * @param norm1 squared norm of the first vector
+     * @param norm2 squared norm of the second vector
+     * @return
+     */
+    final double similarity(
+            final double dot, final double norm1, final double norm2) {
+
+        switch (this) {
+            case L2:
+                // Rounding errors may result in a (very small) negative value
+                double distance = Math.max(0, norm1 + norm2 - 2 * dot);
+                return 1.0 / (1 + Math.sqrt(distance));
+
+            case COSINE:
+                if (norm1 == 0 || norm2 == 0) {
+                    return 0;
+                }
+                return dot / Math.sqrt(norm1 * norm2);
+
+            default:
+                return dot;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.partitioner;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import scala.Tuple2;
+
+/**
+ * Color (partition) of each node, and number of neighbors of each node in
+ * each color.
+ *
+ * When node ids are dense (0..n-1, see DistributedGraph.wrapNodesDense), the
+ * index is stored in primitive arrays indexed by id. Otherwise, or if the
+ * degrees (n * partitions values) would not fit in a single array, it falls
+ * back to hash maps. Density is checked on the collected ids, so the array
+ * representation is only used when it is safe.
+ *
+ * @author Thibault Debatty
+ */
+final class ColorIndex implements Serializable {
+
+    // Some JVMs reserve a few header words in arrays
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int partitions;
+
+    // dense representation
+    private int[] dense_colors;
+    private int[] dense_degrees;
+
+    // sparse representation
+    private HashMap<Long, Integer> colors;
+    private HashMap<Long, int[]> degrees;
+
+    /**
+     *
+     * @param colors list of (node id, color)
+     * @param partitions
+     */
+    ColorIndex(
+            final List<Tuple2<Long, Integer>> colors,
+            final int partitions) {
+
+        this.partitions = partitions;
+
+        int n = colors.size();
+        // The degrees (n * partitions values) must fit in a single array
+        boolean is_dense = (long) n * partitions <= MAX_ARRAY_SIZE;
+        int[] dense = null;
+        if (is_dense) {
+            dense = new int[n];
+            boolean[] seen = new boolean[n];
+            for (Tuple2<Long, Integer> tuple : colors) {
+                long id = tuple._1;
+                if (id < 0 || id >= n || seen[(int) id]) {
+                    is_dense = false;
+                    break;
+                }
+                seen[(int) id] = true;
+                dense[(int) id] = tuple._2;
+            }
+        }
+
+        if (is_dense) {
+            this.dense_colors = dense;
+            return;
+        }
+
+        this.colors = new HashMap<>(2 * n);
+        for (Tuple2<Long, Integer> tuple : colors) {
+            this.colors.put(tuple._1, tuple._2);
+        }
+    }
+
+    boolean isDense() {
+        return dense_colors != null;
+    }
+
+    int size() {
+        return isDense() ? dense_colors.length : colors.size();
+    }
+
+    int getColor(final long id) {
+        if (isDense()) {
+            return dense_colors[(int) id];
+        }
+        return colors.get(id);
+    }
+
+    /**
+     * Store the degrees of each node.
+     * @param node_degrees list of (node id, degree in each color)
+     */
+    void setDegrees(final List<Tuple2<Long, int[]>> node_degrees) {
+        if (isDense()) {
+            // Does not overflow: checked in the constructor
+            dense_degrees = new int[dense_colors.length * partitions];
+            for (Tuple2<Long, int[]> tuple : node_degrees) {
+                System.arraycopy(
+                        tuple._2, 0,
+                        dense_degrees, (int) (tuple._1 * partitions),
+                        partitions);
+            }
+            return;
+        }
+
+        degrees = new HashMap<>(2 * node_degrees.size());
+        for (Tuple2<Long, int[]> tuple : node_degrees) {
+            degrees.put(tuple._1, tuple._2);
+        }
+    }
+
+    /**
+     * Number of neighbors of the node that have the specified color.
+     * @param id
+     * @param color
+     * @return
+     */
+    int getDegree(final long id, final int color) {
+        if (isDense()) {
+            return dense_degrees[(int) (id * partitions) + color];
+        }
+        return degrees.get(id)[color];
+    }
+
+    /**
+     *
+     * @return number of nodes in each color
+     */
+    int[] getSizes() {
+        int[] sizes = new int[partitions];
+        if (isDense()) {
+            for (int color : dense_colors) {
+                sizes[color]++;
+            }
+        } else {
+            for (int color : colors.values()) {
+                sizes[color]++;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     *
+     * @return number of edges between nodes of different colors
+     */
+    int countCrossEdges() {
+        int count = 0;
+        if (isDense()) {
+            for (int id = 0; id < dense_colors.length; id++) {
+                count += countCrossEdges(id, dense_colors[id]);
+            }
+        } else {
+            for (long id : colors.keySet()) {
+                count += countCrossEdges(id, colors.get(id));
+            }
+        }
+        return count;
+    }
+
+    private int countCrossEdges(final long id, final int color) {
+        int count = 0;
+        for (int j = 0; j < partitions; j++) {
+            if (j != color) {
+                count += getDegree(id, j);
+            }
+        }
+        return count;
+    }
+}
@@ -30,7 +30,6 @@ import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
 import info.debatty.spark.knngraphs.partitioner.jabeja.Budget;
 import info.debatty.spark.knngraphs.partitioner.jabeja.UnlimitedBudget;
-import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -161,11 +160,7 @@ public class JaBeJa<T> implements Partitioner<T> {
             final JavaPairRDD<Node<U>, NeighborList> graph,
             final int partitions) {
 
-        Map<Long, Integer> color_index = buildColorIndex(graph);
-        Map<Long, int[]> degrees_index = buildDegreesIndex(
-                graph, color_index, partitions);
-
-        return countCrossEdges(color_index, degrees_index);
+        return buildIndex(graph, partitions).countCrossEdges();
     }
 
     /**
@@ -180,8 +175,10 @@ public class JaBeJa<T> implements Partitioner<T> {
             final JavaPairRDD<Node<U>, NeighborList> graph,
             final int partitions) {
 
-        Map<Long, Integer> color_index = buildColorIndex(graph);
-        return computeBalance(color_index, partitions);
+        ColorIndex index = new ColorIndex(
+                graph.mapToPair(new GetPartitionFunction<U>()).collect(),
+                partitions);
+        return computeBalance(index.getSizes(), partitions);
     }
 
 
@@ -222,6 +219,12 @@ public class JaBeJa<T> implements Partitioner<T> {
             sizes[color]++;
         }
 
+        return computeBalance(sizes, partitions);
+    }
+
+    private static double computeBalance(
+            final int[] sizes, final int partitions) {
+
         LOGGER.info("Sizes: {}", sizes);
         int max = max(sizes);
         int sum = sum(sizes);
@@ -239,14 +242,22 @@ public class JaBeJa<T> implements Partitioner<T> {
         return sum;
     }
 
-    static final <U> Map<Long, int[]> buildDegreesIndex(
+    /**
+     * Build the index of colors and degrees of each node. The index uses
+     * primitive arrays if node ids are dense.
+     */
+    static final <U> ColorIndex buildIndex(
             final JavaPairRDD<Node<U>, NeighborList> graph,
-            final Map<Long, Integer> color_index,
             final int partitions) {
 
-        return graph
-                .mapToPair(new GetDegreesFunction<U>(partitions, color_index))
-                .collectAsMap();
+        ColorIndex index = new ColorIndex(
+                graph.mapToPair(new GetPartitionFunction<U>()).collect(),
+                partitions);
+        LOGGER.debug("Dense color index: {}", index.isDense());
+        index.setDegrees(graph
+                .mapToPair(new GetDegreesFunction<U>(partitions, index))
+                .collect());
+        return index;
     }
 
     /**
@@ -268,20 +279,17 @@ public class JaBeJa<T> implements Partitioner<T> {
             final double tr,
             final int swaps_per_iteration) {
 
-        Map<Long, Integer> color_index = buildColorIndex(graph);
-        Map<Long, int[]> degrees_index = buildDegreesIndex(
-                graph, color_index, partitions);
+        ColorIndex index = buildIndex(graph, partitions);
 
-        LOGGER.info(
-                "Cross edges: {}", countCrossEdges(color_index, degrees_index));
+        LOGGER.info("Cross edges: {}", index.countCrossEdges());
 
-        LOGGER.info("Imbalance: {}", computeBalance(color_index, partitions));
+        LOGGER.info("Imbalance: {}",
+                computeBalance(index.getSizes(), partitions));
 
         List<SwapRequest> requests = graph
                 .mapPartitions(
                         new MakeRequestsFunction<T>(
-                                color_index,
-                                degrees_index,
+                                index,
                                 tr,
                                 swaps_per_iteration))
                 .collect();
@@ -304,25 +312,6 @@ public class JaBeJa<T> implements Partitioner<T> {
                 partitioned_graph,
                 acks.size());
     }
-
-    private static int countCrossEdges(
-            final Map<Long, Integer> color_index,
-            final Map<Long, int[]> degrees_index) {
-
-        int partitions = degrees_index.entrySet().iterator()
-                .next().getValue().length;
-        int count = 0;
-        for (Long node_id : color_index.keySet()) {
-            int color = color_index.get(node_id);
-            for (int j = 0; j < partitions; j++) {
-                if (j != color) {
-                    count += degrees_index.get(node_id)[j];
-                }
-            }
-        }
-
-        return count;
-    }
 }
 
 /**
@@ -460,22 +449,19 @@ class MakeRequestsFunction<T>
             LoggerFactory.getLogger(MakeRequestsFunction.class);
 
     /**
-     * Indicates the color (partition) of each node.
+     * Indicates the color (partition) and degrees of each node.
      */
-    private final Map<Long, Integer> color_index;
-    private final Map<Long, int[]> degrees_index;
+    private final ColorIndex index;
     private Graph<Node<T>> local_graph;
     private final double tr;
     private final int swaps_per_iteration;
 
     MakeRequestsFunction(
-            final Map<Long, Integer> color_index,
-            final Map<Long, int[]> degrees_index,
+            final ColorIndex index,
             final double tr,
             final int swaps_per_iteration) {
 
-        this.color_index = color_index;
-        this.degrees_index = degrees_index;
+        this.index = index;
         this.tr = tr;
         this.swaps_per_iteration = swaps_per_iteration;
     }
@@ -602,7 +588,7 @@ class MakeRequestsFunction<T>
     }
 
     private int getColor(final Node<T> node) {
-        return color_index.get(node.id);
+        return index.getColor(node.id);
     }
 
     /**
@@ -613,7 +599,7 @@ class MakeRequestsFunction<T>
      * @return
      */
     private int getDegree(final Node<T> node, final int color) {
-        return degrees_index.get(node.id)[color];
+        return index.getDegree(node.id, color);
 
     }
 }
@@ -627,12 +613,11 @@ class GetDegreesFunction<T>
     implements PairFunction<Tuple2<Node<T>, NeighborList>, Long, int[]> {
 
     private final int partitions;
-    private final Map<Long, Integer> color_index;
+    private final ColorIndex index;
 
-    GetDegreesFunction(
-            final int partitions, final Map<Long, Integer> color_index) {
+    GetDegreesFunction(final int partitions, final ColorIndex index) {
         this.partitions = partitions;
-        this.color_index = color_index;
+        this.index = index;
     }
 
     @Override
@@ -648,7 +633,7 @@ class GetDegreesFunction<T>
     }
 
     private int getColor(final Node<T> node) {
-        return color_index.get(node.id);
+        return index.getColor(node.id);
     }
 
 }
@@ -674,30 +659,6 @@ class GetPartitionFunction<T>
 
 }
 
-class SwapRequest<T> implements Serializable {
-    public final Node<T> src;
-    public final Node<T> dst;
-    public final int src_color;
-    public final int dst_color;
-
-    SwapRequest(
-            final Node<T> src,
-            final Node<T> dst,
-            final int src_color,
-            final int dst_color) {
-
-        this.src = src;
-        this.src_color = src_color;
-        this.dst = dst;
-        this.dst_color = dst_color;
-    }
-
-    @Override
-    public String toString() {
-        return src.id + " <> " + dst.id;
-    }
-}
-
 class SwapResult<T> {
 
     public final JavaPairRDD<Node<T>, NeighborList> graph;
@@ -30,6 +30,7 @@ import info.debatty.spark.kmedoids.Budget;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import info.debatty.spark.kmedoids.Clusterer;
 import info.debatty.spark.kmedoids.Similarity;
 import info.debatty.spark.kmedoids.Solution;
@@ -37,6 +38,8 @@ import info.debatty.spark.kmedoids.budget.TrialsBudget;
 import info.debatty.spark.kmedoids.neighborgenerator.WindowNeighborGenerator;
 import info.debatty.spark.knngraphs.Node;
 import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.api.java.function.PairFlatMapFunction;
 import scala.Tuple2;
 
@@ -112,20 +115,12 @@ public class KMedoids<T> implements Partitioner<T> {
 
         KMedoidsPartitioning<T> solution = new KMedoidsPartitioning<>();
 
-        Clusterer<Node<T>> clusterer = new Clusterer<>();
-        clusterer.setK(partitions);
-        clusterer.setSimilarity(new ClusteringSimilarityAdapter<>(similarity));
-        clusterer.setNeighborGenerator(new WindowNeighborGenerator<Node<T>>());
-        clusterer.setImbalance(imbalance);
-        clusterer.setBudget(budget);
-        Solution<Node<T>> clustering_solution = clusterer.cluster(graph.keys());
-
         // Assign each node to the most similar medoid
         // Taking imbalance into account
-        solution.medoids = clustering_solution.getMedoids();
+        solution.medoids = computeMedoids(graph.keys());
         solution.wrapped_graph =
                 graph.mapPartitionsToPair(new AssignToMedoidFunction<>(
-                        clustering_solution.getMedoids(),
+                        solution.medoids,
                         similarity,
                         imbalance));
         solution.wrapped_graph = Helper.moveNodes(
@@ -136,6 +131,42 @@ public class KMedoids<T> implements Partitioner<T> {
         return solution;
     }
 
+    /**
+     * Cluster the nodes (only the values are used).
+     * @param nodes
+     * @return the medoids
+     */
+    public final ArrayList<Node<T>> computeMedoids(
+            final JavaRDD<Node<T>> nodes) {
+
+        Clusterer<Node<T>> clusterer = new Clusterer<>();
+        clusterer.setK(partitions);
+        clusterer.setSimilarity(new ClusteringSimilarityAdapter<>(similarity));
+        clusterer.setNeighborGenerator(new WindowNeighborGenerator<Node<T>>());
+        clusterer.setImbalance(imbalance);
+        clusterer.setBudget(budget);
+        Solution<Node<T>> clustering_solution = clusterer.cluster(nodes);
+        return clustering_solution.getMedoids();
+    }
+
+    /**
+     * Set the partition of each node to the most similar medoid, like
+     * partition(graph) does, without the neighborlists. This allows to
+     * partition a graph stored as topology and nodes.
+     * @param nodes
+     * @param medoids
+     * @return the nodes, with their partition (not moved, not cached)
+     * @see info.debatty.spark.knngraphs.DistributedGraph#toGraph(
+     * JavaPairRDD, JavaRDD, SimilarityInterface, int, int)
+     */
+    public final JavaRDD<Node<T>> assign(
+            final JavaRDD<Node<T>> nodes,
+            final ArrayList<Node<T>> medoids) {
+
+        return nodes.mapPartitions(new AssignNodeToMedoidFunction<>(
+                medoids, similarity, imbalance));
+    }
+
 }
 
 /**
@@ -167,35 +198,53 @@ class AssignToMedoidFunction<T>
     public Iterator<Tuple2<Node<T>, NeighborList>> call(
             final Iterator<Tuple2<Node<T>, NeighborList>> iterator) {
 
-        int k = medoids.size();
-
         // Collect all tuples
         LinkedList<Tuple2<Node<T>, NeighborList>> tuples = new LinkedList<>();
+        ArrayList<Node<T>> nodes = new ArrayList<>();
         while (iterator.hasNext()) {
-            tuples.add(iterator.next());
+            Tuple2<Node<T>, NeighborList> tuple = iterator.next();
+            tuples.add(tuple);
+            nodes.add(tuple._1);
         }
 
-        int n_local = tuples.size();
+        assign(nodes, medoids, similarity, imbalance);
+        return tuples.iterator();
+    }
+
+    /**
+     * Set the partition of the nodes of a partition.
+     * @param <T>
+     * @param nodes
+     * @param medoids
+     * @param similarity
+     * @param imbalance
+     */
+    static <T> void assign(
+            final List<Node<T>> nodes,
+            final ArrayList<Node<T>> medoids,
+            final SimilarityInterface<T> similarity,
+            final double imbalance) {
+
+        int k = medoids.size();
+        int n_local = nodes.size();
         double capacity = imbalance * n_local / k;
         int[] cluster_sizes = new int[k];
 
-        for (Tuple2<Node<T>, NeighborList> tuple : tuples) {
+        for (Node<T> node : nodes) {
             double[] sims = new double[k];
             double[] values = new double[k];
 
             for (int i = 0; i < k; i++) {
                 sims[i] = similarity.similarity(
-                        tuple._1.value, medoids.get(i).value);
+                        node.value, medoids.get(i).value);
                 values[i] =
                         sims[i] * (1.0 - (double) cluster_sizes[i] / capacity);
             }
 
             int cluster_index = argmax(values);
             cluster_sizes[cluster_index]++;
-            tuple._1.partition = cluster_index;
+            node.partition = cluster_index;
         }
-
-        return tuples.iterator();
     }
 
     /**
@@ -216,6 +265,40 @@ class AssignToMedoidFunction<T>
     }
 }
 
+/**
+ * Set the partition of each node to the most similar medoid.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class AssignNodeToMedoidFunction<T>
+        implements FlatMapFunction<Iterator<Node<T>>, Node<T>> {
+
+    private final ArrayList<Node<T>> medoids;
+    private final SimilarityInterface<T> similarity;
+    private final double imbalance;
+
+    AssignNodeToMedoidFunction(
+            final ArrayList<Node<T>> medoids,
+            final SimilarityInterface<T> similarity,
+            final double imbalance) {
+
+        this.medoids = medoids;
+        this.similarity = similarity;
+        this.imbalance = imbalance;
+    }
+
+    @Override
+    public Iterator<Node<T>> call(final Iterator<Node<T>> iterator) {
+        ArrayList<Node<T>> nodes = new ArrayList<>();
+        while (iterator.hasNext()) {
+            nodes.add(iterator.next());
+        }
+
+        AssignToMedoidFunction.assign(nodes, medoids, similarity, imbalance);
+        return nodes.iterator();
+    }
+}
+
 /**
  *
  * @author Thibault Debatty
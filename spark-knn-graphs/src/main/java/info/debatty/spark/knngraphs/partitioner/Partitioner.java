@@ -42,6 +42,9 @@ public interface Partitioner<T> {
      * The contract is that at the end of call, the returned partitioning
      * is cached and execution has been forced.
      *
+     * A graph stored as topology and nodes can be partitioned without
+     * rebuilding it, using KMedoids.assign and DistributedGraph.toGraph.
+     *
      * @param graph
      * @return
      */
@@ -0,0 +1,74 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.partitioner;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import info.debatty.spark.knngraphs.Node;
+import org.apache.spark.serializer.KryoRegistrator;
+
+/**
+ * Register the (package private) classes of the partitioners with Kryo.
+ * Use GraphKryoRegistrator, which also calls this registrator.
+ *
+ * @author Thibault Debatty
+ */
+public class PartitionerKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public final void registerClasses(final Kryo kryo) {
+        kryo.register(SwapRequest.class, new SwapRequestSerializer());
+    }
+}
+
+/**
+ * SwapRequest: both nodes (without class tag) and colors (varints).
+ * @author Thibault Debatty
+ */
+class SwapRequestSerializer extends Serializer<SwapRequest> {
+
+    @Override
+    public void write(
+            final Kryo kryo, final Output output, final SwapRequest request) {
+
+        kryo.writeObject(output, request.src);
+        kryo.writeObject(output, request.dst);
+        output.writeVarInt(request.src_color, true);
+        output.writeVarInt(request.dst_color, true);
+    }
+
+    @Override
+    public SwapRequest read(
+            final Kryo kryo, final Input input, final Class<SwapRequest> type) {
+
+        Node src = kryo.readObject(input, Node.class);
+        Node dst = kryo.readObject(input, Node.class);
+        int src_color = input.readVarInt(true);
+        int dst_color = input.readVarInt(true);
+        return new SwapRequest(src, dst, src_color, dst_color);
+    }
+}
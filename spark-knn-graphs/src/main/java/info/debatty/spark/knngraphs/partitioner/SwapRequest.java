@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.partitioner;
+
+import info.debatty.spark.knngraphs.Node;
+import java.io.Serializable;
+
+/**
+ * Request to swap the colors of two nodes.
+ * @author Thibault Debatty
+ * @param <T>
+ */
+class SwapRequest<T> implements Serializable {
+    public final Node<T> src;
+    public final Node<T> dst;
+    public final int src_color;
+    public final int dst_color;
+
+    SwapRequest(
+            final Node<T> src,
+            final Node<T> dst,
+            final int src_color,
+            final int dst_color) {
+
+        this.src = src;
+        this.src_color = src_color;
+        this.dst = dst;
+        this.dst_color = dst_color;
+    }
+
+    @Override
+    public String toString() {
+        return src.id + " <> " + dst.id;
+    }
+}
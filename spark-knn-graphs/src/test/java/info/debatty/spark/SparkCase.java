@@ -23,6 +23,9 @@
  */
 package info.debatty.spark;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import junit.framework.TestCase;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -35,6 +38,7 @@ import org.apache.spark.api.java.JavaSparkContext;
  */
 public class SparkCase extends TestCase {
     private JavaSparkContext sc = null;
+    private final ArrayList<File> temp_paths = new ArrayList<>();
 
     /**
      * Get SparkContext.
@@ -44,6 +48,22 @@ public class SparkCase extends TestCase {
         return sc;
     }
 
+    /**
+     * Get a new temporary path (which does not exist yet), that will be
+     * deleted with all its content after the test.
+     * @param prefix
+     * @return
+     * @throws IOException if the temporary file cannot be created
+     */
+    protected final File createTempPath(final String prefix)
+            throws IOException {
+
+        File path = File.createTempFile(prefix, "");
+        path.delete();
+        temp_paths.add(path);
+        return path;
+    }
+
     @Override
     protected final void setUp() throws Exception {
         super.setUp();
@@ -55,6 +75,9 @@ public class SparkCase extends TestCase {
         SparkConf conf = new SparkConf();
         conf.setAppName("SparkTest");
         conf.setIfMissing("spark.master", "local[*]");
+        conf.setIfMissing(
+                "spark.sql.warehouse.dir",
+                createTempPath("spark-warehouse-").getAbsolutePath());
         sc = new JavaSparkContext(conf);
     }
 
@@ -63,6 +86,21 @@ public class SparkCase extends TestCase {
         if (sc != null) {
             sc.close();
         }
+
+        for (File path : temp_paths) {
+            delete(path);
+        }
+        temp_paths.clear();
         super.tearDown();
     }
+
+    private static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.FastSearchConfig;
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.builder.Brute;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class CompactSearchTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int N_TEST = 20;
+    private static final int N_CORRECT = 10;
+    private static final double SPEEDUP = 4;
+    private static final int PARTITIONS = 4;
+    private static final int N_NODES = 20000;
+
+    /**
+     * Test of search method, of class CompactSearch.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSearch() throws Exception {
+        System.out.println("Compact search");
+        System.out.println("==============");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        ExhaustiveSearch<String> exhaustive_search =
+                new ExhaustiveSearch<>(graph, new JWSimilarity());
+        CompactSearch<String> compact_search =
+                new CompactSearch<>(graph, new JWSimilarity(), PARTITIONS);
+
+        FastSearchConfig conf = FastSearchConfig.getDefault();
+        conf.setSpeedup(SPEEDUP);
+        int correct = 0;
+        for (Node<String> query : nodes.takeSample(false, N_TEST)) {
+            CompactSearchResult<String> result =
+                    compact_search.search(query.value, conf);
+            NeighborList exhaustive_result =
+                    exhaustive_search.search(query.value, 1);
+            correct += result.getNeighbors().countCommons(exhaustive_result);
+        }
+        compact_search.clean();
+
+        System.out.println("Found " + correct + " correct search results");
+        assertTrue(
+                "Not enough correct search results: " + correct,
+                correct >= N_CORRECT);
+    }
+
+    /**
+     * Update the neighbors of a compact graph in place.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testAddNeighbor() throws Exception {
+        System.out.println("Compact graph update");
+        System.out.println("====================");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        List<Node<String>> sample = nodes.take(K + 2);
+
+        CompactGraph<String> graph = new CompactGraph<>(K, new JWSimilarity());
+        Node<String> node = sample.get(0);
+        graph.add(node);
+        for (int i = 1; i < sample.size(); i++) {
+            graph.addNeighbor(node.id, sample.get(i), i);
+        }
+
+        // only the K most similar are kept, and duplicates are ignored
+        assertFalse(graph.addNeighbor(node.id, sample.get(1), 1));
+        assertFalse(graph.addNeighbor(node.id, sample.get(K + 1), 2 * K));
+        NeighborList neighbors = graph.getNeighbors(node.id);
+        assertEquals(K, neighbors.size());
+        assertEquals(2.0, neighbors.peek().getSimilarity(), 1E-6);
+        assertFalse(graph.containsId(sample.get(1).id));
+
+        // a node that becomes local keeps its incoming edges
+        graph.add(sample.get(1));
+        assertTrue(graph.containsId(sample.get(1).id));
+        assertEquals(K, graph.getNeighbors(node.id).size());
+        assertEquals(2, graph.size());
+    }
+
+    /**
+     * Add nodes that were already referenced as external neighbors: the
+     * references are updated, without scanning the whole graph each time.
+     */
+    public final void testIncrementalPut() {
+        System.out.println("Compact graph incremental put");
+        System.out.println("=============================");
+
+        ArrayList<Node<String>> nodes = new ArrayList<>();
+        for (int i = 0; i < N_NODES + K; i++) {
+            Node<String> node = new Node<>("node " + i);
+            node.id = i;
+            nodes.add(node);
+        }
+
+        // node i has neighbors i + 1 .. i + K, which are external until
+        // they are put themselves
+        long start = System.currentTimeMillis();
+        CompactGraph<String> graph = new CompactGraph<>(K, new JWSimilarity());
+        for (int i = 0; i < N_NODES; i++) {
+            NeighborList neighbors = new NeighborList(K);
+            for (int j = 1; j <= K; j++) {
+                neighbors.add(new Neighbor<>(nodes.get(i + j), 1.0 / j));
+            }
+            graph.put(nodes.get(i), neighbors);
+        }
+        System.out.printf("Put %d nodes in %d ms\n",
+                N_NODES, System.currentTimeMillis() - start);
+
+        assertEquals(N_NODES, graph.size());
+        for (int i = 0; i < N_NODES; i++) {
+            NeighborList neighbors = graph.getNeighbors(i);
+            assertEquals(K, neighbors.size());
+            for (Neighbor neighbor : neighbors) {
+                long id = ((Node<String>) neighbor.getNode()).id;
+                assertTrue(id > i && id <= i + K);
+                assertEquals(id < N_NODES, graph.containsId(id));
+            }
+        }
+    }
+}
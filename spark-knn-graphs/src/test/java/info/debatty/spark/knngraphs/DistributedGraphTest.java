@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Graph;
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.builder.Brute;
+import info.debatty.spark.knngraphs.partitioner.KMedoids;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import scala.Tuple2;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class DistributedGraphTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int PARTITIONS = 4;
+
+    /**
+     * Convert a graph to topology, and back to a graph of (Node,
+     * NeighborList).
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testTopology() throws Exception {
+        System.out.println("Topology");
+        System.out.println("========");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        JavaPairRDD<Long, IdNeighborList> topology =
+                DistributedGraph.toTopology(graph);
+        Map<Long, IdNeighborList> topology_map = topology.collectAsMap();
+        assertEquals(nodes.count(), topology_map.size());
+        for (IdNeighborList neighbors : topology_map.values()) {
+            assertEquals(K, neighbors.size());
+            for (int i = 1; i < neighbors.size(); i++) {
+                assertTrue(neighbors.getSimilarity(i - 1)
+                        >= neighbors.getSimilarity(i));
+            }
+        }
+
+        JavaPairRDD<Node<String>, NeighborList> rebuilt =
+                DistributedGraph.fromTopology(topology, nodes);
+        assertEquals(nodes.count(), rebuilt.count());
+        assertEquals(
+                nodes.count() * K,
+                DistributedGraph.countCommonEdges(graph, rebuilt));
+
+        // values are attached to the neighbors again
+        for (NeighborList neighbors : rebuilt.values().take(K)) {
+            for (Neighbor neighbor : neighbors) {
+                assertNotNull(((Node) neighbor.getNode()).value);
+            }
+        }
+
+        // neighborlists are rebuilt with capacity k, even if the topology
+        // holds fewer neighbors
+        Node<String> node = nodes.first();
+        JavaPairRDD<Long, IdNeighborList> partial = getSpark().parallelizePairs(
+                Arrays.asList(new Tuple2<>(node.id, new IdNeighborList(
+                        new long[]{topology_map.get(node.id).getId(0)},
+                        new float[]{topology_map.get(node.id)
+                                .getSimilarity(0)}))));
+        NeighborList partial_neighbors = DistributedGraph
+                .fromTopology(partial, nodes, K).lookup(node).get(0);
+        assertEquals(1, partial_neighbors.size());
+        for (int i = 0; i < K; i++) {
+            Node<String> other = new Node<>("");
+            other.id = -1 - i;
+            partial_neighbors.add(new Neighbor<>(other, 1.0 + i));
+        }
+        assertEquals(K, partial_neighbors.size());
+
+        // search directly from the topology
+        ApproximateSearch<String> search = new ApproximateSearch<>(
+                topology, nodes, new JWSimilarity(), PARTITIONS);
+        Node<String> query = nodes.first();
+        NeighborList result = search.search(query.value, 1).getNeighbors();
+        assertEquals(1, result.size());
+        search.clean();
+    }
+
+    /**
+     * Build the partitions for search directly from the topology: one Graph
+     * per partition, each node in a single partition, with all its
+     * neighbors (local or external).
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testTopologyToGraph() throws Exception {
+        System.out.println("Topology to partitioned graph");
+        System.out.println("=============================");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+        JavaPairRDD<Long, IdNeighborList> topology = DistributedGraph
+                .toTopology(exactGraph(nodes, new JWSimilarity(), K));
+
+        KMedoids<String> partitioner =
+                new KMedoids<>(new JWSimilarity(), PARTITIONS);
+        JavaRDD<Node<String>> partitioned_nodes = partitioner.assign(
+                nodes, partitioner.computeMedoids(nodes));
+        List<Graph<Node<String>>> graphs = DistributedGraph.toGraph(
+                topology, partitioned_nodes, new JWSimilarity(), PARTITIONS, 0)
+                .collect();
+
+        assertEquals(PARTITIONS, graphs.size());
+        long size = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            Graph<Node<String>> graph = graphs.get(i);
+            size += graph.size();
+            for (Node<String> node : graph.getNodes()) {
+                assertEquals(i, node.partition);
+                assertEquals(K, graph.getNeighbors(node).size());
+                for (Neighbor neighbor : graph.getNeighbors(node)) {
+                    assertNotNull(((Node) neighbor.getNode()).value);
+                }
+            }
+        }
+        assertEquals(nodes.count(), size);
+    }
+
+    /**
+     * Wrap nodes with dense ids, and check each partition holds the range
+     * of ids given by the offsets.
+     * @throws Exception if we cannot read the dataset
+     */
+    public final void testWrapNodesDense() throws Exception {
+        System.out.println("Wrap nodes dense");
+        System.out.println("================");
+
+        DenseNodes<String> dense = DistributedGraph.wrapNodesDense(
+                readSpam().repartition(PARTITIONS));
+        dense.getNodes().cache();
+        assertEquals(readSpam().count(), dense.size());
+
+        List<List<Node<String>>> partitions = dense.getNodes()
+                .glom().collect();
+        assertEquals(PARTITIONS, partitions.size());
+
+        for (int p = 0; p < PARTITIONS; p++) {
+            List<Node<String>> partition = partitions.get(p);
+            assertEquals(
+                    dense.getOffset(p + 1) - dense.getOffset(p),
+                    partition.size());
+
+            long expected_id = dense.getOffset(p);
+            for (Node<String> node : partition) {
+                assertEquals(expected_id, node.id);
+                assertEquals(p, dense.getPartition(node.id));
+                expected_id++;
+            }
+        }
+    }
+
+    /**
+     * Write the graph as a Parquet edge table, and read it back.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testParquet() throws Exception {
+        System.out.println("Parquet");
+        System.out.println("=======");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        File temp = createTempPath("graph-spam-parquet-");
+        SparkSession spark = SparkSession.builder().getOrCreate();
+        DistributedGraph.saveAsParquet(spark, graph, temp.getAbsolutePath());
+
+        Dataset<Row> edges = spark.read().parquet(temp.getAbsolutePath());
+        assertEquals(nodes.count() * K, edges.count());
+
+        // Read the neighbors of a single node, sorted by rank
+        long id = nodes.first().id;
+        List<Row> rows = edges
+                .filter(edges.col("src").equalTo(id))
+                .sort("rank")
+                .collectAsList();
+        assertEquals(K, rows.size());
+        for (int i = 1; i < K; i++) {
+            assertTrue(rows.get(i - 1).getFloat(2) >= rows.get(i).getFloat(2));
+        }
+
+        JavaPairRDD<Node<String>, NeighborList> rebuilt =
+                DistributedGraph.fromEdges(edges, nodes);
+        assertEquals(nodes.count(), rebuilt.count());
+        assertEquals(
+                nodes.count() * K,
+                DistributedGraph.countCommonEdges(graph, rebuilt));
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Neighbor;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.builder.Brute;
+import java.io.File;
+import java.util.Map;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import scala.Tuple2;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class GraphFileTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final double PRECISION = 1E-4;
+
+    /**
+     * Save a graph, and load it back.
+     * @throws Exception if we cannot build or save the graph
+     */
+    public final void testSaveLoad() throws Exception {
+        System.out.println("Save and load");
+        System.out.println("=============");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        File temp = createTempPath("graph-spam-");
+        GraphFile.save(graph, temp.getAbsolutePath(), true, true);
+
+        File object_file = createTempPath("graph-spam-object-");
+        graph.saveAsObjectFile(object_file.getAbsolutePath());
+        System.out.println("Binary: " + size(temp)
+                + " bytes, object file: " + size(object_file) + " bytes");
+        assertTrue(size(temp) < size(object_file));
+
+        // Topology
+        Map<Long, IdNeighborList> expected =
+                DistributedGraph.toTopology(graph).collectAsMap();
+        Map<Long, IdNeighborList> loaded = GraphFile
+                .loadTopology(getSpark(), temp.getAbsolutePath())
+                .collectAsMap();
+        assertEquals(expected.size(), loaded.size());
+        for (Map.Entry<Long, IdNeighborList> entry : expected.entrySet()) {
+            IdNeighborList neighbors = loaded.get(entry.getKey());
+            assertEquals(K, neighbors.size());
+            for (int i = 0; i < K; i++) {
+                assertTrue(entry.getValue().containsId(neighbors.getId(i)));
+                assertEquals(
+                        entry.getValue().getSimilarity(i),
+                        neighbors.getSimilarity(i),
+                        PRECISION);
+            }
+        }
+
+        // Complete graph, with quantized similarities
+        JavaPairRDD<Node<String>, NeighborList> loaded_graph =
+                GraphFile.load(getSpark(), temp.getAbsolutePath());
+        Map<Long, IdNeighborList> loaded_topology =
+                DistributedGraph.toTopology(loaded_graph).collectAsMap();
+        assertEquals(expected.size(), loaded_topology.size());
+        for (Map.Entry<Long, IdNeighborList> entry : expected.entrySet()) {
+            assertEquals(K, entry.getValue().countCommons(
+                    loaded_topology.get(entry.getKey())));
+        }
+
+        // Without quantization (default), the graph is identical
+        File exact = createTempPath("graph-spam-exact-");
+        GraphFile.save(graph, exact.getAbsolutePath());
+        long start = System.currentTimeMillis();
+        loaded_graph = GraphFile.load(getSpark(), exact.getAbsolutePath());
+        assertEquals(graph.count(), loaded_graph.count());
+        System.out.println("Reload binary: "
+                + (System.currentTimeMillis() - start) + " ms");
+        assertEquals(
+                graph.count() * K,
+                DistributedGraph.countCommonEdges(graph, loaded_graph));
+
+        // Previous format: rebuild the graph from the topology and the nodes
+        start = System.currentTimeMillis();
+        JavaPairRDD<Node<String>, NeighborList> rebuilt_graph =
+                DistributedGraph.fromTopology(
+                        GraphFile.loadTopology(
+                                getSpark(), exact.getAbsolutePath()),
+                        GraphFile.<String>loadNodes(
+                                getSpark(), exact.getAbsolutePath()));
+        assertEquals(graph.count(), rebuilt_graph.count());
+        System.out.println("Rebuild from topology: "
+                + (System.currentTimeMillis() - start) + " ms");
+
+        // The values of the neighbors are restored as well
+        for (Tuple2<Node<String>, NeighborList> tuple
+                : loaded_graph.collect()) {
+            for (Neighbor neighbor : tuple._2) {
+                assertNotNull(((Node<String>) neighbor.getNode()).value);
+            }
+        }
+    }
+
+    /**
+     * Size of the files in this directory (without checksum files).
+     * @param dir
+     * @return
+     */
+    private long size(final File dir) {
+        long size = 0;
+        for (File file : dir.listFiles()) {
+            if (!file.getName().endsWith(".crc")) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+}
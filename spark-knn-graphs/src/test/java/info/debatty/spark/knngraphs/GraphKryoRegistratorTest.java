@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.spark.knngraphs;
+
+import info.debatty.java.graphs.Graph;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.builder.Brute;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.KryoSerializer;
+import org.apache.spark.serializer.SerializerInstance;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class GraphKryoRegistratorTest extends KNNGraphCase {
+
+    private static final int K = 10;
+
+    /**
+     * Serialize and deserialize the partitions of a graph with Kryo.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSerialization() throws Exception {
+        System.out.println("Kryo serialization");
+        System.out.println("==================");
+
+        SparkConf conf = GraphKryoRegistrator.enable(new SparkConf());
+        assertEquals(
+                KryoSerializer.class.getName(),
+                conf.get("spark.serializer"));
+        GraphKryoRegistrator.enable(conf);
+        assertEquals(
+                GraphKryoRegistrator.class.getName(),
+                conf.get("spark.kryo.registrator"));
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        List<Graph<Node<String>>> partitions =
+                DistributedGraph.toGraph(graph, new JWSimilarity()).collect();
+
+        SerializerInstance kryo = new KryoSerializer(conf).newInstance();
+        SerializerInstance java = new JavaSerializer(conf).newInstance();
+        ClassTag<Object> tag = ClassTag$.MODULE$.apply(Object.class);
+
+        long kryo_bytes = 0;
+        long java_bytes = 0;
+        for (Graph<Node<String>> partition : partitions) {
+            ByteBuffer buffer = kryo.serialize(partition, tag);
+            kryo_bytes += buffer.remaining();
+            java_bytes += java.serialize(partition, tag).remaining();
+
+            Graph<Node<String>> copy = (Graph) kryo.deserialize(buffer, tag);
+            assertEquals(partition.size(), copy.size());
+            assertEquals(partition.getK(), copy.getK());
+            for (Node<String> node : partition.getNodes()) {
+                NeighborList neighbors = copy.getNeighbors(node);
+                assertEquals(K, neighbors.size());
+                assertEquals(K, neighbors.countCommons(
+                        partition.getNeighbors(node)));
+            }
+        }
+        System.out.printf("Java: %d bytes, Kryo: %d bytes\n",
+                java_bytes, kryo_bytes);
+        assertTrue(kryo_bytes < java_bytes);
+
+        IdNeighborList ids = new IdNeighborList(graph.first()._2);
+        assertEquals(ids, kryo.deserialize(kryo.serialize(ids, tag), tag));
+    }
+}
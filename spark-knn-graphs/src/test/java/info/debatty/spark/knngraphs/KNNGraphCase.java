@@ -24,8 +24,10 @@
 package info.debatty.spark.knngraphs;
 
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.graphs.SimilarityInterface;
 
 import info.debatty.spark.SparkCase;
+import info.debatty.spark.knngraphs.builder.Brute;
 import info.debatty.spark.knngraphs.builder.DistributedGraphBuilder;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -56,6 +58,63 @@ public class KNNGraphCase extends SparkCase {
         return data;
     }
 
+    /**
+     * Read the SPAM dataset, wrapped in (cached) nodes.
+     * @return
+     * @throws IOException if we cannot read the file
+     */
+    public final JavaRDD<Node<String>> readSpamNodes() throws IOException {
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+        nodes.cache();
+        return nodes;
+    }
+
+    /**
+     * Compute the exact graph, with Brute and the CARTESIAN strategy.
+     * @param <T>
+     * @param nodes
+     * @param similarity
+     * @param k
+     * @return the (cached) exact graph
+     * @throws Exception if we cannot build the graph
+     */
+    public final <T> JavaPairRDD<Node<T>, NeighborList> exactGraph(
+            final JavaRDD<Node<T>> nodes,
+            final SimilarityInterface<T> similarity,
+            final int k) throws Exception {
+
+        Brute<T> brute = new Brute<>();
+        brute.setK(k);
+        brute.setSimilarity(similarity);
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<T>, NeighborList> exact_graph =
+                brute.computeGraphFromNodes(nodes);
+        exact_graph.cache();
+        return exact_graph;
+    }
+
+    /**
+     * Fraction of the edges of the exact graph that are found in the graph.
+     * @param <T>
+     * @param exact_graph
+     * @param graph
+     * @param k
+     * @return
+     */
+    public final <T> double correctRatio(
+            final JavaPairRDD<Node<T>, NeighborList> exact_graph,
+            final JavaPairRDD<Node<T>, NeighborList> graph,
+            final int k) {
+
+        long correct_edges = DistributedGraph.countCommonEdges(
+                exact_graph, graph);
+        double correct_ratio = (double) correct_edges
+                / (exact_graph.count() * k);
+        System.out.printf("Found %d correct edges (%f)\n",
+                correct_edges, correct_ratio);
+        return correct_ratio;
+    }
+
     /**
      * Read the exact SPAM graph from resources.
      * @return
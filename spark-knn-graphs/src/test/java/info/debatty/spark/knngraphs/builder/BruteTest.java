@@ -27,16 +27,19 @@ package info.debatty.spark.knngraphs.builder;
 import info.debatty.java.datasets.gaussian.Dataset;
 import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.DistributedGraph;
 import info.debatty.spark.knngraphs.JWSimilarity;
 import info.debatty.spark.knngraphs.L2Similarity;
 import info.debatty.spark.knngraphs.KNNGraphCase;
 import info.debatty.spark.knngraphs.Node;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.storage.StorageLevel;
 import scala.Tuple2;
 
 /**
@@ -46,6 +49,7 @@ import scala.Tuple2;
 public class BruteTest extends KNNGraphCase {
 
     private static final int K = 10;
+    private static final int BLOCKS = 4;
 
     /**
      * Build the exact SPAM graph.
@@ -89,6 +93,169 @@ public class BruteTest extends KNNGraphCase {
         }
     }
 
+    /**
+     * Build the SPAM graph using the TILED strategy, and compare with the
+     * graph built using the CARTESIAN strategy.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testTiledStrategy() throws Exception {
+        System.out.println("Tiled brute force");
+        System.out.println("=================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.TILED);
+        brute.setBlocks(BLOCKS);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        checkNeighbors(nodes, graph);
+        assertEquals(1.0, correctRatio(exact_graph, graph, K), 0.0);
+    }
+
+    /**
+     * Build the SPAM graph using the CARTESIAN_TOP_K strategy, and compare
+     * with the graph built using the CARTESIAN strategy.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testCartesianTopKStrategy() throws Exception {
+        System.out.println("Cartesian brute force with top-k combining");
+        System.out.println("==========================================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN_TOP_K);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        checkNeighbors(nodes, graph);
+        assertEquals(1.0, correctRatio(exact_graph, graph, K), 0.0);
+    }
+
+    /**
+     * Build the SPAM graph using the BROADCAST strategy, and compare
+     * with the graph built using the CARTESIAN strategy.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testBroadcastStrategy() throws Exception {
+        System.out.println("Broadcast brute force");
+        System.out.println("=====================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.BROADCAST);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        checkNeighbors(nodes, graph);
+        assertEquals(1.0, correctRatio(exact_graph, graph, K), 0.0);
+    }
+
+    /**
+     * AUTO caches the nodes to select a strategy, releases them, and returns
+     * a graph that is not persisted.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testAutoReleasesNodes() throws Exception {
+        System.out.println("AUTO releases nodes");
+        System.out.println("===================");
+
+        // not cached
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam());
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes);
+
+        assertEquals(StorageLevel.NONE(), nodes.getStorageLevel());
+        assertEquals(StorageLevel.NONE(), graph.getStorageLevel());
+
+        // the caller chooses the storage level of the graph
+        graph.persist(StorageLevel.MEMORY_AND_DISK());
+        checkNeighbors(nodes, graph);
+        graph.unpersist();
+    }
+
+    /**
+     * Each node of the graph has K neighbors, and is not its own neighbor.
+     */
+    private void checkNeighbors(
+            final JavaRDD<Node<String>> nodes,
+            final JavaPairRDD<Node<String>, NeighborList> graph) {
+
+        assertEquals(nodes.count(), graph.count());
+        for (Tuple2<Node<String>, NeighborList> tuple : graph.collect()) {
+            assertEquals(K, tuple._2.size());
+            for (Neighbor neighbor : tuple._2) {
+                assertTrue(!tuple._1.equals(neighbor.getNode()));
+            }
+        }
+    }
+
+    /**
+     * With a single node, each strategy returns the node. CARTESIAN keeps
+     * the pair (node, node) with similarity 0, the other strategies return
+     * an empty neighborlist.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSingleNode() throws Exception {
+        System.out.println("Single node");
+        System.out.println("===========");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(
+                getSpark().parallelize(Arrays.asList("single node")));
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new JWSimilarity());
+
+        for (Brute.Strategy strategy : Brute.Strategy.values()) {
+            brute.setStrategy(strategy);
+            List<Tuple2<Node<String>, NeighborList>> graph =
+                    brute.computeGraphFromNodes(nodes).collect();
+            assertEquals(strategy.toString(), 1, graph.size());
+            if (strategy != Brute.Strategy.CARTESIAN) {
+                assertEquals(strategy.toString(), 0, graph.get(0)._2.size());
+            }
+        }
+    }
+
+    /**
+     * Blocks must be in [0, blocks[, including when id * prime overflows to
+     * Long.MIN_VALUE.
+     */
+    public final void testBlockOf() {
+        System.out.println("Block of node");
+        System.out.println("=============");
+
+        Node<String> node = new Node<>("node");
+        for (long id : new long[] {0, 1, 12345, Long.MIN_VALUE}) {
+            node.id = id;
+            int block = BlockPairs.blockOf(node, 7);
+            assertTrue(block >= 0 && block < 7);
+        }
+    }
+
     /**
      * Build a synthetic graph.
      * @throws Exception if we cannot build the graph
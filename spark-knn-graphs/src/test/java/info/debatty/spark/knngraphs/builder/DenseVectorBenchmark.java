@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.L2Similarity;
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import scala.Tuple2;
+
+/**
+ * Compare the computation of a block of nodes using the per-pair similarity
+ * (as in the TILED strategy of Brute) and using the packed dense vectors
+ * kernel.
+ *
+ * This is not a unit test. Run with:
+ * java -cp target/test-classes:target/classes:(test classpath)
+ *   info.debatty.spark.knngraphs.builder.DenseVectorBenchmark
+ *
+ * @author Thibault Debatty
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DenseVectorBenchmark {
+
+    private static final int K = 10;
+    private static final int SIZE = 2000;
+
+    @Param({"16", "128"})
+    private int dim;
+
+    private Tuple2<Integer, Iterable<Node<double[]>>> double_block;
+    private Tuple2<Integer, Iterable<Node<float[]>>> float_block;
+
+    /**
+     * Generate random vectors (a single block).
+     */
+    @Setup
+    public final void setup() {
+        Random rand = new Random(1234);
+        ArrayList<Node<double[]>> double_nodes = new ArrayList<>();
+        ArrayList<Node<float[]>> float_nodes = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            double[] d = new double[dim];
+            float[] f = new float[dim];
+            for (int j = 0; j < dim; j++) {
+                d[j] = rand.nextGaussian();
+                f[j] = (float) d[j];
+            }
+            Node<double[]> double_node = new Node<>(d);
+            double_node.id = i;
+            double_nodes.add(double_node);
+
+            Node<float[]> float_node = new Node<>(f);
+            float_node.id = i;
+            float_nodes.add(float_node);
+        }
+
+        double_block = new Tuple2<Integer, Iterable<Node<double[]>>>(
+                0, double_nodes);
+        float_block = new Tuple2<Integer, Iterable<Node<float[]>>>(
+                0, float_nodes);
+    }
+
+    /**
+     * Per-pair similarity.
+     * @return
+     */
+    @Benchmark
+    public final Iterator<Tuple2<Node<double[]>, NeighborList>> similarity() {
+        return new ComputeBlockPairFunction<>(new L2Similarity(), K, 1)
+                .call(double_block);
+    }
+
+    /**
+     * Packed double[] vectors.
+     * @return
+     */
+    @Benchmark
+    public final Iterator<Tuple2<Node<double[]>, NeighborList>>
+            packedDouble() {
+        return new DenseBlockPairFunction<double[]>(VectorMetric.L2, K, 1)
+                .call(double_block);
+    }
+
+    /**
+     * Packed float[] vectors.
+     * @return
+     */
+    @Benchmark
+    public final Iterator<Tuple2<Node<float[]>, NeighborList>> packedFloat() {
+        return new DenseBlockPairFunction<float[]>(VectorMetric.L2, K, 1)
+                .call(float_block);
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args
+     * @throws RunnerException if the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DenseVectorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
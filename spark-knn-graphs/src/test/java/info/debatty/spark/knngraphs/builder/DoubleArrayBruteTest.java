@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.datasets.gaussian.Dataset;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.KNNGraphCase;
+import info.debatty.spark.knngraphs.L2Similarity;
+import info.debatty.spark.knngraphs.Node;
+import java.security.InvalidParameterException;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import scala.Tuple2;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class DoubleArrayBruteTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int BLOCKS = 4;
+    private static final int SIZE = 2000;
+    private static final double SUCCESS_RATIO = 0.99;
+
+    /**
+     * Compare the L2 graph with the graph built by Brute.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testL2() throws Exception {
+        System.out.println("Dense vectors brute force (L2)");
+        System.out.println("==============================");
+
+        JavaRDD<Node<double[]>> nodes = readSynthetic();
+
+        Brute<double[]> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new L2Similarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+
+        DoubleArrayBrute builder = new DoubleArrayBrute();
+        builder.setK(K);
+        builder.setBlocks(BLOCKS);
+
+        compare(nodes, brute, builder);
+    }
+
+    /**
+     * Compare the cosine graph with the graph built by Brute.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testCosine() throws Exception {
+        System.out.println("Dense vectors brute force (cosine)");
+        System.out.println("==================================");
+
+        JavaRDD<Node<double[]>> nodes = readSynthetic();
+
+        Brute<double[]> brute = new Brute<>();
+        brute.setK(K);
+        brute.setSimilarity(new DoubleArraySimilarity(VectorMetric.COSINE));
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+
+        DoubleArrayBrute builder = new DoubleArrayBrute();
+        builder.setK(K);
+        builder.setBlocks(BLOCKS);
+        builder.setMetric(VectorMetric.COSINE);
+
+        compare(nodes, brute, builder);
+    }
+
+    /**
+     * A similarity that is not defined by the metric is rejected.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testCustomSimilarity() throws Exception {
+        System.out.println("Dense vectors brute force (custom similarity)");
+        System.out.println("=============================================");
+
+        DoubleArrayBrute builder = new DoubleArrayBrute();
+        builder.setK(K);
+        builder.setSimilarity(new L2Similarity());
+
+        try {
+            builder.computeGraphFromNodes(readSynthetic());
+            fail("A custom similarity must be rejected");
+        } catch (InvalidParameterException ex) {
+            // expected
+        }
+    }
+
+    private JavaRDD<Node<double[]>> readSynthetic() {
+        Dataset dataset = new Dataset.Builder(10, 13)
+                .setOverlap(Dataset.Builder.Overlap.HIGH)
+                .setSize(SIZE)
+                .build();
+
+        JavaRDD<Node<double[]>> nodes = DistributedGraph.wrapNodes(
+                getSpark().parallelize(dataset.getAll()));
+        nodes.cache();
+        return nodes;
+    }
+
+    private void compare(
+            final JavaRDD<Node<double[]>> nodes,
+            final Brute<double[]> brute,
+            final DoubleArrayBrute builder) throws Exception {
+
+        JavaPairRDD<Node<double[]>, NeighborList> exact_graph =
+                brute.computeGraphFromNodes(nodes);
+
+        JavaPairRDD<Node<double[]>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        assertEquals(nodes.count(), graph.count());
+        for (Tuple2<Node<double[]>, NeighborList> tuple : graph.collect()) {
+            assertEquals(K, tuple._2.size());
+        }
+
+        long correct_edges = DistributedGraph.countCommonEdges(
+                exact_graph, graph);
+        System.out.printf("Found %d correct edges\n", correct_edges);
+        assertTrue(correct_edges >= nodes.count() * K * SUCCESS_RATIO);
+    }
+}
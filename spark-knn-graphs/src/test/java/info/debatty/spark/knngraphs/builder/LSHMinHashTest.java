@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.KNNGraphCase;
+import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class LSHMinHashTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int SHINGLE = 4;
+    private static final int BANDS = 20;
+    private static final int ROWS = 2;
+    private static final long SEED = 123456;
+    private static final double SUCCESS_RATIO = 0.5;
+    private static final int LARGE_SIZE = 200000;
+    private static final int SET_SIZE = 10;
+    private static final int DUPLICATES = 2000;
+    private static final int MAX_BUCKET_SIZE = 1000;
+
+    /**
+     * Compare the Jaccard graph of the shingles of SPAM with the graph
+     * built by Brute.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSpamShingles() throws Exception {
+        System.out.println("MinHash with SPAM shingles");
+        System.out.println("==========================");
+
+        JavaRDD<Node<Set<String>>> nodes = DistributedGraph.wrapNodes(
+                readSpam().map(new ShinglesFunction()));
+        nodes.cache();
+
+        JavaPairRDD<Node<Set<String>>, NeighborList> exact_graph =
+                exactGraph(nodes, new JaccardSimilarity<String>(), K);
+
+        LSHMinHash<String> builder = new LSHMinHash<>();
+        builder.setK(K);
+        builder.setBands(BANDS);
+        builder.setRows(ROWS);
+        builder.setSeed(SEED);
+        JavaPairRDD<Node<Set<String>>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        assertEquals(nodes.count(), graph.count());
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * On a large input, most buckets are singletons: the driver should only
+     * receive the (few) oversized buckets, not one entry per bucket.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testLargeInput() throws Exception {
+        System.out.println("MinHash with a large input");
+        System.out.println("==========================");
+
+        Random rand = new Random(SEED);
+        ArrayList<Set<Integer>> sets = new ArrayList<>(LARGE_SIZE);
+        for (int i = 0; i < LARGE_SIZE - DUPLICATES; i++) {
+            HashSet<Integer> set = new HashSet<>();
+            for (int j = 0; j < SET_SIZE; j++) {
+                set.add(rand.nextInt());
+            }
+            sets.add(set);
+        }
+
+        // Identical sets fall in the same bucket, for each band
+        HashSet<Integer> duplicate = new HashSet<>();
+        for (int j = 0; j < SET_SIZE; j++) {
+            duplicate.add(rand.nextInt());
+        }
+        for (int i = 0; i < DUPLICATES; i++) {
+            sets.add(duplicate);
+        }
+
+        JavaRDD<Node<Set<Integer>>> nodes = DistributedGraph.wrapNodes(
+                getSpark().parallelize(sets));
+        nodes.cache();
+
+        LSHMinHash<Integer> builder = new LSHMinHash<>();
+        builder.setK(K);
+        builder.setSeed(SEED);
+        builder.setMaxBucketSize(MAX_BUCKET_SIZE);
+        int persisted = getSpark().getPersistentRDDs().size();
+        builder.computeGraphFromNodes(nodes);
+
+        // the binning cached to count the buckets is released
+        assertEquals(persisted, getSpark().getPersistentRDDs().size());
+
+        System.out.printf("%d buckets, %d oversized\n",
+                builder.getBucketCount(),
+                builder.getOversizedBuckets().size());
+
+        // (almost) one bucket per node and per band
+        assertTrue(builder.getBucketCount()
+                > (LARGE_SIZE - DUPLICATES) * LSHMinHash.DEFAULT_BANDS / 2);
+        assertEquals(
+                LSHMinHash.DEFAULT_BANDS,
+                builder.getOversizedBuckets().size());
+        for (long size : builder.getOversizedBuckets().values()) {
+            assertEquals(DUPLICATES, size);
+        }
+        assertEquals(DUPLICATES, builder.getLargestBucketSize());
+    }
+
+    /**
+     * Set of the shingles of a string.
+     */
+    private static class ShinglesFunction
+            implements Function<String, Set<String>> {
+
+        @Override
+        public Set<String> call(final String string) {
+            HashSet<String> shingles = new HashSet<>();
+            for (int i = 0; i + SHINGLE <= string.length(); i++) {
+                shingles.add(string.substring(i, i + SHINGLE));
+            }
+            return shingles;
+        }
+    }
+}
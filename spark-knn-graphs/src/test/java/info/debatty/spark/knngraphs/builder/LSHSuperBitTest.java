@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.datasets.gaussian.Dataset;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.lsh.SuperBit;
+import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.KNNGraphCase;
+import info.debatty.spark.knngraphs.Node;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class LSHSuperBitTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int DIM = 10;
+    private static final int SIZE = 2000;
+    private static final int STAGES = 2;
+    private static final int BUCKETS = 16;
+    private static final int PROBES = 2;
+    private static final int VECTORS = 1000;
+    private static final long SEED = 123456;
+    private static final double MARGIN = 0.05;
+
+    /**
+     * Multi-probe finds more correct edges than a single probe with the
+     * same number of stages. The hyperplanes of SuperBit are random (and
+     * cannot be seeded), so a small margin is tolerated.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testMultiProbe() throws Exception {
+        System.out.println("SuperBit multi-probe");
+        System.out.println("====================");
+
+        Dataset dataset = new Dataset.Builder(DIM, 13)
+                .setOverlap(Dataset.Builder.Overlap.HIGH)
+                .setSize(SIZE)
+                .build();
+        JavaRDD<Node<double[]>> nodes = DistributedGraph.wrapNodes(
+                getSpark().parallelize(dataset.getAll()));
+        nodes.cache();
+
+        JavaPairRDD<Node<double[]>, NeighborList> exact_graph =
+                exactGraph(nodes,
+                        new DoubleArraySimilarity(VectorMetric.COSINE), K);
+
+        long single = countCorrectEdges(nodes, exact_graph, 0);
+        long multi = countCorrectEdges(nodes, exact_graph, PROBES);
+        System.out.printf("Correct edges: %d (single probe), %d (%d probes)\n",
+                single, multi, PROBES);
+        assertTrue(multi >= single * (1 - MARGIN));
+    }
+
+    /**
+     * SuperBitHasher computes the same buckets as
+     * info.debatty.java.lsh.LSHSuperBit.hash, using the same hyperplanes.
+     * @throws Exception if we cannot set the hyperplanes of LSHSuperBit
+     */
+    public final void testHasher() throws Exception {
+        System.out.println("SuperBit hasher");
+        System.out.println("===============");
+
+        int dim = 100;
+        int stages = 4;
+        int buckets = 20;
+        SuperBitHasher hasher = new SuperBitHasher(dim, stages, buckets, 0);
+
+        // LSHSuperBit with the hyperplanes of the hasher
+        SuperBit superbit = new SuperBit(dim);
+        Field hyperplanes = SuperBit.class.getDeclaredField("hyperplanes");
+        hyperplanes.setAccessible(true);
+        hyperplanes.set(superbit, hasher.getHyperplanes());
+        info.debatty.java.lsh.LSHSuperBit lsh =
+                new info.debatty.java.lsh.LSHSuperBit(stages, buckets, dim);
+        Field sb = info.debatty.java.lsh.LSHSuperBit.class
+                .getDeclaredField("sb");
+        sb.setAccessible(true);
+        sb.set(lsh, superbit);
+
+        Random rand = new Random(SEED);
+        int[] result = new int[hasher.maxBuckets()];
+        int[] lowest = new int[hasher.maxBuckets()];
+        for (int v = 0; v < VECTORS; v++) {
+            double[] vector = new double[dim];
+            for (int i = 0; i < dim; i++) {
+                vector[i] = rand.nextGaussian();
+            }
+
+            double[][] projections = new double[1][];
+            projections[0] = new double[hasher.getHyperplanes().length];
+            new DoubleArrayProjector().project(
+                    new ArrayList<>(Arrays.asList(vector)),
+                    hasher.getHyperplanes(),
+                    projections);
+            int count = hasher.buckets(projections[0], result, lowest);
+
+            // the hasher returns distinct buckets
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int bucket : lsh.hash(vector)) {
+                expected.add(bucket);
+            }
+            TreeSet<Integer> actual = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                actual.add(result[i]);
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    private long countCorrectEdges(
+            final JavaRDD<Node<double[]>> nodes,
+            final JavaPairRDD<Node<double[]>, NeighborList> exact_graph,
+            final int probes) throws Exception {
+
+        LSHSuperBitDoubleArray builder = new LSHSuperBitDoubleArray();
+        builder.setK(K);
+        builder.setDim(DIM);
+        builder.setStages(STAGES);
+        builder.setBuckets(BUCKETS);
+        builder.setProbes(probes);
+
+        JavaPairRDD<Node<double[]>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+        return DistributedGraph.countCommonEdges(exact_graph, graph);
+    }
+}
@@ -24,10 +24,14 @@
 package info.debatty.spark.knngraphs.builder;
 
 import info.debatty.java.graphs.NeighborList;
+import info.debatty.java.spamsum.ESSum;
 import info.debatty.spark.knngraphs.DistributedGraph;
 import info.debatty.spark.knngraphs.JWSimilarity;
 import info.debatty.spark.knngraphs.KNNGraphCase;
 import info.debatty.spark.knngraphs.Node;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 
@@ -40,6 +44,12 @@ public class NNCTPHTest extends KNNGraphCase {
 
     private static final int K = 10;
     private static final double SUCCESS_RATIO = 0.7;
+    private static final double SPLIT_SUCCESS_RATIO = 0.5;
+    private static final int MAX_BUCKET_SIZE = 100;
+    private static final long SEED = 123456;
+    private static final int ADAPTIVE_THRESHOLD = 200;
+    private static final double ADAPTIVE_SUCCESS_RATIO = 0.6;
+    private static final int RANDOM_STRINGS = 200;
 
     /**
      *
@@ -68,4 +78,93 @@ public class NNCTPHTest extends KNNGraphCase {
 
         assertTrue(correct_ratio >= SUCCESS_RATIO);
     }
+    /**
+     * Split large buckets: sub-buckets have (on average) max_bucket_size
+     * nodes, and the graph is still correct.
+     * @throws Exception
+     */
+    public final void testMaxBucketSize() throws Exception {
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNCTPH builder = new NNCTPH();
+        builder.setBuckets(10);
+        builder.setStages(3);
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxBucketSize(MAX_BUCKET_SIZE);
+        builder.setSeed(SEED);
+
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        long largest = builder.getLargestBucketSize();
+        assertTrue(largest > MAX_BUCKET_SIZE);
+        assertFalse(builder.getOversizedBuckets().isEmpty());
+
+        System.out.printf("Largest bucket: %d nodes\n", largest);
+        assertTrue(
+                correctRatio(exact_graph, graph, K) >= SPLIT_SUCCESS_RATIO);
+    }
+    /**
+     * Use NN-Descent for the large buckets.
+     * @throws Exception
+     */
+    public final void testAdaptiveInnerGraphBuilder() throws Exception {
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        AdaptiveGraphBuilder<Node<String>> inner =
+                new AdaptiveGraphBuilder<>();
+        inner.setThreshold(ADAPTIVE_THRESHOLD);
+
+        NNCTPH builder = new NNCTPH();
+        builder.setBuckets(10);
+        builder.setStages(3);
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setInnerGraphBuilder(inner);
+
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        assertTrue(
+                correctRatio(exact_graph, graph, K) >= ADAPTIVE_SUCCESS_RATIO);
+    }
+
+    /**
+     * ESSumHasher computes the same signatures as
+     * info.debatty.java.spamsum.ESSum, and the state of the hasher is
+     * reset from one string to the next.
+     * @throws Exception if we cannot read the dataset
+     */
+    public final void testHasher() throws Exception {
+        System.out.println("ESSum hasher");
+        System.out.println("============");
+
+        ArrayList<String> strings = new ArrayList<>(readSpam().collect());
+        Random rand = new Random(SEED);
+        for (int i = 0; i < RANDOM_STRINGS; i++) {
+            char[] chars = new char[rand.nextInt(RANDOM_STRINGS)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + rand.nextInt(26));
+            }
+            strings.add(new String(chars));
+        }
+
+        int[][] parameters = {{3, 10}, {10, 64}, {64, 4}};
+        for (int[] p : parameters) {
+            ESSumHasher hasher = new ESSumHasher(p[0], p[1], 1);
+            for (String string : strings) {
+                int[] expected = new ESSum(p[0], p[1], 1).HashString(string);
+                assertTrue(Arrays.equals(expected, hasher.hash(string)));
+            }
+        }
+    }
 }
@@ -24,13 +24,23 @@
 
 package info.debatty.spark.knngraphs.builder;
 
+import info.debatty.java.graphs.Neighbor;
 import info.debatty.java.graphs.NeighborList;
 import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.IdNeighborList;
 import info.debatty.spark.knngraphs.JWSimilarity;
 import info.debatty.spark.knngraphs.KNNGraphCase;
 import info.debatty.spark.knngraphs.Node;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
 
 /**
  *
@@ -41,6 +51,15 @@ public class NNDescentTest extends KNNGraphCase {
     private static final int K = 10;
     private static final int ITERATIONS = 5;
     private static final double SUCCESS_RATIO = 0.9;
+    private static final int MAX_ITERATIONS = 20;
+    private static final double DELTA = 0.001;
+    private static final double RHO = 0.5;
+    private static final long SEED = 123456;
+    private static final int INIT_BUCKET_SIZE = 50;
+    private static final int MAX_CANDIDATES = 15;
+    private static final int MAX_GROUP_SIZE = 20;
+    private static final int REFINEMENT_ITERATIONS = 2;
+    private static final int PARTITIONS = 7;
 
     /**
      * Test of computeGraph method, of class NNDescent.
@@ -80,4 +99,312 @@ public class NNDescentTest extends KNNGraphCase {
                 "Not enough correct edges: " + correct_edges,
                 correct_edges >= correct_threshold);
     }
+
+    /**
+     * Check the local join does not compute the same pairs again and again:
+     * the number of computed similarities must drop after the first
+     * iterations.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testComputedSimilarities() throws Exception {
+        System.out.println("NNDescent computed similarities");
+        System.out.println("===============================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(ITERATIONS);
+        builder.setDelta(0);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        List<Long> similarities = builder.getComputedSimilarities();
+        System.out.println("Computed similarities: " + similarities);
+        assertEquals(ITERATIONS, similarities.size());
+        assertTrue(
+                similarities.get(ITERATIONS - 1) < similarities.get(1) / 2);
+
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * With sampling and early termination, NNDescent should stop before the
+     * maximum number of iterations, and still produce a good graph.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testEarlyTermination() throws Exception {
+        System.out.println("NNDescent early termination");
+        System.out.println("===========================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(MAX_ITERATIONS);
+        builder.setDelta(DELTA);
+        builder.setRho(RHO);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        int iterations = builder.getComputedSimilarities().size();
+        System.out.println("Iterations: " + iterations);
+        assertTrue(iterations < MAX_ITERATIONS);
+
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * Build the graph shuffling only ids during the iterations. The
+     * partition of the nodes and neighbors is kept, and the intermediate
+     * RDDs are released.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testIdsMode() throws Exception {
+        System.out.println("NNDescent IDS mode");
+        System.out.println("==================");
+
+        JavaRDD<Node<String>> nodes = DistributedGraph.wrapNodes(readSpam())
+                .map(new SetPartitionFunction());
+        nodes.cache();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(ITERATIONS);
+        builder.setMode(NNDescent.Mode.IDS);
+        int persisted = getSpark().getPersistentRDDs().size();
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        // only the returned graph remains persisted
+        assertEquals(persisted + 1, getSpark().getPersistentRDDs().size());
+
+        assertEquals(nodes.count(), graph.count());
+        for (Tuple2<Node<String>, NeighborList> tuple : graph.collect()) {
+            assertNotNull(tuple._1.value);
+            assertEquals(tuple._1.id % PARTITIONS, tuple._1.partition);
+            assertEquals(K, tuple._2.size());
+            for (Neighbor neighbor : tuple._2) {
+                Node<String> other = (Node<String>) neighbor.getNode();
+                assertNotNull(other.value);
+                assertEquals(other.id % PARTITIONS, other.partition);
+            }
+        }
+
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * In IDS mode, the topology is computed without restoring the values,
+     * and the intermediate RDDs are released.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testIdsTopology() throws Exception {
+        System.out.println("NNDescent IDS topology");
+        System.out.println("======================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(ITERATIONS);
+        builder.setMode(NNDescent.Mode.IDS);
+        int persisted = getSpark().getPersistentRDDs().size();
+        JavaPairRDD<Long, IdNeighborList> topology =
+                builder.computeTopology(nodes);
+        assertEquals(persisted + 1, getSpark().getPersistentRDDs().size());
+
+        assertEquals(nodes.count(), topology.count());
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                DistributedGraph.fromTopology(topology, nodes, K);
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * Assign node id % PARTITIONS as partition.
+     */
+    private static class SetPartitionFunction
+            implements Function<Node<String>, Node<String>> {
+
+        @Override
+        public Node<String> call(final Node<String> node) {
+            node.partition = (int) (node.id % PARTITIONS);
+            return node;
+        }
+    }
+
+    /**
+     * Test hub-aware local join: capped candidates and salted groups.
+     * @throws Exception
+     */
+    public final void testMaxGroupSize() throws Exception {
+        System.out.println("NNDescent max group size");
+        System.out.println("========================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(MAX_ITERATIONS);
+        builder.setSeed(SEED);
+        builder.setMaxCandidates(MAX_CANDIDATES);
+        builder.setMaxGroupSize(MAX_GROUP_SIZE);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        assertEquals(nodes.count(), graph.count());
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * Refine the graph computed by NNCTPH.
+     * @throws Exception
+     */
+    public final void testInitializer() throws Exception {
+        System.out.println("NNDescent with NNCTPH initializer");
+        System.out.println("=================================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNCTPH initializer = new NNCTPH();
+        initializer.setStages(3);
+        initializer.setBuckets(10);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(REFINEMENT_ITERATIONS);
+        builder.setSeed(SEED);
+        builder.setInitializer(initializer);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        assertEquals(nodes.count(), graph.count());
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * Initialize with small buckets, partly computed by a bucketing function.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testInitialization() throws Exception {
+        System.out.println("NNDescent initialization with small buckets");
+        System.out.println("===========================================");
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+        JavaPairRDD<Node<String>, NeighborList> exact_graph =
+                exactGraph(nodes, new JWSimilarity(), K);
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(ITERATIONS);
+        builder.setInitBucketSize(INIT_BUCKET_SIZE);
+        builder.setInitBucketing(new LengthBucketing());
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+        graph.cache();
+
+        assertEquals(nodes.count(), graph.count());
+
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * Cheap bucketing: strings of similar length are in the same bucket.
+     */
+    private static class LengthBucketing implements Function<String, Integer> {
+
+        private static final int WIDTH = 200;
+
+        @Override
+        public Integer call(final String value) {
+            return value.length() / WIDTH;
+        }
+    }
+
+    /**
+     * Persist each iteration on disk and use a reliable checkpoint at each
+     * iteration. Two builds with the same seed must produce the same graph.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testCheckpoint() throws Exception {
+        System.out.println("NNDescent with reliable checkpoint");
+        System.out.println("==================================");
+
+        File checkpoint_dir = createTempPath("checkpoint-");
+        getSpark().setCheckpointDir(checkpoint_dir.getAbsolutePath());
+
+        JavaRDD<Node<String>> nodes = readSpamNodes();
+
+        NNDescent<String> builder = new NNDescent<>();
+        builder.setK(K);
+        builder.setSimilarity(new JWSimilarity());
+        builder.setMaxIterations(ITERATIONS);
+        builder.setSeed(SEED);
+        builder.setStorageLevel(StorageLevel.MEMORY_AND_DISK());
+        builder.setCheckpoint(IterationState.Checkpoint.RELIABLE);
+        builder.setCheckpointInterval(1);
+
+        JavaPairRDD<Node<String>, NeighborList> graph1 =
+                builder.computeGraphFromNodes(nodes);
+        assertTrue(graph1.rdd().toDebugString().contains(
+                "ReliableCheckpointRDD"));
+
+        JavaPairRDD<Node<String>, NeighborList> graph2 =
+                builder.computeGraphFromNodes(nodes);
+
+        assertEquals(nodes.count(), graph1.count());
+        assertEquals(
+                nodes.count() * K,
+                DistributedGraph.countCommonEdges(graph1, graph2));
+    }
+
+    /**
+     * The selected candidates do not depend on the order in which they
+     * arrive (the order of the shuffle).
+     */
+    public final void testSelectIsDeterministic() {
+        System.out.println("Deterministic selection of candidates");
+        System.out.println("=====================================");
+
+        final int max_candidates = 5;
+        ArrayList<Tuple2<Long, Boolean>> candidates = new ArrayList<>();
+        for (long id = 0; id < 4 * max_candidates; id++) {
+            candidates.add(new Tuple2<>(id, id % 2 == 0));
+        }
+
+        ArrayList<Long> new1 = new ArrayList<>();
+        ArrayList<Long> old1 = new ArrayList<>();
+        LocalJoinFunction.select(candidates, max_candidates,
+                new Random(SEED), null, new1, old1);
+
+        Collections.shuffle(candidates, new Random(SEED + 1));
+        ArrayList<Long> new2 = new ArrayList<>();
+        ArrayList<Long> old2 = new ArrayList<>();
+        LocalJoinFunction.select(candidates, max_candidates,
+                new Random(SEED), null, new2, old2);
+
+        assertEquals(max_candidates, new1.size());
+        assertEquals(new1, new2);
+        assertEquals(old1, old2);
+    }
 }
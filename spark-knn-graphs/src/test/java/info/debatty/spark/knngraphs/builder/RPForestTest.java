@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package info.debatty.spark.knngraphs.builder;
+
+import info.debatty.java.datasets.gaussian.Dataset;
+import info.debatty.java.graphs.NeighborList;
+import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.KNNGraphCase;
+import info.debatty.spark.knngraphs.Node;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+
+/**
+ *
+ * @author Thibault Debatty
+ */
+public class RPForestTest extends KNNGraphCase {
+
+    private static final int K = 10;
+    private static final int SIZE = 2000;
+    private static final int TREES = 5;
+    private static final int LEAF_SIZE = 100;
+    private static final long SEED = 123456;
+    private static final double SUCCESS_RATIO = 0.8;
+    private static final int SMALL_LEAF_SIZE = 20;
+    private static final int SMALL_SAMPLE_SIZE = 20;
+    private static final double SMALL_LEAF_SUCCESS_RATIO = 0.5;
+
+    /**
+     * Compare the graph with the graph built by Brute, and check the size
+     * of the leaves and that no intermediate RDD remains persisted.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSynthetic() throws Exception {
+        System.out.println("Random projection forest");
+        System.out.println("========================");
+
+        JavaRDD<Node<double[]>> nodes = syntheticNodes();
+
+        JavaPairRDD<Node<double[]>, NeighborList> exact_graph =
+                exactGraph(nodes, new DoubleArraySimilarity(VectorMetric.L2), K);
+
+        RPForest builder = new RPForest();
+        builder.setK(K);
+        builder.setTrees(TREES);
+        builder.setLeafSize(LEAF_SIZE);
+        builder.setSeed(SEED);
+        int persisted = getSpark().getPersistentRDDs().size();
+        JavaPairRDD<Node<double[]>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        // the binning is released, the nodes (cached by the caller) are not
+        assertEquals(persisted, getSpark().getPersistentRDDs().size());
+        assertTrue(builder.getLargestBucketSize() <= 2 * LEAF_SIZE);
+
+        assertEquals(nodes.count(), graph.count());
+        assertTrue(correctRatio(exact_graph, graph, K) >= SUCCESS_RATIO);
+    }
+
+    /**
+     * With a sample much smaller than n / leaf_size, the sample is scaled so
+     * that leaves are still built from the data, and not split randomly.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testSmallSample() throws Exception {
+        System.out.println("Random projection forest, small sample");
+        System.out.println("======================================");
+
+        JavaRDD<Node<double[]>> nodes = syntheticNodes();
+
+        JavaPairRDD<Node<double[]>, NeighborList> exact_graph =
+                exactGraph(nodes, new DoubleArraySimilarity(VectorMetric.L2), K);
+
+        RPForest builder = new RPForest();
+        builder.setK(K);
+        builder.setTrees(TREES);
+        builder.setLeafSize(SMALL_LEAF_SIZE);
+        builder.setSampleSize(SMALL_SAMPLE_SIZE);
+        builder.setSeed(SEED);
+        JavaPairRDD<Node<double[]>, NeighborList> graph =
+                builder.computeGraphFromNodes(nodes);
+
+        System.out.printf("Largest leaf: %d nodes, %d oversized leaves\n",
+                builder.getLargestBucketSize(),
+                builder.getOversizedBuckets().size());
+
+        // without scaling, each leaf is a single sampled point, covering
+        // SIZE / SMALL_SAMPLE_SIZE nodes
+        assertTrue(builder.getLargestBucketSize() <= 5 * SMALL_LEAF_SIZE);
+
+        assertTrue(correctRatio(exact_graph, graph, K) >= SMALL_LEAF_SUCCESS_RATIO);
+    }
+
+    /**
+     * SIZE gaussian vectors, wrapped in (cached) nodes.
+     */
+    private JavaRDD<Node<double[]>> syntheticNodes() {
+        Dataset dataset = new Dataset.Builder(10, 13)
+                .setOverlap(Dataset.Builder.Overlap.HIGH)
+                .setSize(SIZE)
+                .build();
+        JavaRDD<Node<double[]>> nodes = DistributedGraph.wrapNodes(
+                getSpark().parallelize(dataset.getAll()));
+        nodes.cache();
+        return nodes;
+    }
+}
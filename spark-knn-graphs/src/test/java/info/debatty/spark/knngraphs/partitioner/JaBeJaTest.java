@@ -26,10 +26,14 @@ package info.debatty.spark.knngraphs.partitioner;
 
 import info.debatty.java.graphs.NeighborList;
 
+import info.debatty.spark.knngraphs.DenseNodes;
 import info.debatty.spark.knngraphs.DistributedGraph;
+import info.debatty.spark.knngraphs.JWSimilarity;
 import info.debatty.spark.knngraphs.KNNGraphCase;
 import info.debatty.spark.knngraphs.Node;
+import info.debatty.spark.knngraphs.builder.Brute;
 import info.debatty.spark.knngraphs.partitioner.jabeja.TimeBudget;
+import java.util.ArrayList;
 import java.util.Map;
 import org.apache.spark.api.java.JavaPairRDD;
 import scala.Tuple2;
@@ -63,6 +67,60 @@ public class JaBeJaTest extends KNNGraphCase {
         assertEquals(first_partition, (int) index.get(first_id));
     }
 
+    /**
+     * With dense ids, the index should use arrays and match the color
+     * index built with a map.
+     * @throws Exception if we cannot build the graph
+     */
+    public final void testBuildDenseIndex() throws Exception {
+        System.out.println("BuildDenseIndex");
+        System.out.println("===============");
+
+        DenseNodes<String> nodes = DistributedGraph.wrapNodesDense(
+                readSpam());
+        nodes.getNodes().cache();
+
+        Brute<String> brute = new Brute<>();
+        brute.setK(10);
+        brute.setSimilarity(new JWSimilarity());
+        brute.setStrategy(Brute.Strategy.CARTESIAN);
+        JavaPairRDD<Node<String>, NeighborList> graph =
+                brute.computeGraphFromNodes(nodes.getNodes());
+
+        JaBeJa<String> jbj = new JaBeJa<>(PARTITIONS);
+        graph = jbj.randomize(graph);
+        graph.cache();
+
+        ColorIndex index = JaBeJa.buildIndex(graph, PARTITIONS);
+        assertTrue(index.isDense());
+
+        Map<Long, Integer> color_index = JaBeJa.buildColorIndex(graph);
+        for (Map.Entry<Long, Integer> entry : color_index.entrySet()) {
+            assertEquals(
+                    (int) entry.getValue(), index.getColor(entry.getKey()));
+        }
+    }
+
+    /**
+     * If the degrees would not fit in a single array, the index should
+     * fall back to maps, even with dense ids.
+     */
+    public final void testLargeIndex() {
+        System.out.println("LargeIndex");
+        System.out.println("==========");
+
+        ArrayList<Tuple2<Long, Integer>> colors = new ArrayList<>();
+        colors.add(new Tuple2<>(0L, 0));
+        colors.add(new Tuple2<>(1L, 1));
+        colors.add(new Tuple2<>(2L, 0));
+
+        assertTrue(new ColorIndex(colors, PARTITIONS).isDense());
+
+        ColorIndex index = new ColorIndex(colors, Integer.MAX_VALUE / 2);
+        assertFalse(index.isDense());
+        assertEquals(1, index.getColor(1));
+    }
+
     /**
      * Perform a single swap and check the number of cross-partition edges
      * decreases.